@@ -0,0 +1,79 @@
+package bench;
+
+/**
+ * A Benchmark measures one operation. The runner sets the benchmark up once
+ * per JVM for a size and a number of threads, and then calls
+ * {@link #run(Blackhole, int, long)} from all threads as often as it can.
+ * What the size means depends on the benchmark, such as the number of books
+ * in the catalogue or the length of a list; benchmarks without sizes have
+ * the single size 0.
+ *
+ * The operation must not depend on chance : benchmarks pick their inputs from
+ * the thread and the number of the call, so that every run does the same work.
+ */
+public abstract class Benchmark {
+
+    private final String name;
+    private final int[] sizes;
+
+    /**
+     * @param name the name of the benchmark.
+     * @param sizes the sizes to run the benchmark with by default.
+     */
+    protected Benchmark(String name, int... sizes) {
+        super();
+        this.name = name;
+        this.sizes = sizes.length == 0 ? new int[] {0} : sizes.clone();
+    }
+
+    /**
+     * @return the name of the benchmark.
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * @return the sizes to run the benchmark with by default.
+     */
+    public int[] getSizes() {
+        return this.sizes.clone();
+    }
+
+    /**
+     * Prepares the state the operation works on.
+     * @param size the size to run the benchmark with.
+     * @param threads the number of threads that will run the operation.
+     * @throws Exception if the state cannot be prepared.
+     */
+    public void setUp(int size, int threads) throws Exception {
+    }
+
+    /**
+     * Performs the operation once.
+     * @param blackhole the blackhole of the thread, to consume results with.
+     * @param thread the index of the thread, from 0.
+     * @param call the number of the call in this thread, from 0.
+     * @throws Exception if the operation fails, which stops the benchmark.
+     */
+    public abstract void run(Blackhole blackhole, int thread, long call) throws Exception;
+
+    /**
+     * Releases the state of the benchmark.
+     * @throws Exception if the state cannot be released.
+     */
+    public void tearDown() throws Exception {
+    }
+
+    /**
+     * @param thread the index of a thread.
+     * @param call the number of a call in the thread.
+     * @param bound the number of inputs.
+     * @return the index of the input of the call : every call of a thread
+     * gets another, scattered input, in the same order on every run.
+     */
+    protected static int pick(int thread, long call, int bound) {
+        long mixed = (call + 0x632BE5ABL * thread) * 0x9E3779B97F4A7C15L;
+        return (int) ((mixed >>> 1) % bound);
+    }
+}
@@ -0,0 +1,426 @@
+package bench;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.regex.Pattern;
+
+/**
+ * The BenchmarkRunner class runs the benchmarks of the server core and the
+ * wire types, in the way of JMH : every benchmark, size and number of
+ * threads runs in fresh JVMs (forks), first for some warm-up iterations and
+ * then for the measured iterations, each of a fixed time. The score of an
+ * iteration is the average time of an operation. The inputs of the
+ * operations do not depend on chance, so runs on the same machine are
+ * comparable, and a run can be compared with a baseline to catch
+ * regressions.
+ *
+ * The runner is configured with system properties :
+ * <ul>
+ *      <li>bench.filter : a regular expression the names of the benchmarks
+ *      to run must contain (all);</li>
+ *      <li>bench.sizes : sizes to use instead of those of the benchmarks;</li>
+ *      <li>bench.threads : the numbers of threads to run with (1,4);</li>
+ *      <li>bench.forks : the number of JVMs per benchmark, or 0 to run in
+ *      this JVM (2);</li>
+ *      <li>bench.warmup and bench.iterations : the number of warm-up and
+ *      measured iterations per fork (5 and 5);</li>
+ *      <li>bench.time : the milliseconds of an iteration (1000);</li>
+ *      <li>bench.out : the path, without extension, to write the results to
+ *      as CSV and JSON (none);</li>
+ *      <li>bench.baseline : the CSV of an earlier run to compare with
+ *      (none);</li>
+ *      <li>bench.tolerance : the percentage a score may be slower than the
+ *      baseline (10).</li>
+ * </ul>
+ * The forks get the JVM options of the runner. The runner exits with status
+ * 1 if a benchmark failed or regressed.
+ */
+public final class BenchmarkRunner {
+
+    private static final String FORK = "--fork";
+    private static final String SCORE = "SCORE ";
+    private static final String CSV_HEADER = "benchmark,size,threads,samples,ns_per_op,error,ops_per_s";
+
+    private final int forks;
+    private final int warmup;
+    private final int iterations;
+    private final long time;
+
+    /**
+     * @param forks the number of JVMs per benchmark, or 0 to run in this JVM.
+     * @param warmup the number of warm-up iterations per fork.
+     * @param iterations the number of measured iterations per fork.
+     * @param time the milliseconds of an iteration.
+     * @throws IllegalArgumentException if a number is negative or there are
+     * no measured iterations.
+     */
+    public BenchmarkRunner(int forks, int warmup, int iterations, long time)
+            throws IllegalArgumentException {
+        super();
+        if (forks < 0 || warmup < 0 || iterations < 1 || time < 1)
+            throw new IllegalArgumentException("Invalid number of forks, iterations or time.");
+        this.forks = forks;
+        this.warmup = warmup;
+        this.iterations = iterations;
+        this.time = time;
+    }
+
+    /**
+     * @return all benchmarks.
+     */
+    static List<Benchmark> benchmarks() {
+        List<Benchmark> benchmarks = new ArrayList<>();
+        benchmarks.addAll(LibraryBenchmarks.create());
+        benchmarks.addAll(SessionBenchmarks.create());
+        benchmarks.addAll(BookBenchmarks.create());
+        benchmarks.addAll(LogBenchmarks.create());
+        return benchmarks;
+    }
+
+    /**
+     * @param name the name of a benchmark.
+     * @return the benchmark.
+     * @throws IllegalArgumentException if there is no benchmark with the name.
+     */
+    static Benchmark benchmark(String name) throws IllegalArgumentException {
+        for (Benchmark benchmark : benchmarks())
+            if (benchmark.getName().equals(name)) return benchmark;
+        throw new IllegalArgumentException("Unknown benchmark '" + name + "'.");
+    }
+
+    /**
+     * Measures a benchmark in all forks.
+     * @param benchmark the benchmark.
+     * @param size the size to run the benchmark with.
+     * @param threads the number of threads to run the benchmark with.
+     * @return the scores of the measured iterations.
+     * @throws Exception if the benchmark failed.
+     */
+    Result measure(Benchmark benchmark, int size, int threads) throws Exception {
+        Result result = new Result(benchmark.getName(), size, threads);
+        if (this.forks == 0) {
+            for (double[] score : this.run(benchmark, size, threads))
+                result.add(score[0], score[1]);
+        } else {
+            for (int fork = 0; fork < this.forks; fork++)
+                this.fork(benchmark, size, threads, result);
+        }
+        return result;
+    }
+
+    /**
+     * Runs the iterations of a benchmark in this JVM.
+     * @param benchmark the benchmark.
+     * @param size the size to run the benchmark with.
+     * @param threads the number of threads to run the benchmark with.
+     * @return for every measured iteration, the nanoseconds per operation and
+     * the operations per second.
+     * @throws Exception if the benchmark failed.
+     */
+    private List<double[]> run(Benchmark benchmark, int size, int threads) throws Exception {
+        benchmark.setUp(size, threads);
+        try {
+            Blackhole[] blackholes = new Blackhole[threads];
+            long[] calls = new long[threads];
+            for (int t = 0; t < threads; t++) blackholes[t] = new Blackhole();
+            List<double[]> scores = new ArrayList<>();
+            for (int i = 0; i < this.warmup + this.iterations; i++) {
+                double[] score = this.iterate(benchmark, blackholes, calls);
+                if (i >= this.warmup) scores.add(score);
+            }
+            return scores;
+        } finally {
+            benchmark.tearDown();
+        }
+    }
+
+    /**
+     * Runs one iteration : every thread calls the operation until the time
+     * of the iteration is up.
+     * @param benchmark the benchmark.
+     * @param blackholes the blackhole of every thread.
+     * @param calls the number of calls every thread made so far, which is
+     * updated.
+     * @return the nanoseconds per operation and the operations per second.
+     * @throws Exception if the operation failed.
+     */
+    private double[] iterate(final Benchmark benchmark, final Blackhole[] blackholes,
+            final long[] calls) throws Exception {
+        final int threads = blackholes.length;
+        final CountDownLatch start = new CountDownLatch(1);
+        final Control control = new Control();
+        final long[] counts = new long[threads];
+        final long[] elapsed = new long[threads];
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long call = calls[thread];
+                    long begin = 0;
+                    try {
+                        start.await();
+                        begin = System.nanoTime();
+                        while (control.running)
+                            benchmark.run(blackholes[thread], thread, call++);
+                    } catch (Throwable ex) {
+                        control.fail(ex);
+                    }
+                    elapsed[thread] = System.nanoTime() - begin;
+                    counts[thread] = call - calls[thread];
+                    calls[thread] = call;
+                }
+            }, "benchmark-" + t);
+            workers[t].start();
+        }
+        start.countDown();
+        Thread.sleep(this.time);
+        control.running = false;
+        for (Thread worker : workers) worker.join();
+        if (control.failure instanceof Exception) throw (Exception) control.failure;
+        if (control.failure != null) throw new RuntimeException(control.failure);
+
+        double throughput = 0;
+        for (int t = 0; t < threads; t++) throughput += counts[t] * 1e9 / elapsed[t];
+        return new double[] {threads * 1e9 / throughput, throughput};
+    }
+
+    /**
+     * Runs the iterations of a benchmark in a new JVM.
+     * @param benchmark the benchmark.
+     * @param size the size to run the benchmark with.
+     * @param threads the number of threads to run the benchmark with.
+     * @param result the result to add the scores to.
+     * @throws IOException if the JVM cannot be started or the benchmark failed.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    private void fork(Benchmark benchmark, int size, int threads, Result result)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Paths.get(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(ManagementFactory.getRuntimeMXBean().getInputArguments());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(BenchmarkRunner.class.getName());
+        command.add(FORK);
+        command.add(benchmark.getName());
+        command.add(Integer.toString(size));
+        command.add(Integer.toString(threads));
+        command.add(Integer.toString(this.warmup));
+        command.add(Integer.toString(this.iterations));
+        command.add(Long.toString(this.time));
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        StringBuilder output = new StringBuilder();
+        try (BufferedReader in = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith(SCORE)) {
+                    String[] score = line.substring(SCORE.length()).split(" ");
+                    result.add(Double.parseDouble(score[0]), Double.parseDouble(score[1]));
+                } else {
+                    output.append(line).append(System.lineSeparator());
+                }
+            }
+        }
+        if (process.waitFor() != 0)
+            throw new IOException("The fork of " + benchmark.getName() + " failed :"
+                    + System.lineSeparator() + output);
+    }
+
+    /**
+     * Runs a benchmark in a fork and prints the scores for the runner.
+     * @param args the benchmark, size, threads, warm-up and measured
+     * iterations and time of an iteration.
+     * @throws Exception if the benchmark failed.
+     */
+    private static void runFork(String[] args) throws Exception {
+        BenchmarkRunner runner = new BenchmarkRunner(0, Integer.parseInt(args[4]),
+                Integer.parseInt(args[5]), Long.parseLong(args[6]));
+        List<double[]> scores = runner.run(benchmark(args[1]),
+                Integer.parseInt(args[2]), Integer.parseInt(args[3]));
+        for (double[] score : scores)
+            System.out.println(SCORE + score[0] + " " + score[1]);
+    }
+
+    /**
+     * @param args the command line arguments, which are only used by forks.
+     */
+    public static void main(String[] args) {
+        try {
+            if (args.length == 7 && args[0].equals(FORK)) {
+                runFork(args);
+                System.exit(0);
+            }
+            BenchmarkRunner runner = new BenchmarkRunner(Integer.getInteger("bench.forks", 2),
+                    Integer.getInteger("bench.warmup", 5), Integer.getInteger("bench.iterations", 5),
+                    Long.getLong("bench.time", 1000));
+            Pattern filter = Pattern.compile(System.getProperty("bench.filter", ""));
+            int[] threads = parse(System.getProperty("bench.threads", "1,4"));
+            String sizes = System.getProperty("bench.sizes");
+
+            List<Result> results = new ArrayList<>();
+            for (Benchmark benchmark : benchmarks()) {
+                if (! filter.matcher(benchmark.getName()).find()) continue;
+                int[] benchmarkSizes = sizes == null || benchmark.getSizes()[0] == 0
+                        ? benchmark.getSizes() : parse(sizes);
+                for (int size : benchmarkSizes) {
+                    for (int count : threads) {
+                        Result result = runner.measure(benchmark, size, count);
+                        print(result);
+                        results.add(result);
+                    }
+                }
+            }
+
+            String out = System.getProperty("bench.out");
+            if (out != null) {
+                writeCsv(Paths.get(out + ".csv"), results);
+                runner.writeJson(Paths.get(out + ".json"), results);
+            }
+            String baseline = System.getProperty("bench.baseline");
+            if (baseline != null && compare(Paths.get(baseline), results,
+                    Double.parseDouble(System.getProperty("bench.tolerance", "10")) / 100) > 0)
+                System.exit(1);
+            System.exit(0);
+        } catch (Exception e) {
+            System.err.println(e.getClass().getName() + " : " + e.getLocalizedMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param result the result to print.
+     */
+    static void print(Result result) {
+        double error = result.getError();
+        System.out.printf(Locale.ROOT, "%-36s %8d %3d threads : %12.3f +- %10s ns/op %16.1f ops/s%n",
+                result.getBenchmark(), result.getSize(), result.getThreads(), result.getScore(),
+                Double.isNaN(error) ? "?" : String.format(Locale.ROOT, "%.3f", error),
+                result.getThroughput());
+    }
+
+    /**
+     * @param file the file to write.
+     * @param results the results to write.
+     * @throws IOException if the file cannot be written.
+     */
+    private static void writeCsv(Path file, List<Result> results) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(CSV_HEADER);
+            writer.write('\n');
+            for (Result result : results) {
+                writer.write(result.toCsv());
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Writes the results as JSON, with the JVM and machine they were
+     * measured on and the settings of the runner.
+     * @param file the file to write.
+     * @param results the results to write.
+     * @throws IOException if the file cannot be written.
+     */
+    private void writeJson(Path file, List<Result> results) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"java\": \"").append(System.getProperty("java.version"))
+                .append("\",\n  \"vm\": \"").append(System.getProperty("java.vm.name"))
+                .append("\",\n  \"os\": \"").append(System.getProperty("os.name")).append(' ')
+                .append(System.getProperty("os.arch"))
+                .append("\",\n  \"cpus\": ").append(Runtime.getRuntime().availableProcessors())
+                .append(",\n  \"forks\": ").append(this.forks)
+                .append(",\n  \"warmup\": ").append(this.warmup)
+                .append(",\n  \"iterations\": ").append(this.iterations)
+                .append(",\n  \"time_ms\": ").append(this.time)
+                .append(",\n  \"results\": [");
+        for (int i = 0; i < results.size(); i++)
+            json.append(i == 0 ? "\n    " : ",\n    ").append(results.get(i).toJson());
+        json.append("\n  ]\n}\n");
+        Files.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Compares results with a baseline. A result regressed if it is slower
+     * than the baseline by more than the tolerance, and their confidence
+     * intervals do not overlap.
+     * @param file the CSV of the baseline.
+     * @param results the results to compare.
+     * @param tolerance the share a score may be slower than the baseline.
+     * @return the number of results that regressed.
+     * @throws IOException if the baseline cannot be read.
+     */
+    private static int compare(Path file, List<Result> results, double tolerance) throws IOException {
+        Map<String, double[]> baseline = new HashMap<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isEmpty() || line.equals(CSV_HEADER)) continue;
+            String[] fields = line.split(",");
+            baseline.put(fields[0] + "," + fields[1] + "," + fields[2], new double[] {
+                Double.parseDouble(fields[4]), Double.parseDouble(fields[5])});
+        }
+        int regressions = 0;
+        for (Result result : results) {
+            double[] base = baseline.get(result.getKey());
+            if (base == null) continue;
+            double score = result.getScore();
+            double error = Double.isNaN(result.getError()) ? 0 : result.getError();
+            double baseError = Double.isNaN(base[1]) ? 0 : base[1];
+            double change = score / base[0] - 1;
+            if (change > tolerance && score - error > base[0] + baseError) {
+                regressions++;
+                System.out.printf(Locale.ROOT, "REGRESSION %s : %.3f -> %.3f ns/op (%+.1f%%)%n",
+                        result.getKey(), base[0], score, 100 * change);
+            }
+        }
+        System.out.println(regressions + " of " + results.size() + " results regressed against " + file + ".");
+        return regressions;
+    }
+
+    /**
+     * @param numbers numbers separated by commas.
+     * @return the numbers.
+     * @throws IllegalArgumentException if a number cannot be parsed.
+     */
+    static int[] parse(String numbers) throws IllegalArgumentException {
+        String[] parts = numbers.split(",");
+        int[] parsed = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                parsed[i] = Integer.parseInt(parts[i].trim().replace("_", ""));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid number '" + parts[i] + "'.", ex);
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Tells the threads of an iteration when to stop, and keeps the first
+     * failure of an operation.
+     */
+    static final class Control {
+
+        volatile boolean running = true;
+        Throwable failure;
+
+        synchronized void fail(Throwable ex) {
+            if (this.failure == null) this.failure = ex;
+            this.running = false;
+        }
+    }
+}
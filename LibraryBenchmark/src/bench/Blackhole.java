@@ -0,0 +1,44 @@
+package bench;
+
+/**
+ * The Blackhole class takes the results of benchmarked operations, so that
+ * the JIT compiler cannot leave out the work that produced them. Consuming a
+ * value costs a few compares; only rarely is the value published to a
+ * volatile field. Every thread of a benchmark has its own blackhole.
+ */
+public final class Blackhole {
+
+    private volatile long first = 0xC0FFEE;
+    private volatile long second = ~0xC0FFEEL;
+    private volatile Object sink;
+    private int state = 1;
+    private int mask = 1;
+
+    /**
+     * @param value a value to keep alive.
+     */
+    public void consume(Object value) {
+        int next = this.state * 1664525 + 1013904223;
+        this.state = next;
+        if ((next & this.mask) == 0) {
+            // publish once in a while, less and less often :
+            this.sink = value;
+            this.mask = (this.mask << 1) + 1;
+        }
+    }
+
+    /**
+     * @param value a value to keep alive.
+     */
+    public void consume(long value) {
+        // never true, since the fields differ, but unknown to the compiler :
+        if (value == this.first & value == this.second) this.sink = value;
+    }
+
+    /**
+     * @param value a value to keep alive.
+     */
+    public void consume(boolean value) {
+        this.consume(value ? 1L : 0L);
+    }
+}
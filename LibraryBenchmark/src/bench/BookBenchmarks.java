@@ -0,0 +1,215 @@
+package bench;
+
+import args.Book;
+import args.BookList;
+import args.ISBN;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The benchmarks of books : checking ISBNs, and the Java serialization of
+ * books and lists of books as RMI sends them. Like RMI, every message gets a
+ * fresh object stream, and every class descriptor is followed by its
+ * (empty) codebase annotation. Lists are sent both as the BookList the
+ * server returns and as a plain ArrayList.
+ */
+final class BookBenchmarks {
+
+    private static final int[] LIST_SIZES = {10, 1_000, 10_000};
+    private static final int ISBNS = 1024;
+
+    private BookBenchmarks() {
+        super();
+    }
+
+    /**
+     * @return the benchmarks of books.
+     */
+    static List<Benchmark> create() {
+        return Arrays.<Benchmark>asList(
+                new Benchmark("Book.correctISBNFormat") {
+                    private String[] isbns;
+
+                    @Override
+                    public void setUp(int size, int threads) {
+                        // the accepted forms, and one in ten with a wrong check digit :
+                        this.isbns = new String[ISBNS];
+                        for (int i = 0; i < ISBNS; i++) {
+                            String isbn = LibraryBenchmarks.isbn(i);
+                            switch (i % 10) {
+                                case 0:
+                                    isbn = isbn.substring(0, 13) + (char) ('0' + (isbn.charAt(13) - '0' + 1) % 10);
+                                    break;
+                                case 1: case 2: case 3:
+                                    isbn = isbn.replace("-", "");
+                                    break;
+                                case 4: case 5: case 6:
+                                    isbn = ISBN.toISBN10(isbn);
+                                    break;
+                                default:
+                                    break;
+                            }
+                            this.isbns[i] = isbn;
+                        }
+                    }
+
+                    @Override
+                    public void run(Blackhole blackhole, int thread, long call) {
+                        blackhole.consume(Book.correctISBNFormat(this.isbns[(int) (call % ISBNS)]));
+                    }
+                },
+                new SerializationBenchmark("Book.serialize", false) {
+                    @Override
+                    Object create(int size) {
+                        return LibraryBenchmarks.book(1, "owner");
+                    }
+                },
+                new SerializationBenchmark("Book.deserialize", true) {
+                    @Override
+                    Object create(int size) {
+                        return LibraryBenchmarks.book(1, "owner");
+                    }
+                },
+                new SerializationBenchmark("BookList.serialize", false, LIST_SIZES) {
+                    @Override
+                    Object create(int size) {
+                        return new BookList(books(size));
+                    }
+                },
+                new SerializationBenchmark("BookList.deserialize", true, LIST_SIZES) {
+                    @Override
+                    Object create(int size) {
+                        return new BookList(books(size));
+                    }
+                },
+                new SerializationBenchmark("ArrayList<Book>.serialize", false, LIST_SIZES) {
+                    @Override
+                    Object create(int size) {
+                        return books(size);
+                    }
+                },
+                new SerializationBenchmark("ArrayList<Book>.deserialize", true, LIST_SIZES) {
+                    @Override
+                    Object create(int size) {
+                        return books(size);
+                    }
+                });
+    }
+
+    /**
+     * @param size the number of books.
+     * @return a list of books with different ISBNs and a few owners.
+     */
+    private static List<Book> books(int size) {
+        List<Book> books = new ArrayList<>(size);
+        for (int i = 0; i < size; i++)
+            books.add(LibraryBenchmarks.book(i, "owner" + i % 16));
+        return books;
+    }
+
+    /**
+     * A benchmark that writes an object to bytes, or reads it back.
+     */
+    private abstract static class SerializationBenchmark extends Benchmark {
+
+        private final boolean read;
+        private byte[] bytes;
+        private Object value;
+        private ByteArrayOutputStream[] buffers;
+
+        SerializationBenchmark(String name, boolean read, int... sizes) {
+            super(name, sizes);
+            this.read = read;
+        }
+
+        /**
+         * @param size the size to run the benchmark with.
+         * @return the object to serialize.
+         */
+        abstract Object create(int size);
+
+        @Override
+        public void setUp(int size, int threads) throws IOException {
+            this.value = this.create(size);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            write(this.value, buffer);
+            this.bytes = buffer.toByteArray();
+            this.buffers = new ByteArrayOutputStream[threads];
+            for (int t = 0; t < threads; t++)
+                this.buffers[t] = new ByteArrayOutputStream(this.bytes.length);
+        }
+
+        @Override
+        public void run(Blackhole blackhole, int thread, long call) throws Exception {
+            if (this.read) {
+                try (ObjectInputStream in = new MarshalInputStream(new ByteArrayInputStream(this.bytes))) {
+                    blackhole.consume(in.readObject());
+                }
+            } else {
+                ByteArrayOutputStream buffer = this.buffers[thread];
+                buffer.reset();
+                write(this.value, buffer);
+                blackhole.consume(buffer.size());
+            }
+        }
+
+        /**
+         * @param value the object to serialize.
+         * @param buffer the buffer to write to, which is empty.
+         * @throws IOException if the object cannot be serialized.
+         */
+        private static void write(Object value, ByteArrayOutputStream buffer) throws IOException {
+            try (ObjectOutputStream out = new MarshalOutputStream(buffer)) {
+                out.writeObject(value);
+            }
+        }
+    }
+
+    /**
+     * An object stream that writes an empty codebase after every class
+     * descriptor, like the streams of RMI.
+     */
+    private static final class MarshalOutputStream extends ObjectOutputStream {
+
+        MarshalOutputStream(OutputStream out) throws IOException {
+            super(out);
+        }
+
+        @Override
+        protected void annotateClass(Class<?> type) throws IOException {
+            this.writeObject(null);
+        }
+
+        @Override
+        protected void annotateProxyClass(Class<?> type) throws IOException {
+            this.writeObject(null);
+        }
+    }
+
+    /**
+     * An object stream that reads the codebase after every class descriptor,
+     * like the streams of RMI.
+     */
+    private static final class MarshalInputStream extends ObjectInputStream {
+
+        MarshalInputStream(InputStream in) throws IOException {
+            super(in);
+        }
+
+        @Override
+        protected Class<?> resolveClass(ObjectStreamClass descriptor)
+                throws IOException, ClassNotFoundException {
+            this.readObject();
+            return super.resolveClass(descriptor);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package bench;
+
+import args.Book;
+import args.ISBN;
+import args.Rating;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import system.Library;
+
+/**
+ * The benchmarks of the catalogue of the library. The catalogue of a given
+ * size holds every ISBN in {@link #COPIES} copies, with different owners,
+ * and every owner has about {@link #BOOKS_PER_OWNER} books.
+ *
+ * The benchmarks pick their books from at most {@link #SAMPLE} books spread
+ * over the catalogue, so that catalogues of millions of books, such as
+ * {@code -Dbench.sizes=1000,100000,1000000,10000000}, fit in the heap. The
+ * system property bench.storage selects the storage of the library (HEAP).
+ */
+final class LibraryBenchmarks {
+
+    /**
+     * The number of owners of every ISBN.
+     */
+    static final int COPIES = 4;
+
+    /**
+     * The number of books of an owner.
+     */
+    static final int BOOKS_PER_OWNER = 50;
+
+    /**
+     * The maximal number of books the benchmarks pick from.
+     */
+    static final int SAMPLE = 100_000;
+
+    private static final int[] SIZES = {1_000, 10_000, 100_000};
+    private static final int FRESH_BOOKS = 4096;
+    private static final Rating[] RATINGS = Rating.values();
+
+    private LibraryBenchmarks() {
+        super();
+    }
+
+    /**
+     * @return the benchmarks of the catalogue.
+     */
+    static List<Benchmark> create() {
+        return Arrays.<Benchmark>asList(
+                new CatalogueBenchmark("Library.addBook+removeBook") {
+                    private Book[][] fresh;
+
+                    @Override
+                    public void setUp(int size, int threads) throws Exception {
+                        super.setUp(size, threads);
+                        // books that are not in the catalogue, per thread :
+                        this.fresh = new Book[threads][FRESH_BOOKS];
+                        for (int t = 0; t < threads; t++)
+                            for (int i = 0; i < FRESH_BOOKS; i++)
+                                this.fresh[t][i] = book(size + i, "thread" + t);
+                    }
+
+                    @Override
+                    public void run(Blackhole blackhole, int thread, long call) {
+                        // the book is removed again, so the catalogue keeps its size :
+                        Book book = this.fresh[thread][(int) (call % FRESH_BOOKS)];
+                        this.library.addBook(book);
+                        this.library.removeBook(book);
+                    }
+                },
+                new CatalogueBenchmark("Library.lookupBook") {
+                    @Override
+                    public void run(Blackhole blackhole, int thread, long call) {
+                        Book book = this.books[pick(thread, call, this.books.length)];
+                        blackhole.consume(this.library.lookupBook(book.getISBN(), book.getOwner()));
+                    }
+                },
+                new CatalogueBenchmark("Library.getOwnersForBook") {
+                    @Override
+                    public void run(Blackhole blackhole, int thread, long call) {
+                        Book book = this.books[pick(thread, call, this.books.length)];
+                        blackhole.consume(this.library.getOwnersForBook(book.getISBN()));
+                    }
+                },
+                new CatalogueBenchmark("Library.getBooksForOwner") {
+                    @Override
+                    public void run(Blackhole blackhole, int thread, long call) {
+                        Book book = this.books[pick(thread, call, this.books.length)];
+                        blackhole.consume(this.library.getBooksForOwner(book.getOwner()));
+                    }
+                });
+    }
+
+    /**
+     * @param index the index of an ISBN.
+     * @param owner the owner of the book.
+     * @return a book with an ISBN of its own for every index.
+     */
+    static Book book(int index, String owner) {
+        String isbn = isbn(index);
+        return new Book("Title " + index, "Author " + index % 997, 1900 + index % 120,
+                RATINGS[index % RATINGS.length], isbn, owner);
+    }
+
+    /**
+     * @param index the index of an ISBN.
+     * @return an ISBN-13 of its own for every index.
+     */
+    static String isbn(int index) {
+        long first12 = 978_000_000_000L + index;
+        int sum = 0;
+        long digits = first12;
+        for (int i = 0; i < 12; i++) {
+            // the last of the 12 digits has weight 3 :
+            sum += (i % 2 == 0 ? 3 : 1) * (int) (digits % 10);
+            digits /= 10;
+        }
+        return ISBN.unpack(10 * first12 + (10 - sum % 10) % 10);
+    }
+
+    /**
+     * A benchmark on a catalogue that is filled in the set up.
+     */
+    private abstract static class CatalogueBenchmark extends Benchmark {
+
+        protected Library library;
+        protected Book[] books;
+
+        CatalogueBenchmark(String name) {
+            super(name, SIZES);
+        }
+
+        @Override
+        public void setUp(int size, int threads) throws Exception {
+            this.library = new Library(Library.Storage.valueOf(
+                    System.getProperty("bench.storage", "HEAP").toUpperCase(Locale.ROOT)));
+            this.books = new Book[Math.min(size, SAMPLE)];
+            // every stride-th book is kept in the sample :
+            int stride = (size + SAMPLE - 1) / SAMPLE;
+            int owners = Math.max(COPIES, size / BOOKS_PER_OWNER);
+            for (int i = 0; i < size; i++) {
+                Book book = book(i / COPIES, "owner" + i % owners);
+                this.library.addBook(book);
+                if (i % stride == 0 && i / stride < this.books.length) this.books[i / stride] = book;
+            }
+        }
+    }
+}
@@ -0,0 +1,572 @@
+package bench;
+
+import args.Book;
+import args.ChangeSet;
+import args.ISBN;
+import args.Page;
+import args.Rating;
+import args.Session;
+import exceptions.AuthenticationException;
+import exceptions.BookNotFoundException;
+import exceptions.PersistenceException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import system.Library;
+import system.SessionModule;
+import system.SessionTokens;
+import system.Snapshot;
+import system.SnapshotManager;
+import system.User;
+import system.WriteAheadLog;
+
+/**
+ * The LibraryChecks class checks behaviour of the library that earlier
+ * versions got wrong. It prints the outcome of every check and exits with
+ * status 1 if one failed.
+ */
+public final class LibraryChecks {
+
+    private LibraryChecks() {
+        super();
+    }
+
+    /**
+     * @param args the command line arguments, which are ignored.
+     */
+    public static void main(String[] args) {
+        int failed = 0;
+        for (int pageSize = 1; pageSize <= 4; pageSize++)
+            failed += check("paging after the book of the cursor was removed, pages of " + pageSize,
+                    pagingAfterRemovingCursor(pageSize));
+        failed += check("ISBN-13 with a leading zero", isbn13WithLeadingZero());
+        failed += check("searching for books with every word of a query", searchingEveryWord());
+        failed += check("books by ISBN-10 after a round trip", bookRoundTrip());
+        for (Library.Storage storage : Library.Storage.values())
+            failed += check("names of removed books in the " + storage + " store", reusingNames(storage));
+        failed += check("closing the write-ahead log while books are added", closingLogWhileAppending());
+        failed += check("adding and removing books after the write-ahead log was closed",
+                mutatingAfterClosingLog());
+        failed += check("following the changes of concurrent writers", followingChanges());
+        failed += check("truncating the write-ahead log after snapshots", truncatingLogAfterSnapshots());
+        failed += check("session tokens after logging off", tokensAfterLoggingOff());
+        failed += check("upgrading an MD5 credential at login", upgradingCredential());
+        System.exit(failed == 0 ? 0 : 1);
+    }
+
+    /**
+     * Pages through a catalogue and removes the last book of the first page
+     * before asking for the next.
+     * @param pageSize the size of the pages.
+     * @return NULL if every remaining book was listed once and in order, or
+     * else what went wrong.
+     */
+    static String pagingAfterRemovingCursor(int pageSize) {
+        Library library = new Library();
+        List<Book> expected = new ArrayList<>();
+        // the only copy of the first ISBN, whose bucket disappears with it,
+        // and an owner that sorts after the first copies of the next ISBN :
+        expected.add(LibraryBenchmarks.book(0, "m"));
+        for (int i = 1; i <= 4; i++)
+            for (String owner : new String[] {"a", "b", "z"})
+                expected.add(LibraryBenchmarks.book(i, owner));
+        for (Book book : expected) library.addBook(book);
+
+        Page<Book> page = library.getBooks(null, pageSize);
+        List<Book> listed = new ArrayList<>(page.getItems());
+        Book cursorBook = listed.get(listed.size() - 1);
+        library.removeBook(cursorBook);
+        expected.remove(cursorBook);
+        while (page.hasNext()) {
+            page = library.getBooks(page.getNextCursor(), pageSize);
+            listed.addAll(page.getItems());
+        }
+        listed.remove(cursorBook);
+        return listed.equals(expected) ? null : "expected " + expected + " but got " + listed;
+    }
+
+    /**
+     * Searches a catalogue whose titles and authors are made of a few words,
+     * and ranks the same books by hand : a word in the title counts 2, a word
+     * in the author 1, and ties are broken by ISBN.
+     * @return NULL if every query returned the books ranked by hand and a
+     * NULL query was rejected, or else what went wrong.
+     */
+    static String searchingEveryWord() {
+        String[] words = {"red", "blue", "sea", "sky"};
+        Library library = new Library();
+        List<Book> books = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            StringBuilder title = new StringBuilder();
+            StringBuilder author = new StringBuilder();
+            for (int w = 0; w < words.length; w++) {
+                if ((i >> w & 1) != 0) title.append(words[w]).append(' ');
+                if ((i >> (w + words.length) & 1) != 0) author.append(words[w]).append(' ');
+            }
+            Book book = new Book(title + "#" + i, author + "#" + i, 2000, Rating.GOOD,
+                    LibraryBenchmarks.isbn(i), "Owner");
+            library.addBook(book);
+            books.add(book);
+        }
+
+        for (String query : new String[] {"red", "Red SEA", "sky blue red", "red red", "sea green"}) {
+            List<Book> expected = new ArrayList<>();
+            List<Integer> scores = new ArrayList<>();
+            for (Book book : books) {
+                int score = 0;
+                for (String word : new HashSet<>(Arrays.asList(query.toLowerCase().split(" ")))) {
+                    int weight = (book.getTitle().contains(word + " ") ? 2 : 0)
+                            + (book.getAuthor().contains(word + " ") ? 1 : 0);
+                    if (weight == 0) {
+                        score = 0;
+                        break;
+                    }
+                    score += weight;
+                }
+                if (score == 0) continue;
+                // books come in ISBN order, so a stable insertion keeps ties by ISBN :
+                int at = 0;
+                while (at < scores.size() && scores.get(at) >= score) at++;
+                expected.add(at, book);
+                scores.add(at, score);
+            }
+            if (expected.size() > 10) expected = expected.subList(0, 10);
+            List<Book> found = library.searchBooks(query, 10);
+            if (! found.equals(expected))
+                return "'" + query + "' expected " + expected + " but got " + found;
+        }
+
+        try {
+            library.searchBooks(null, 10);
+            return "a NULL query was accepted";
+        } catch (IllegalArgumentException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @return NULL if the ISBN-13 of a book with prefix 075 keeps all 13
+     * digits, or else what went wrong.
+     */
+    static String isbn13WithLeadingZero() {
+        String isbn13 = ISBN.toISBN13("075-8501177645");
+        if (! "0758501177645".equals(isbn13)) return "expected 0758501177645 but got " + isbn13;
+        if (! ISBN.isValid(isbn13)) return isbn13 + " is not valid";
+        return null;
+    }
+
+    /**
+     * Removes every other book, whose authors and owners are then no longer
+     * used, and adds books with new names under the same ISBNs.
+     * @param storage where the library keeps its books.
+     * @return NULL if the library holds exactly the remaining and the new
+     * books, with their own names, or else what went wrong.
+     */
+    static String reusingNames(Library.Storage storage) {
+        Library library = new Library(storage);
+        Set<String> expected = new HashSet<>();
+        for (int i = 0; i < 200; i++) {
+            Book book = new Book("Title " + i, i % 2 == 0 ? "Shared" : "Author " + i, 2000,
+                    Rating.GOOD, LibraryBenchmarks.isbn(i), "Owner " + i);
+            library.addBook(book);
+            if (i % 2 == 0) expected.add(describe(book));
+        }
+        for (int i = 1; i < 200; i += 2) library.removeBook(LibraryBenchmarks.isbn(i), "Owner " + i);
+        for (int i = 1; i < 200; i += 2) {
+            Book book = new Book("Title " + i, "Writer " + i, 2000,
+                    Rating.GOOD, LibraryBenchmarks.isbn(i), "Reader " + i);
+            library.addBook(book);
+            expected.add(describe(book));
+        }
+
+        Set<String> held = new HashSet<>();
+        for (Book book : library.getBooks()) held.add(describe(book));
+        if (! held.equals(expected)) return "expected " + expected + " but got " + held;
+        try {
+            library.lookupBook(LibraryBenchmarks.isbn(1), "Owner 1");
+            return "a removed book was found";
+        } catch (BookNotFoundException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @param book a book.
+     * @return the title, author, owner and ISBN of the book.
+     */
+    private static String describe(Book book) {
+        return book.getTitle() + "|" + book.getAuthor() + "|" + book.getOwner() + "|" + book.getISBN();
+    }
+
+    /**
+     * Sends a book with an ISBN-10 through serialization and through a
+     * library, which both hand it back with the normalized ISBN-13.
+     * @return NULL if the book that comes back equals the book that was
+     * sent, or else what went wrong.
+     */
+    static String bookRoundTrip() {
+        Book sent = new Book("Title", "Author", 2000, Rating.GOOD, "0306406152", "Owner");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(sent);
+            }
+            Book read;
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                read = (Book) in.readObject();
+            }
+            if (read.getISBN().equals(sent.getISBN())) return "the ISBN was not normalized";
+            if (! read.equals(sent) || ! sent.equals(read) || read.hashCode() != sent.hashCode())
+                return sent.getISBN() + " and " + read.getISBN() + " are different books";
+
+            Library library = new Library();
+            library.addBook(sent);
+            Book listed = library.getBooks().get(0);
+            if (! listed.equals(sent) || listed.hashCode() != sent.hashCode())
+                return "the library hands out " + listed.getISBN() + " as a different book";
+            if (! new HashSet<>(library.getBooks()).contains(sent))
+                return "the listing does not contain the book by its ISBN-10";
+            if (sent.equals(new Book("Title", "Author", 2000, Rating.GOOD, "0306406152", "Other")))
+                return "the books of different owners are equal";
+            return null;
+        } catch (IOException | ClassNotFoundException ex) {
+            return ex.toString();
+        }
+    }
+
+    /**
+     * Closes the write-ahead log of a library while threads add books to it,
+     * a number of times. Every addition must either return or fail, rather
+     * than wait for a record that the closed log will never write.
+     * @return NULL if all threads finished, or else what went wrong.
+     */
+    static String closingLogWhileAppending() {
+        try {
+            for (int round = 0; round < 50; round++) {
+                Path file = Files.createTempFile("checks", ".wal");
+                final Library library = new Library();
+                WriteAheadLog log = new WriteAheadLog(file, 0, TimeUnit.MICROSECONDS);
+                log.replay(library);
+                library.setWriteAheadLog(log);
+                Thread[] threads = new Thread[8];
+                for (int t = 0; t < threads.length; t++) {
+                    final String owner = "thread" + t;
+                    threads[t] = new Thread(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                for (int i = 0; ; i++) library.addBook(LibraryBenchmarks.book(i, owner));
+                            } catch (PersistenceException ex) {
+                                // the log was closed
+                            }
+                        }
+                    }, "checks-" + t);
+                    threads[t].setDaemon(true);
+                    threads[t].start();
+                }
+                Thread.sleep(round % 10);
+                log.close();
+                for (Thread thread : threads) {
+                    thread.join(10_000);
+                    if (thread.isAlive())
+                        return thread.getName() + " still waits for the closed log in round " + round;
+                }
+                Files.delete(file);
+            }
+            return null;
+        } catch (IOException | InterruptedException ex) {
+            return ex.toString();
+        }
+    }
+
+    /**
+     * Closes the write-ahead log of a library and then tries to add a book
+     * and remove another. Both must be rejected without a trace : the
+     * catalogue and the changes since the log was closed stay as they were.
+     * @return NULL if the library is unchanged, or else what went wrong.
+     */
+    static String mutatingAfterClosingLog() {
+        try {
+            Path file = Files.createTempFile("checks", ".wal");
+            Library library = new Library();
+            WriteAheadLog log = new WriteAheadLog(file, 0, TimeUnit.MICROSECONDS);
+            log.replay(library);
+            library.setWriteAheadLog(log);
+            Book kept = LibraryBenchmarks.book(1, "a");
+            library.addBook(kept);
+            log.close();
+            long version = library.getVersion();
+            List<Book> before = library.getBooks();
+            try {
+                library.addBook(LibraryBenchmarks.book(2, "a"));
+                return "the book was added to a library whose log is closed";
+            } catch (PersistenceException ex) {
+                // rejected
+            }
+            try {
+                library.removeBook(kept);
+                return "the book was removed from a library whose log is closed";
+            } catch (PersistenceException ex) {
+                // rejected
+            }
+            Files.delete(file);
+            if (! library.getBooks().equals(before))
+                return "expected " + before + " but got " + library.getBooks();
+            if (library.getVersion() != version || ! library.getChangesSince(version).isEmpty())
+                return "the rejected mutations were recorded as changes";
+            if (! library.checkIndexes().isEmpty()) return library.checkIndexes().toString();
+            return null;
+        } catch (IOException ex) {
+            return ex.toString();
+        }
+    }
+
+    /**
+     * Follows the changes of a library through getChangesSince while threads
+     * add and remove books, as a client cache does. The books that the
+     * changes add up to must be the books of the library.
+     * @return NULL if the follower ends up with the books of the library, or
+     * else what went wrong.
+     */
+    static String followingChanges() {
+        final Library library = new Library();
+        final AtomicBoolean running = new AtomicBoolean(true);
+        Thread[] threads = new Thread[8];
+        for (int t = 0; t < threads.length; t++) {
+            final String owner = "thread" + t;
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int i = 0; running.get(); i++) {
+                        Book book = LibraryBenchmarks.book(i % 64, owner);
+                        if (i / 64 % 2 == 0) library.addBook(book);
+                        else library.removeBook(book);
+                    }
+                }
+            }, "checks-" + t);
+            threads[t].setDaemon(true);
+            threads[t].start();
+        }
+        Set<Book> followed = new HashSet<>();
+        long version = library.getVersion();
+        long deadline = System.currentTimeMillis() + 500;
+        try {
+            while (true) {
+                boolean done = System.currentTimeMillis() > deadline;
+                if (done) {
+                    running.set(false);
+                    for (Thread thread : threads) thread.join();
+                }
+                ChangeSet changes = library.getChangesSince(version);
+                if (changes.isResyncRequired()) {
+                    followed = new HashSet<>(library.getBooks());
+                } else {
+                    followed.removeAll(changes.getRemoved());
+                    followed.addAll(changes.getAdded());
+                }
+                version = changes.getVersion();
+                if (done) break;
+            }
+        } catch (InterruptedException ex) {
+            return ex.toString();
+        }
+        Set<Book> expected = new HashSet<>(library.getBooks());
+        return followed.equals(expected) ? null : "expected " + expected.size()
+                + " books but the changes add up to " + followed.size();
+    }
+
+    /**
+     * Takes a number of snapshots of a library with a write-ahead log while
+     * books are added and removed, and then recovers the library from the
+     * newest snapshot and the log, as the server does on startup.
+     * @return NULL if the log only kept the segments that the snapshots need
+     * and the recovered library holds the same books, or else what went
+     * wrong.
+     */
+    static String truncatingLogAfterSnapshots() {
+        Path directory = null;
+        try {
+            directory = Files.createTempDirectory("checks");
+            Path file = directory.resolve("library.wal");
+            Path snapshots = directory.resolve("snapshots");
+            Library library = new Library();
+            WriteAheadLog log = new WriteAheadLog(file, 0, TimeUnit.MICROSECONDS);
+            log.replay(library);
+            library.setWriteAheadLog(log);
+            try {
+                new SnapshotManager(snapshots, library, null);
+                return "a snapshot manager was created without a write-ahead log";
+            } catch (NullPointerException ex) {
+                // refused
+            }
+            SnapshotManager manager = new SnapshotManager(snapshots, library, log);
+            for (int round = 0; round < 5; round++) {
+                for (int i = 0; i < 100; i++) library.addBook(LibraryBenchmarks.book(i, "owner" + round));
+                for (int i = 0; i < 50; i++) library.removeBook(LibraryBenchmarks.book(i, "owner" + round));
+                manager.takeSnapshot();
+            }
+            for (int i = 0; i < 10; i++) library.addBook(LibraryBenchmarks.book(i, "last"));
+            manager.close();
+            log.close();
+
+            int segments = 0;
+            try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "library.wal.*")) {
+                for (Path segment : stream) segments++;
+            }
+            if (segments > 2) return segments + " log segments were kept for 2 snapshots";
+
+            Snapshot snapshot = SnapshotManager.loadNewest(snapshots, Library.Storage.HEAP);
+            Library recovered = snapshot.getLibrary();
+            WriteAheadLog reopened = new WriteAheadLog(file, 0, TimeUnit.MICROSECONDS);
+            int records = reopened.replay(recovered, snapshot.getLsn());
+            reopened.close();
+            if (records != 10) return "replayed " + records + " records after the newest snapshot instead of 10";
+            if (! new HashSet<>(recovered.getBooks()).equals(new HashSet<>(library.getBooks())))
+                return "the recovered library holds " + recovered.getBooks().size() + " books instead of "
+                        + library.getBooks().size();
+            return null;
+        } catch (IOException ex) {
+            return ex.toString();
+        } finally {
+            if (directory != null) deleteTree(directory);
+        }
+    }
+
+    /**
+     * Deletes a directory with everything in it, as far as possible.
+     * @param directory the directory to delete.
+     */
+    private static void deleteTree(Path directory) {
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                    Files.delete(file);
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult postVisitDirectory(Path dir, IOException ex) throws IOException {
+                    Files.delete(dir);
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (IOException ex) {
+            // left for the system to clean up
+        }
+    }
+
+    /**
+     * Logs a user on at one of two servers that share the token secret, and
+     * off again. The other server accepts the token until it expires, but
+     * only the issuer refreshes it, and not after the user logged off.
+     * @return NULL if the tokens are accepted and refreshed as they should,
+     * or else what went wrong.
+     */
+    static String tokensAfterLoggingOff() {
+        try {
+            byte[] secret = "checks secret".getBytes(StandardCharsets.UTF_8);
+            Library library = SessionBenchmarks.createLibrary(1);
+            SessionModule issuer = new SessionModule(library,
+                    new SessionTokens(secret, 200, TimeUnit.MILLISECONDS));
+            SessionModule other = new SessionModule(library,
+                    new SessionTokens(secret, 200, TimeUnit.MILLISECONDS));
+            Session token = issuer.authenticate("user0", "user0");
+            if (! other.isAuthenticated(token)) return "the other server rejects a new token";
+            Thread.sleep(300);
+            if (other.isAuthenticated(token)) return "the other server accepts an expired token";
+            Session refreshed = refresh(issuer, token);
+            if (refreshed == null || ! other.isAuthenticated(refreshed))
+                return "the issuer does not refresh an expired token of a live session";
+            if (refresh(other, refreshed) != null) return "a server refreshes a token it did not issue";
+            issuer.destroySession("user0");
+            if (issuer.isAuthenticated(refreshed)) return "the issuer accepts a token after logging off";
+            if (refresh(issuer, refreshed) != null) return "the issuer refreshes a token after logging off";
+            Thread.sleep(300);
+            if (other.isAuthenticated(refreshed))
+                return "the other server accepts a token of a user that logged off after it expired";
+            return null;
+        } catch (Exception ex) {
+            return ex.toString();
+        }
+    }
+
+    /**
+     * Logs in a user with an MD5 credential in a library with a write-ahead
+     * log, and then recovers the library from the log.
+     * @return NULL if the login stored a PBKDF2 credential that survives the
+     * recovery and accepts the password, or else what went wrong.
+     */
+    static String upgradingCredential() {
+        try {
+            Path file = Files.createTempFile("checks", ".wal");
+            try {
+                Library library = new Library();
+                WriteAheadLog log = new WriteAheadLog(file, 0, TimeUnit.MICROSECONDS);
+                log.replay(library);
+                library.setWriteAheadLog(log);
+                library.addUser(new User("user0", SessionBenchmarks.md5("user0")));
+                new SessionModule(library).authenticate("user0", "user0");
+                String upgraded = library.lookupUser("user0").getPassword();
+                log.close();
+                if (! upgraded.startsWith("{PBKDF2-SHA256}600000$"))
+                    return "the credential was upgraded to " + upgraded;
+
+                Library recovered = new Library();
+                try (WriteAheadLog replayed = new WriteAheadLog(file, 0, TimeUnit.MICROSECONDS)) {
+                    replayed.replay(recovered);
+                }
+                String stored = recovered.lookupUser("user0").getPassword();
+                if (! stored.equals(upgraded)) return "the log holds " + stored + " instead of " + upgraded;
+                new SessionModule(recovered).authenticate("user0", "user0");
+                return null;
+            } finally {
+                Files.delete(file);
+            }
+        } catch (Exception ex) {
+            return ex.toString();
+        }
+    }
+
+    /**
+     * @param sessions a session module.
+     * @param session the session to refresh.
+     * @return the refreshed session, or NULL if the module refused it.
+     * @throws RemoteException never, as the module is called locally.
+     */
+    private static Session refresh(SessionModule sessions, Session session) throws RemoteException {
+        try {
+            return sessions.refreshSession(session);
+        } catch (AuthenticationException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * @param name the name of a check.
+     * @param failure NULL if the check passed, or what went wrong.
+     * @return 0 if the check passed, or else 1.
+     */
+    private static int check(String name, String failure) {
+        System.out.println((failure == null ? "OK     " : "FAILED ") + name
+                + (failure == null ? "" : " : " + failure));
+        return failure == null ? 0 : 1;
+    }
+}
@@ -0,0 +1,450 @@
+package bench;
+
+import args.Book;
+import args.ISBN;
+import args.MutationResult;
+import args.Page;
+import exceptions.BookNotFoundException;
+import exceptions.DuplicateException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import system.Library;
+
+/**
+ * The LibraryStress class hammers a library with a mix of additions,
+ * removals, batches and reads from a growing number of threads, which all
+ * work on the same small set of books so that they contend. After every
+ * round it checks that the store, the index by ISBN, the index by owner,
+ * the full-text index and the index by year and rating agree : with
+ * {@link Library#checkIndexes()}, and through the public listings, whole and
+ * in pages, against the books that can be looked up. A round whose threads
+ * do not finish in time is reported with the deadlocked threads.
+ *
+ * Then it measures the throughput of {@code Library.addBook+removeBook} and
+ * {@code Library.lookupBook} with the same numbers of threads.
+ *
+ * The stress test is configured with system properties :
+ * <ul>
+ *      <li>bench.threads : the numbers of threads (1,2,4,8,16,32,64);</li>
+ *      <li>bench.time : the milliseconds of a round (2000), which is also the
+ *      time of an iteration of the benchmarks;</li>
+ *      <li>bench.storage : HEAP or OFF_HEAP (HEAP);</li>
+ *      <li>bench.timeout : the seconds a round may overrun before it is
+ *      considered deadlocked (30);</li>
+ *      <li>bench.sizes, bench.forks, bench.warmup and bench.iterations : as
+ *      for the {@link BenchmarkRunner}, but with 10000 books, 1 fork, 2
+ *      warm-up and 3 measured iterations; 0 forks skip the benchmarks.</li>
+ * </ul>
+ * It exits with status 1 if an invariant was broken or a round deadlocked.
+ */
+public final class LibraryStress {
+
+    // books in the stress test have ISBNs beyond those of the benchmarks :
+    private static final int FIRST_ISBN = 1_000_000;
+    private static final int ISBNS = 240;
+    private static final int OWNERS = 16;
+    private static final int BATCH = 8;
+    private static final int PAGE = 7;
+    private static final int MAX_FAILURES = 10;
+
+    private final Library library;
+    private final List<String> failures;
+
+    /**
+     * @param storage the way in which the library stores its books.
+     */
+    private LibraryStress(Library.Storage storage) {
+        super();
+        this.library = new Library(storage);
+        this.failures = new ArrayList<>();
+        // start with every other book in the library :
+        for (int i = 0; i < ISBNS; i++)
+            for (int o = i % 2; o < OWNERS; o += 2)
+                this.library.addBook(book(i, o));
+    }
+
+    /**
+     * @param args the command line arguments, which are ignored.
+     */
+    public static void main(String[] args) {
+        try {
+            int[] threads = BenchmarkRunner.parse(System.getProperty("bench.threads", "1,2,4,8,16,32,64"));
+            long time = Long.getLong("bench.time", 2000);
+            Library.Storage storage = Library.Storage.valueOf(
+                    System.getProperty("bench.storage", "HEAP").toUpperCase(Locale.ROOT));
+            long timeout = Long.getLong("bench.timeout", 30);
+
+            boolean failed = false;
+            for (int count : threads) {
+                LibraryStress stress = new LibraryStress(storage);
+                double throughput = stress.round(count, time, timeout);
+                if (Double.isNaN(throughput)) System.exit(1);
+                stress.check();
+                System.out.printf(Locale.ROOT, "%-36s %3d threads : %16.1f ops/s, %s%n",
+                        "stress " + storage, count, throughput,
+                        stress.failures.isEmpty() ? "invariants hold" : "INVARIANTS BROKEN");
+                for (String failure : stress.failures)
+                    System.out.println("    " + failure);
+                failed |= ! stress.failures.isEmpty();
+            }
+            if (failed) System.exit(1);
+
+            BenchmarkRunner runner = new BenchmarkRunner(Integer.getInteger("bench.forks", 1),
+                    Integer.getInteger("bench.warmup", 2), Integer.getInteger("bench.iterations", 3), time);
+            String sizes = System.getProperty("bench.sizes", "10000");
+            if (Integer.getInteger("bench.forks", 1) > 0) {
+                for (String name : new String[] {"Library.addBook+removeBook", "Library.lookupBook"})
+                    for (int size : BenchmarkRunner.parse(sizes))
+                        for (int count : threads)
+                            BenchmarkRunner.print(runner.measure(BenchmarkRunner.benchmark(name), size, count));
+            }
+            System.exit(0);
+        } catch (Exception e) {
+            System.err.println(e.getClass().getName() + " : " + e.getLocalizedMessage());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Runs the mix of operations from a number of threads.
+     * @param threads the number of threads.
+     * @param time the milliseconds to run for.
+     * @param timeout the seconds the threads may take to finish after that.
+     * @return the operations per second, or NaN if the threads did not
+     * finish in time, which is reported.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    private double round(int threads, long time, long timeout) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final BenchmarkRunner.Control control = new BenchmarkRunner.Control();
+        final AtomicLong operations = new AtomicLong();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            workers[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    long call = 0;
+                    try {
+                        start.await();
+                        while (control.running) operate(thread, call++);
+                    } catch (Throwable ex) {
+                        control.fail(ex);
+                    }
+                    operations.addAndGet(call);
+                }
+            }, "stress-" + t);
+            workers[t].setDaemon(true);
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(time);
+        control.running = false;
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout);
+        for (Thread worker : workers) {
+            worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+            if (worker.isAlive()) {
+                reportDeadlock(threads, workers);
+                return Double.NaN;
+            }
+        }
+        long elapsed = System.nanoTime() - begin;
+        if (control.failure != null) {
+            StringBuilder trace = new StringBuilder(control.failure.toString());
+            for (StackTraceElement element : control.failure.getStackTrace())
+                trace.append(System.lineSeparator()).append("        at ").append(element);
+            this.fail("an operation failed : " + trace);
+        }
+        return operations.get() * 1e9 / elapsed;
+    }
+
+    /**
+     * Performs one operation of the mix, picked from the thread and the call.
+     * Reads check what they can while writers are busy : a book has the key
+     * it was looked up with, and listings are in order.
+     * @param thread the index of the thread.
+     * @param call the number of the call in the thread.
+     */
+    private void operate(int thread, long call) {
+        int isbn = Benchmark.pick(thread, call, ISBNS);
+        int owner = Benchmark.pick(thread, call + 0x5DEECE66DL, OWNERS);
+        int kind = (int) (call % 20);
+        Book book = book(isbn, owner);
+        switch (kind) {
+            case 0: case 1: case 2: case 3: case 4:
+                try {
+                    this.library.addBook(book);
+                } catch (DuplicateException ex) {
+                    // another thread or an earlier call added the book first
+                }
+                break;
+            case 5: case 6: case 7:
+                this.library.removeBook(book);
+                break;
+            case 8: case 9:
+                // the same book by its ISBN-10 and the owner in capitals :
+                this.library.removeBook(ISBN.toISBN10(book.getISBN()),
+                        book.getOwner().toUpperCase(Locale.ROOT));
+                break;
+            case 10: {
+                List<Book> batch = new ArrayList<>(BATCH);
+                for (int i = 0; i < BATCH; i++) batch.add(book((isbn + i) % ISBNS, owner));
+                this.expect(this.library.addBooks(batch).size() == BATCH, "addBooks lost results");
+                break;
+            }
+            case 11: {
+                List<String> batch = new ArrayList<>(BATCH);
+                for (int i = 0; i < BATCH; i++) batch.add(isbn((isbn + i) % ISBNS));
+                List<MutationResult> results = this.library.removeBooks(name(owner), batch);
+                this.expect(results.size() == BATCH, "removeBooks lost results");
+                break;
+            }
+            case 12: case 13: case 14:
+                try {
+                    Book found = this.library.lookupBook(book.getISBN(), book.getOwner());
+                    this.expect(found.equals(book), "lookupBook returned " + found + " for " + book);
+                } catch (BookNotFoundException ex) {
+                    // the book is not in the library at the moment
+                }
+                break;
+            case 15:
+                this.expectOrdered(this.library.getOwnersForBook(isbn(isbn), null, PAGE).getItems(),
+                        "getOwnersForBook");
+                break;
+            case 16:
+                this.expectOrdered(isbns(this.library.getBooksForOwner(name(owner), null, PAGE).getItems()),
+                        "getBooksForOwner");
+                break;
+            case 17:
+                for (Book match : this.library.searchBooks(Integer.toString(FIRST_ISBN + isbn), OWNERS))
+                    this.expect(match.getISBN().equals(book.getISBN()), "searchBooks returned " + match);
+                break;
+            case 18: {
+                int year = book.getYear();
+                for (Book match : this.library.findBooks(year, year, null, null, PAGE).getItems())
+                    this.expect(match.getYear() == year, "findBooks returned " + match);
+                break;
+            }
+            default:
+                this.expectOrdered(keys(this.library.getBooks(null, PAGE).getItems()), "getBooks");
+                break;
+        }
+    }
+
+    /**
+     * Checks that all indexes agree with the store, once the threads are done.
+     */
+    private void check() {
+        for (String problem : this.library.checkIndexes()) this.fail(problem);
+
+        // the store : every book that can be looked up, by ISBN and by owner :
+        Map<String, Set<String>> ownersByISBN = new TreeMap<>();
+        Map<String, Set<String>> isbnsByOwner = new TreeMap<>();
+        Map<Integer, Set<String>> keysByYear = new TreeMap<>();
+        Set<String> keys = new TreeSet<>();
+        for (int i = 0; i < ISBNS; i++) {
+            for (int o = 0; o < OWNERS; o++) {
+                Book book = book(i, o);
+                try {
+                    this.library.lookupBook(book.getISBN(), book.getOwner());
+                } catch (BookNotFoundException ex) {
+                    continue;
+                }
+                add(ownersByISBN, book.getISBN(), book.getOwner());
+                add(isbnsByOwner, book.getOwner(), book.getISBN());
+                add(keysByYear, book.getYear(), key(book));
+                keys.add(key(book));
+            }
+        }
+
+        this.expectEqual(keys(this.library.getBooks()), new ArrayList<>(keys), "getBooks()");
+        List<Book> paged = new ArrayList<>();
+        for (Page<Book> page = null; page == null || page.hasNext(); ) {
+            page = this.library.getBooks(page == null ? null : page.getNextCursor(), PAGE);
+            this.expect(page.getItems().size() == PAGE || ! page.hasNext(),
+                    "getBooks(cursor) returned a short page before the last");
+            paged.addAll(page.getItems());
+        }
+        this.expectEqual(keys(paged), new ArrayList<>(keys), "getBooks(cursor)");
+
+        for (int i = 0; i < ISBNS; i++) {
+            String isbn = isbn(i);
+            List<String> expected = list(ownersByISBN.get(isbn));
+            this.expectEqual(this.library.getOwnersForBook(isbn), expected, "getOwnersForBook(" + isbn + ")");
+            List<String> owners = new ArrayList<>();
+            for (Page<String> page = null; page == null || page.hasNext(); ) {
+                page = this.library.getOwnersForBook(isbn, page == null ? null : page.getNextCursor(), PAGE);
+                owners.addAll(page.getItems());
+            }
+            this.expectEqual(owners, expected, "getOwnersForBook(" + isbn + ", cursor)");
+
+            List<String> matches = new ArrayList<>();
+            for (Book match : this.library.searchBooks(Integer.toString(FIRST_ISBN + i), Page.MAX_SIZE))
+                matches.add(match.getOwner());
+            this.expectEqual(list(new TreeSet<>(matches)), expected, "searchBooks(" + (FIRST_ISBN + i) + ")");
+        }
+
+        for (int o = 0; o < OWNERS; o++) {
+            String owner = name(o);
+            List<String> expected = list(isbnsByOwner.get(owner));
+            this.expectEqual(isbns(this.library.getBooksForOwner(owner)), expected,
+                    "getBooksForOwner(" + owner + ")");
+            List<Book> books = new ArrayList<>();
+            for (Page<Book> page = null; page == null || page.hasNext(); ) {
+                page = this.library.getBooksForOwner(owner, page == null ? null : page.getNextCursor(), PAGE);
+                books.addAll(page.getItems());
+            }
+            this.expectEqual(isbns(books), expected, "getBooksForOwner(" + owner + ", cursor)");
+        }
+
+        for (int year = 1900; year < 2020; year++) {
+            List<Book> books = new ArrayList<>();
+            for (Page<Book> page = null; page == null || page.hasNext(); ) {
+                page = this.library.findBooks(year, year, null, page == null ? null : page.getNextCursor(), PAGE);
+                books.addAll(page.getItems());
+            }
+            this.expectEqual(keys(books), list(keysByYear.get(year)), "findBooks(" + year + ")");
+        }
+    }
+
+    /**
+     * @param threads the number of threads of the round.
+     * @param workers the threads of the round.
+     */
+    private static void reportDeadlock(int threads, Thread[] workers) {
+        System.out.printf(Locale.ROOT, "%-36s %3d threads : DEADLOCK%n", "stress", threads);
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        long[] deadlocked = bean.findDeadlockedThreads();
+        Set<Long> ids = new HashSet<>();
+        if (deadlocked != null) for (long id : deadlocked) ids.add(id);
+        for (Thread worker : workers) if (worker.isAlive()) ids.add(worker.getId());
+        for (long id : ids) {
+            ThreadInfo info = bean.getThreadInfo(new long[] {id}, true, true)[0];
+            if (info != null) System.out.print(info);
+        }
+    }
+
+    /**
+     * @param condition a condition that must hold.
+     * @param failure what went wrong if it does not.
+     */
+    private void expect(boolean condition, String failure) {
+        if (! condition) this.fail(failure);
+    }
+
+    /**
+     * @param actual what a listing returned.
+     * @param expected what it should have returned.
+     * @param listing the name of the listing.
+     */
+    private void expectEqual(List<?> actual, List<?> expected, String listing) {
+        this.expect(actual.equals(expected), listing + " returned " + actual + " instead of " + expected);
+    }
+
+    /**
+     * @param keys the keys of a listing.
+     * @param listing the name of the listing.
+     */
+    private void expectOrdered(List<String> keys, String listing) {
+        for (int i = 1; i < keys.size(); i++)
+            this.expect(keys.get(i - 1).compareTo(keys.get(i)) < 0, listing + " is out of order : " + keys);
+    }
+
+    /**
+     * Records a broken invariant; only the first few are kept.
+     * @param failure what went wrong.
+     */
+    private void fail(String failure) {
+        synchronized (this.failures) {
+            if (this.failures.size() < MAX_FAILURES) this.failures.add(failure);
+        }
+    }
+
+    /**
+     * @param isbn the index of an ISBN of the stress test.
+     * @param owner the index of an owner.
+     * @return the book.
+     */
+    private static Book book(int isbn, int owner) {
+        return LibraryBenchmarks.book(FIRST_ISBN + isbn, name(owner));
+    }
+
+    /**
+     * @param isbn the index of an ISBN of the stress test.
+     * @return the ISBN.
+     */
+    private static String isbn(int isbn) {
+        return LibraryBenchmarks.isbn(FIRST_ISBN + isbn);
+    }
+
+    /**
+     * @param owner the index of an owner.
+     * @return the name of the owner, in lower case like the indexes keep it.
+     */
+    private static String name(int owner) {
+        return "owner" + owner;
+    }
+
+    /**
+     * @param book a book.
+     * @return the key of the book, ordered like the catalogue.
+     */
+    private static String key(Book book) {
+        return book.getISBN() + "/" + book.getOwner();
+    }
+
+    /**
+     * @param books some books.
+     * @return their keys.
+     */
+    private static List<String> keys(List<Book> books) {
+        List<String> keys = new ArrayList<>(books.size());
+        for (Book book : books) keys.add(key(book));
+        return keys;
+    }
+
+    /**
+     * @param books some books.
+     * @return their ISBNs.
+     */
+    private static List<String> isbns(List<Book> books) {
+        List<String> isbns = new ArrayList<>(books.size());
+        for (Book book : books) isbns.add(book.getISBN());
+        return isbns;
+    }
+
+    /**
+     * @param values the values, or NULL for none.
+     * @return the values as a list.
+     */
+    private static List<String> list(Set<String> values) {
+        return values == null ? new ArrayList<String>() : new ArrayList<>(values);
+    }
+
+    /**
+     * @param index an index.
+     * @param key the key of a bucket.
+     * @param value the value to add to the bucket.
+     */
+    private static <K> void add(Map<K, Set<String>> index, K key, String value) {
+        Set<String> bucket = index.get(key);
+        if (bucket == null) {
+            bucket = new TreeSet<>();
+            index.put(key, bucket);
+        }
+        bucket.add(value);
+    }
+}
@@ -0,0 +1,68 @@
+package bench;
+
+import args.Book;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import system.Library;
+import system.WriteAheadLog;
+
+/**
+ * The benchmarks of the write-ahead log. Every operation is one durable
+ * mutation of a library with a log : a book is added on one call and removed
+ * again on the next, so the score is the time per commit. The size is the
+ * batch window of the log in microseconds. The log is written to a new file
+ * in the directory of java.io.tmpdir, which should be on the disk to measure.
+ */
+final class LogBenchmarks {
+
+    private static final int[] BATCH_WINDOWS = {0, 200, 1_000};
+    private static final int FRESH_BOOKS = 4096;
+
+    private LogBenchmarks() {
+        super();
+    }
+
+    /**
+     * @return the benchmarks of the write-ahead log.
+     */
+    static List<Benchmark> create() {
+        return Arrays.<Benchmark>asList(
+                new Benchmark("WriteAheadLog.commit", BATCH_WINDOWS) {
+                    private Path file;
+                    private WriteAheadLog log;
+                    private Library library;
+                    private Book[][] fresh;
+
+                    @Override
+                    public void setUp(int size, int threads) throws Exception {
+                        this.file = Files.createTempFile("benchmark", ".wal");
+                        this.library = new Library();
+                        this.log = new WriteAheadLog(this.file, size, TimeUnit.MICROSECONDS);
+                        this.log.replay(this.library);
+                        this.library.setWriteAheadLog(this.log);
+                        this.fresh = new Book[threads][FRESH_BOOKS];
+                        for (int t = 0; t < threads; t++)
+                            for (int i = 0; i < FRESH_BOOKS; i++)
+                                this.fresh[t][i] = LibraryBenchmarks.book(i, "thread" + t);
+                    }
+
+                    @Override
+                    public void run(Blackhole blackhole, int thread, long call) {
+                        Book book = this.fresh[thread][(int) (call / 2 % FRESH_BOOKS)];
+                        if (call % 2 == 0)
+                            this.library.addBook(book);
+                        else
+                            this.library.removeBook(book);
+                    }
+
+                    @Override
+                    public void tearDown() throws Exception {
+                        this.log.close();
+                        Files.delete(this.file);
+                    }
+                });
+    }
+}
@@ -0,0 +1,165 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The Result class holds the scores of the measured iterations of one
+ * benchmark, size and number of threads, over all forks. The score is the
+ * average time of an operation; its error is half the width of the 99.9%
+ * confidence interval of the mean, as reported by JMH.
+ */
+final class Result {
+
+    // Student's t for a two-sided 99.9% interval, by degrees of freedom 1 to 30 :
+    private static final double[] T_999 = {
+        636.619, 31.599, 12.924, 8.610, 6.869, 5.959, 5.408, 5.041, 4.781, 4.587,
+        4.437, 4.318, 4.221, 4.140, 4.073, 4.015, 3.965, 3.922, 3.883, 3.850,
+        3.819, 3.792, 3.768, 3.745, 3.725, 3.707, 3.690, 3.674, 3.659, 3.646};
+
+    private final String benchmark;
+    private final int size;
+    private final int threads;
+    private final List<Double> nanosPerOperation;
+    private final List<Double> operationsPerSecond;
+
+    /**
+     * @param benchmark the name of the benchmark.
+     * @param size the size the benchmark ran with.
+     * @param threads the number of threads the benchmark ran with.
+     */
+    Result(String benchmark, int size, int threads) {
+        super();
+        this.benchmark = benchmark;
+        this.size = size;
+        this.threads = threads;
+        this.nanosPerOperation = new ArrayList<>();
+        this.operationsPerSecond = new ArrayList<>();
+    }
+
+    /**
+     * @param nanosPerOperation the average time of an operation in an iteration.
+     * @param operationsPerSecond the operations of all threads per second.
+     */
+    void add(double nanosPerOperation, double operationsPerSecond) {
+        this.nanosPerOperation.add(nanosPerOperation);
+        this.operationsPerSecond.add(operationsPerSecond);
+    }
+
+    /**
+     * @return the name of the benchmark.
+     */
+    String getBenchmark() {
+        return this.benchmark;
+    }
+
+    /**
+     * @return the size the benchmark ran with.
+     */
+    int getSize() {
+        return this.size;
+    }
+
+    /**
+     * @return the number of threads the benchmark ran with.
+     */
+    int getThreads() {
+        return this.threads;
+    }
+
+    /**
+     * @return the key of the result in a baseline.
+     */
+    String getKey() {
+        return this.benchmark + "," + this.size + "," + this.threads;
+    }
+
+    /**
+     * @return the number of measured iterations.
+     */
+    int getSamples() {
+        return this.nanosPerOperation.size();
+    }
+
+    /**
+     * @return the mean time of an operation in nanoseconds.
+     */
+    double getScore() {
+        return mean(this.nanosPerOperation);
+    }
+
+    /**
+     * @return half the width of the 99.9% confidence interval of the score,
+     * or NaN with a single sample.
+     */
+    double getError() {
+        int n = this.nanosPerOperation.size();
+        if (n < 2) return Double.NaN;
+        double mean = this.getScore();
+        double squares = 0;
+        for (double sample : this.nanosPerOperation) squares += (sample - mean) * (sample - mean);
+        double deviation = Math.sqrt(squares / (n - 1));
+        return t(n - 1) * deviation / Math.sqrt(n);
+    }
+
+    /**
+     * @return the mean number of operations per second.
+     */
+    double getThroughput() {
+        return mean(this.operationsPerSecond);
+    }
+
+    /**
+     * @return the fastest and slowest iteration, in nanoseconds per operation.
+     */
+    double[] getRange() {
+        return new double[] {Collections.min(this.nanosPerOperation),
+            Collections.max(this.nanosPerOperation)};
+    }
+
+    /**
+     * @return the result as a CSV row.
+     */
+    String toCsv() {
+        return String.format(Locale.ROOT, "%s,%d,%.3f,%.3f,%.1f",
+                this.getKey(), this.getSamples(), this.getScore(), this.getError(), this.getThroughput());
+    }
+
+    /**
+     * @return the result as a JSON object.
+     */
+    String toJson() {
+        double[] range = this.getRange();
+        return String.format(Locale.ROOT, "{\"benchmark\": \"%s\", \"size\": %d, \"threads\": %d, "
+                + "\"samples\": %d, \"ns_per_op\": %.3f, \"error\": %s, \"min\": %.3f, \"max\": %.3f, "
+                + "\"ops_per_s\": %.1f}", this.benchmark, this.size, this.threads, this.getSamples(),
+                this.getScore(), Double.isNaN(this.getError()) ? "null"
+                        : String.format(Locale.ROOT, "%.3f", this.getError()),
+                range[0], range[1], this.getThroughput());
+    }
+
+    /**
+     * @param degrees the degrees of freedom.
+     * @return Student's t for a two-sided 99.9% interval, rounded up beyond
+     * 30 degrees.
+     */
+    private static double t(int degrees) {
+        if (degrees <= T_999.length) return T_999[degrees - 1];
+        if (degrees <= 40) return 3.646;
+        if (degrees <= 60) return 3.551;
+        if (degrees <= 120) return 3.460;
+        return 3.373;
+    }
+
+    /**
+     * @param values some values.
+     * @return the mean of the values.
+     */
+    private static double mean(List<Double> values) {
+        double sum = 0;
+        for (double value : values) sum += value;
+        return sum / values.size();
+    }
+}
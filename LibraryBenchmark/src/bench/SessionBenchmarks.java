@@ -0,0 +1,185 @@
+package bench;
+
+import args.Session;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import system.CredentialVerifier;
+import system.Library;
+import system.SessionModule;
+import system.SessionTokens;
+import system.User;
+
+/**
+ * The benchmarks of the sessions of users. Every user has its name as
+ * password, stored as an MD5 hash like in the seed data; the first login of
+ * a user upgrades it to a salted hash. Sessions are checked in the session
+ * store or, with "[token]", as signed tokens. Passwords are also verified
+ * on their own, and in the way of the session module before it had a
+ * credential verifier ("[legacy]").
+ */
+final class SessionBenchmarks {
+
+    private static final int[] USERS = {100, 10_000};
+    private static final int[] SESSIONS = {1_000, 100_000};
+    private static final int REVOKED = 100;
+
+    private SessionBenchmarks() {
+        super();
+    }
+
+    /**
+     * @return the benchmarks of the sessions.
+     */
+    static List<Benchmark> create() {
+        return Arrays.<Benchmark>asList(
+                new Benchmark("SessionModule.authenticate", USERS) {
+                    private SessionModule sessions;
+                    private String[] names;
+
+                    @Override
+                    public void setUp(int size, int threads) throws Exception {
+                        // sessions expire after a second, so that the store keeps
+                        // a steady size, as on a server under constant load :
+                        this.sessions = new SessionModule(createLibrary(size), 1, 1, TimeUnit.SECONDS);
+                        this.names = names(size);
+                        for (String name : this.names) this.sessions.authenticate(name, name);
+                    }
+
+                    @Override
+                    public void run(Blackhole blackhole, int thread, long call) throws Exception {
+                        String name = this.names[pick(thread, call, this.names.length)];
+                        blackhole.consume(this.sessions.authenticate(name, name));
+                    }
+                },
+                new Benchmark("CredentialVerifier.verify") {
+                    private CredentialVerifier verifier;
+                    private User user;
+
+                    @Override
+                    public void setUp(int size, int threads) throws Exception {
+                        this.verifier = CredentialVerifier.createDefault();
+                        this.user = new User("user", this.verifier.encode("user"));
+                    }
+
+                    @Override
+                    public void run(Blackhole blackhole, int thread, long call) {
+                        blackhole.consume(this.verifier.verify(this.user, "user"));
+                    }
+                },
+                new Benchmark("CredentialVerifier.verify[legacy]") {
+                    private User user;
+
+                    @Override
+                    public void setUp(int size, int threads) throws Exception {
+                        this.user = new User("user", md5("user"));
+                    }
+
+                    @Override
+                    public void run(Blackhole blackhole, int thread, long call) throws Exception {
+                        blackhole.consume(legacyVerify(this.user, "user"));
+                    }
+                },
+                new Benchmark("SessionModule.isAuthenticated", SESSIONS) {
+                    private SessionModule sessions;
+                    private Session[] active;
+
+                    @Override
+                    public void setUp(int size, int threads) throws Exception {
+                        int users = Math.min(size, USERS[USERS.length - 1]);
+                        this.sessions = new SessionModule(createLibrary(users));
+                        String[] names = names(users);
+                        this.active = new Session[size];
+                        for (int i = 0; i < size; i++)
+                            this.active[i] = this.sessions.authenticate(names[i % users], names[i % users]);
+                    }
+
+                    @Override
+                    public void run(Blackhole blackhole, int thread, long call) throws Exception {
+                        blackhole.consume(this.sessions.isAuthenticated(
+                                this.active[pick(thread, call, this.active.length)]));
+                    }
+                },
+                new Benchmark("SessionModule.isAuthenticated[token]", SESSIONS) {
+                    private SessionModule sessions;
+                    private Session[] active;
+
+                    @Override
+                    public void setUp(int size, int threads) throws Exception {
+                        int users = Math.min(size, USERS[USERS.length - 1]);
+                        byte[] secret = "benchmark secret".getBytes(StandardCharsets.UTF_8);
+                        this.sessions = new SessionModule(createLibrary(users),
+                                new SessionTokens(secret, 1, TimeUnit.HOURS));
+                        // revoke the tokens of other users, which every check consults :
+                        for (int i = 0; i < REVOKED; i++) this.sessions.destroySession("revoked" + i);
+                        String[] names = names(users);
+                        this.active = new Session[size];
+                        for (int i = 0; i < size; i++)
+                            this.active[i] = this.sessions.authenticate(names[i % users], names[i % users]);
+                    }
+
+                    @Override
+                    public void run(Blackhole blackhole, int thread, long call) throws Exception {
+                        blackhole.consume(this.sessions.isAuthenticated(
+                                this.active[pick(thread, call, this.active.length)]));
+                    }
+                });
+    }
+
+    /**
+     * Checks a password the way the session module did before it had a
+     * credential verifier : with a new MD5 digest and a hexadecimal string
+     * built byte by byte for every login.
+     * @param user the user to be authenticated.
+     * @param password the password to be checked.
+     * @return whether or not the password matches the MD5 hash of the user.
+     * @throws Exception if the password cannot be hashed.
+     */
+    private static boolean legacyVerify(User user, String password) throws Exception {
+        MessageDigest md = MessageDigest.getInstance("MD5");
+        byte[] hash = md.digest(password.getBytes("UTF-8"));
+        StringBuilder hexString = new StringBuilder();
+        for (int i = 0; i < hash.length; i++) {
+            if ((0xff & hash[i]) < 0x10)
+                hexString.append("0").append(Integer.toHexString(0xFF & hash[i]));
+            else
+                hexString.append(Integer.toHexString(0xFF & hash[i]));
+        }
+        return hexString.toString().equals(user.getPassword());
+    }
+
+    /**
+     * @param password a password.
+     * @return the MD5 hash of the password in hexadecimal, as stored in the
+     * seed data.
+     * @throws Exception if the password cannot be hashed.
+     */
+    static String md5(String password) throws Exception {
+        byte[] hash = MessageDigest.getInstance("MD5").digest(password.getBytes(StandardCharsets.UTF_8));
+        return String.format("%032x", new BigInteger(1, hash));
+    }
+
+    /**
+     * @param users the number of users.
+     * @return a library with the given number of users.
+     * @throws Exception if the password cannot be hashed.
+     */
+    static Library createLibrary(int users) throws Exception {
+        Library library = new Library();
+        for (String name : names(users)) library.addUser(new User(name, md5(name)));
+        return library;
+    }
+
+    /**
+     * @param users the number of users.
+     * @return the names of the users.
+     */
+    private static String[] names(int users) {
+        String[] names = new String[users];
+        for (int i = 0; i < users; i++) names[i] = "user" + i;
+        return names;
+    }
+}
@@ -1,11 +1,12 @@
 
-import java.rmi.NotBoundException;
-import java.rmi.RemoteException;
-import java.rmi.registry.LocateRegistry;
-import java.rmi.registry.Registry;
+import client.CachingLibraryModule;
+import client.ConnectionManager;
+import java.io.IOException;
+import java.util.List;
 import remote.IRemoteLibraryModule;
 import remote.IRemoteSessionModule;
-import rmi.RMISettings;
+import rmi.TransportConfig;
+import rmi.TunedSocketFactory;
 import ui.ApplicationView;
 
 /**
@@ -19,14 +20,33 @@ public class Main {
                 System.setSecurityManager(null);
             }
             
-            // Locate the registry :
-            Registry registry = LocateRegistry.getRegistry(RMISettings.REGISTRY_HOST, RMISettings.REGISTRY_PORT);
+            // Read the transport settings before anything touches RMI :
+            TransportConfig transport = TransportConfig.load();
+            transport.applyToRuntime();
             
-            IRemoteSessionModule sessionModule = (IRemoteSessionModule) registry.lookup(RMISettings.SESSION_SERVICE_NAME);
-            IRemoteLibraryModule libraryModule = (IRemoteLibraryModule) registry.lookup(RMISettings.LIBRARY_SERVICE_NAME);
+            // Reach the servers listed in 'library.endpoints' (host:port,...),
+            // or the one of the transport settings :
+            List<ConnectionManager.Endpoint> endpoints = ConnectionManager.Endpoint.parse(
+                    System.getProperty("library.endpoints", transport.getRegistryHost() + ":"
+                            + transport.getRegistryPort()), transport.getRegistryPort());
+            ConnectionManager connections = new ConnectionManager(endpoints, transport.socketFactory(),
+                    Integer.getInteger("library.retries", ConnectionManager.DEFAULT_RETRIES),
+                    Boolean.getBoolean("library.hedging"), Boolean.getBoolean("library.session.tokens"));
             
-            ApplicationView applicationView = new ApplicationView(sessionModule, libraryModule);
-        } catch (RemoteException | NotBoundException e) {
+            IRemoteSessionModule sessionModule = connections.getSessionModule();
+            IRemoteLibraryModule libraryModule = connections.getLibraryModule();
+            
+            // Keep a local copy of the catalogue, unless 'library.cache' is false :
+            if (! Boolean.parseBoolean(System.getProperty("library.cache", "true"))) {
+                ApplicationView applicationView = new ApplicationView(sessionModule, libraryModule);
+                return;
+            }
+            TunedSocketFactory factory = transport.socketFactory();
+            try (CachingLibraryModule cache = new CachingLibraryModule(libraryModule,
+                    transport.getExportPort(), factory, factory)) {
+                ApplicationView applicationView = new ApplicationView(sessionModule, cache);
+            }
+        } catch (IOException | IllegalArgumentException e) {
             System.err.println(e.getClass().getName() + " : " + e.getLocalizedMessage());
         }
     }
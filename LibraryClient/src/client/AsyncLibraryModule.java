@@ -0,0 +1,312 @@
+package client;
+
+import args.Book;
+import args.ChangeSet;
+import args.MutationResult;
+import args.Page;
+import args.Rating;
+import args.Session;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import remote.IRemoteBookStream;
+import remote.IRemoteLibraryListener;
+import remote.IRemoteLibraryModule;
+
+/**
+ * The AsyncLibraryModule class makes the calls of a remote library module
+ * in the background and returns futures for their results, so that a
+ * client can fan out many calls at once. Calls of void methods have a
+ * future of Void. A failed call throws its exception, such as a
+ * RemoteException, wrapped in an ExecutionException from Future.get; a call
+ * that takes too long throws a TimeoutException there. The futures are plain
+ * Futures, as the client is held to Java 7; see RemoteCallExecutor.
+ *
+ * @see RemoteCallExecutor
+ */
+public class AsyncLibraryModule {
+
+    private final IRemoteLibraryModule module;
+    private final RemoteCallExecutor calls;
+
+    /**
+     * @param module the library module to call.
+     * @param calls the executor to make the calls on.
+     */
+    public AsyncLibraryModule(IRemoteLibraryModule module, RemoteCallExecutor calls) {
+        super();
+        this.module = module;
+        this.calls = calls;
+    }
+
+    /**
+     * @return the library module that is called.
+     */
+    public IRemoteLibraryModule getModule() {
+        return module;
+    }
+
+    /**
+     * Adds a book to the library.
+     * @return the future completion of the call.
+     * @see IRemoteLibraryModule#addBook(Book, Session)
+     */
+    public Future<Void> addBook(final Book book, final Session session) {
+        return this.calls.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                module.addBook(book, session);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Adds a batch of books to the library.
+     * @return the future result of the call.
+     * @see IRemoteLibraryModule#addBooks(List, Session)
+     */
+    public Future<List<MutationResult>> addBooks(final List<Book> books,
+            final Session session) {
+        return this.calls.submit(new Callable<List<MutationResult>>() {
+            @Override
+            public List<MutationResult> call() throws Exception {
+                return module.addBooks(books, session);
+            }
+        });
+    }
+
+    /**
+     * Removes a book from the library.
+     * @return the future completion of the call.
+     * @see IRemoteLibraryModule#removeBook(Book, Session)
+     */
+    public Future<Void> removeBook(final Book book, final Session session) {
+        return this.calls.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                module.removeBook(book, session);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Removes the book of the user of the session with the given ISBN.
+     * @return the future completion of the call.
+     * @see IRemoteLibraryModule#removeBook(String, Session)
+     */
+    public Future<Void> removeBook(final String isbn, final Session session) {
+        return this.calls.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                module.removeBook(isbn, session);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Removes a batch of books of the user of the session.
+     * @return the future result of the call.
+     * @see IRemoteLibraryModule#removeBooks(List, Session)
+     */
+    public Future<List<MutationResult>> removeBooks(final List<String> isbns,
+            final Session session) {
+        return this.calls.submit(new Callable<List<MutationResult>>() {
+            @Override
+            public List<MutationResult> call() throws Exception {
+                return module.removeBooks(isbns, session);
+            }
+        });
+    }
+
+    /**
+     * Looks up the book of an owner with the given ISBN.
+     * @return the future result of the call.
+     * @see IRemoteLibraryModule#lookupBook(String, String)
+     */
+    public Future<Book> lookupBook(final String isbn, final String owner) {
+        return this.calls.submit(new Callable<Book>() {
+            @Override
+            public Book call() throws Exception {
+                return module.lookupBook(isbn, owner);
+            }
+        });
+    }
+
+    /**
+     * Lists all books.
+     * @return the future result of the call.
+     * @see IRemoteLibraryModule#getBooks()
+     */
+    public Future<List<Book>> getBooks() {
+        return this.calls.submit(new Callable<List<Book>>() {
+            @Override
+            public List<Book> call() throws Exception {
+                return module.getBooks();
+            }
+        });
+    }
+
+    /**
+     * Lists one page of the books.
+     * @return the future result of the call.
+     * @see IRemoteLibraryModule#getBooks(String, int)
+     */
+    public Future<Page<Book>> getBooks(final String cursor, final int pageSize) {
+        return this.calls.submit(new Callable<Page<Book>>() {
+            @Override
+            public Page<Book> call() throws Exception {
+                return module.getBooks(cursor, pageSize);
+            }
+        });
+    }
+
+    /**
+     * Lists the changes since a version of the library.
+     * @return the future result of the call.
+     * @see IRemoteLibraryModule#getChangesSince(long)
+     */
+    public Future<ChangeSet> getChangesSince(final long version) {
+        return this.calls.submit(new Callable<ChangeSet>() {
+            @Override
+            public ChangeSet call() throws Exception {
+                return module.getChangesSince(version);
+            }
+        });
+    }
+
+    /**
+     * Registers a listener for the changes to the catalogue.
+     * @return the future completion of the call.
+     * @see IRemoteLibraryModule#addLibraryListener(IRemoteLibraryListener, long)
+     */
+    public Future<Void> addLibraryListener(final IRemoteLibraryListener listener,
+            final long version) {
+        return this.calls.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                module.addLibraryListener(listener, version);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Unregisters a listener for the changes to the catalogue.
+     * @return the future completion of the call.
+     * @see IRemoteLibraryModule#removeLibraryListener(IRemoteLibraryListener)
+     */
+    public Future<Void> removeLibraryListener(final IRemoteLibraryListener listener) {
+        return this.calls.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                module.removeLibraryListener(listener);
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Searches the titles and authors of the books.
+     * @return the future result of the call.
+     * @see IRemoteLibraryModule#searchBooks(String, int)
+     */
+    public Future<List<Book>> searchBooks(final String query, final int limit) {
+        return this.calls.submit(new Callable<List<Book>>() {
+            @Override
+            public List<Book> call() throws Exception {
+                return module.searchBooks(query, limit);
+            }
+        });
+    }
+
+    /**
+     * Finds the books in a range of years with one of the given ratings.
+     * @return the future result of the call.
+     * @see IRemoteLibraryModule#findBooks(int, int, Set, String, int)
+     */
+    public Future<Page<Book>> findBooks(final int yearFrom, final int yearTo,
+            final Set<Rating> ratings, final String cursor, final int pageSize) {
+        return this.calls.submit(new Callable<Page<Book>>() {
+            @Override
+            public Page<Book> call() throws Exception {
+                return module.findBooks(yearFrom, yearTo, ratings, cursor, pageSize);
+            }
+        });
+    }
+
+    /**
+     * Lists the owners of a book.
+     * @return the future result of the call.
+     * @see IRemoteLibraryModule#getOwnersForBook(String)
+     */
+    public Future<List<String>> getOwnersForBook(final String isbn) {
+        return this.calls.submit(new Callable<List<String>>() {
+            @Override
+            public List<String> call() throws Exception {
+                return module.getOwnersForBook(isbn);
+            }
+        });
+    }
+
+    /**
+     * Lists one page of the owners of a book.
+     * @return the future result of the call.
+     * @see IRemoteLibraryModule#getOwnersForBook(String, String, int)
+     */
+    public Future<Page<String>> getOwnersForBook(final String isbn, final String cursor,
+            final int pageSize) {
+        return this.calls.submit(new Callable<Page<String>>() {
+            @Override
+            public Page<String> call() throws Exception {
+                return module.getOwnersForBook(isbn, cursor, pageSize);
+            }
+        });
+    }
+
+    /**
+     * Lists the books of an owner.
+     * @return the future result of the call.
+     * @see IRemoteLibraryModule#getBooksForOwner(String)
+     */
+    public Future<List<Book>> getBooksForOwner(final String owner) {
+        return this.calls.submit(new Callable<List<Book>>() {
+            @Override
+            public List<Book> call() throws Exception {
+                return module.getBooksForOwner(owner);
+            }
+        });
+    }
+
+    /**
+     * Lists one page of the books of an owner.
+     * @return the future result of the call.
+     * @see IRemoteLibraryModule#getBooksForOwner(String, String, int)
+     */
+    public Future<Page<Book>> getBooksForOwner(final String owner, final String cursor,
+            final int pageSize) {
+        return this.calls.submit(new Callable<Page<Book>>() {
+            @Override
+            public Page<Book> call() throws Exception {
+                return module.getBooksForOwner(owner, cursor, pageSize);
+            }
+        });
+    }
+
+    /**
+     * Opens a stream over all books.
+     * @return the future result of the call.
+     * @see IRemoteLibraryModule#openBookStream(int)
+     */
+    public Future<IRemoteBookStream> openBookStream(final int chunkSize) {
+        return this.calls.submit(new Callable<IRemoteBookStream>() {
+            @Override
+            public IRemoteBookStream call() throws Exception {
+                return module.openBookStream(chunkSize);
+            }
+        });
+    }
+}
@@ -0,0 +1,93 @@
+package client;
+
+import args.Session;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import remote.IRemoteSessionModule;
+
+/**
+ * The AsyncSessionModule class makes the calls of a remote session module
+ * in the background and returns futures for their results. Like those of
+ * AsyncLibraryModule, they are plain Futures rather than CompletableFutures.
+ *
+ * @see AsyncLibraryModule
+ */
+public class AsyncSessionModule {
+
+    private final IRemoteSessionModule module;
+    private final RemoteCallExecutor calls;
+
+    /**
+     * @param module the session module to call.
+     * @param calls the executor to make the calls on.
+     */
+    public AsyncSessionModule(IRemoteSessionModule module, RemoteCallExecutor calls) {
+        super();
+        this.module = module;
+        this.calls = calls;
+    }
+
+    /**
+     * @return the session module that is called.
+     */
+    public IRemoteSessionModule getModule() {
+        return module;
+    }
+
+    /**
+     * Authenticates a user.
+     * @return the future result of the call.
+     * @see IRemoteSessionModule#authenticate(String, String)
+     */
+    public Future<Session> authenticate(final String username, final String password) {
+        return this.calls.submit(new Callable<Session>() {
+            @Override
+            public Session call() throws Exception {
+                return module.authenticate(username, password);
+            }
+        });
+    }
+
+    /**
+     * Checks whether a session is valid.
+     * @return the future result of the call.
+     * @see IRemoteSessionModule#isAuthenticated(Session)
+     */
+    public Future<Boolean> isAuthenticated(final Session session) {
+        return this.calls.submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return module.isAuthenticated(session);
+            }
+        });
+    }
+
+    /**
+     * Extends a session.
+     * @return the future result of the call.
+     * @see IRemoteSessionModule#refreshSession(Session)
+     */
+    public Future<Session> refreshSession(final Session session) {
+        return this.calls.submit(new Callable<Session>() {
+            @Override
+            public Session call() throws Exception {
+                return module.refreshSession(session);
+            }
+        });
+    }
+
+    /**
+     * Ends the session of a user.
+     * @return the future completion of the call.
+     * @see IRemoteSessionModule#destroySession(String)
+     */
+    public Future<Void> destroySession(final String username) {
+        return this.calls.submit(new Callable<Void>() {
+            @Override
+            public Void call() throws Exception {
+                module.destroySession(username);
+                return null;
+            }
+        });
+    }
+}
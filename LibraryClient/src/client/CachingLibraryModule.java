@@ -0,0 +1,526 @@
+package client;
+
+import args.Book;
+import args.ChangeSet;
+import args.ISBN;
+import args.MutationResult;
+import args.Page;
+import args.Rating;
+import args.Session;
+import exceptions.AuthorizationException;
+import exceptions.BookNotFoundException;
+import exceptions.DuplicateException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import remote.IRemoteBookStream;
+import remote.IRemoteLibraryListener;
+import remote.IRemoteLibraryModule;
+
+/**
+ * The CachingLibraryModule class wraps a remote library module and keeps a
+ * local copy of the catalogue, indexed like the one of the server. Looking
+ * up books, listing all books and listing the books of an owner or the
+ * owners of a book are answered from the copy; searches, streams and all
+ * mutations go to the server.
+ *
+ * The copy is kept up to date by a listener that the cache exports and the
+ * server pushes batches of changes to. The copy is loaded when the cache is
+ * created and reloaded whenever the server asks for a resync. A reload
+ * streams the catalogue into a new copy without locking the cache, and then
+ * swaps it in; books that this client adds or removes meanwhile are applied
+ * to the new copy as well. Every 30 seconds the cache registers its
+ * listener again with the version it has seen, so that a server that
+ * dropped the listener resumes pushing. Apart from a resync, the version
+ * only moves forward, and changes the copy has seen already are ignored, as
+ * a heartbeat that read the version before a push has the server send them
+ * again. Books that
+ * this client adds or removes are applied to the copy right away. The copy
+ * is eventually consistent : changes by other clients show up after the
+ * push interval of the server.
+ *
+ * Listings from the copy have cursors of their own, which only this cache
+ * understands.
+ */
+public class CachingLibraryModule implements IRemoteLibraryModule, AutoCloseable {
+
+    private static final long HEARTBEAT = 30;
+    private static final Logger LOGGER = Logger.getLogger(CachingLibraryModule.class.getName());
+
+    private final IRemoteLibraryModule remote;
+    private final Listener listener;
+    private final IRemoteLibraryListener stub;
+    private final ScheduledExecutorService heartbeat;
+    private final AtomicLong version;
+    private volatile Index index;
+    private List<Mutation> journal;
+
+    /**
+     * Creates a cache whose listener is exported on any port with plain
+     * sockets, and loads the catalogue.
+     * @param remote the remote library module.
+     * @throws RemoteException if the catalogue cannot be loaded or the
+     * listener cannot be exported or registered.
+     */
+    public CachingLibraryModule(IRemoteLibraryModule remote) throws RemoteException {
+        this(remote, 0, null, null);
+    }
+
+    /**
+     * Creates a cache and loads the catalogue.
+     * @param remote the remote library module.
+     * @param port the port to export the listener on, or 0 for any port.
+     * @param csf the client socket factory of the listener, or NULL.
+     * @param ssf the server socket factory of the listener, or NULL.
+     * @throws RemoteException if the catalogue cannot be loaded or the
+     * listener cannot be exported or registered.
+     */
+    public CachingLibraryModule(IRemoteLibraryModule remote, int port,
+            RMIClientSocketFactory csf, RMIServerSocketFactory ssf) throws RemoteException {
+        super();
+        this.remote = remote;
+        this.version = new AtomicLong();
+        this.index = new Index();
+        this.listener = new Listener();
+        this.stub = (IRemoteLibraryListener) UnicastRemoteObject.exportObject(this.listener, port, csf, ssf);
+        try {
+            this.reload(remote.getChangesSince(0).getVersion());
+            remote.addLibraryListener(this.stub, this.getVersion());
+        } catch (RemoteException | RuntimeException ex) {
+            UnicastRemoteObject.unexportObject(this.listener, true);
+            throw ex;
+        }
+        this.heartbeat = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "library-cache-heartbeat");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.heartbeat.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    CachingLibraryModule.this.remote.addLibraryListener(stub, getVersion());
+                } catch (RemoteException | RuntimeException ex) {
+                    LOGGER.log(Level.WARNING, "Could not renew the library listener", ex);
+                }
+            }
+        }, HEARTBEAT, HEARTBEAT, TimeUnit.SECONDS);
+    }
+
+    /**
+     * @return the version of the library the copy is up to date with.
+     */
+    public long getVersion() {
+        return this.version.get();
+    }
+
+    /**
+     * @return the number of books in the copy.
+     */
+    public int size() {
+        return this.index.books.size();
+    }
+
+    /**
+     * Stops listening to the server and unexports the listener.
+     */
+    @Override
+    public void close() {
+        this.heartbeat.shutdownNow();
+        try {
+            this.remote.removeLibraryListener(this.stub);
+        } catch (RemoteException ex) {
+            // the server forgets the listener once it cannot reach it
+        }
+        try {
+            UnicastRemoteObject.unexportObject(this.listener, true);
+        } catch (NoSuchObjectException ex) {
+            // already unexported
+        }
+    }
+
+    @Override
+    public void addBook(Book book, Session session) throws RemoteException,
+            NullPointerException, DuplicateException, AuthorizationException {
+        this.remote.addBook(book, session);
+        this.record(new Mutation(book, null, null));
+    }
+
+    @Override
+    public List<MutationResult> addBooks(List<Book> books, Session session)
+            throws RemoteException, AuthorizationException {
+        List<MutationResult> results = this.remote.addBooks(books, session);
+        for (int i = 0; i < results.size(); i++)
+            if (results.get(i) == MutationResult.ADDED) this.record(new Mutation(books.get(i), null, null));
+        return results;
+    }
+
+    @Override
+    public void removeBook(Book book, Session session)
+            throws RemoteException, AuthorizationException {
+        this.remote.removeBook(book, session);
+        this.record(new Mutation(null, book.getISBN(), book.getOwner()));
+    }
+
+    @Override
+    public void removeBook(String isbn, Session session)
+            throws RemoteException, AuthorizationException {
+        this.remote.removeBook(isbn, session);
+        this.record(new Mutation(null, isbn, session.getUsername()));
+    }
+
+    @Override
+    public List<MutationResult> removeBooks(List<String> isbns, Session session)
+            throws RemoteException, AuthorizationException {
+        List<MutationResult> results = this.remote.removeBooks(isbns, session);
+        for (int i = 0; i < results.size(); i++)
+            if (results.get(i) == MutationResult.REMOVED)
+                this.record(new Mutation(null, isbns.get(i), session.getUsername()));
+        return results;
+    }
+
+    @Override
+    public Book lookupBook(String isbn, String owner)
+            throws RemoteException, BookNotFoundException {
+        Book book = this.index.books.get(key(isbn, owner));
+        if (book == null) throw new BookNotFoundException(isbn);
+        return book;
+    }
+
+    @Override
+    public List<Book> getBooks() throws RemoteException {
+        return new ArrayList<>(this.index.books.values());
+    }
+
+    @Override
+    public Page<Book> getBooks(String cursor, int pageSize)
+            throws RemoteException, IllegalArgumentException {
+        NavigableMap<String, Book> books = this.index.books;
+        return page(cursor == null ? books : books.tailMap(cursor, false), pageSize);
+    }
+
+    @Override
+    public List<Book> searchBooks(String query, int limit)
+            throws RemoteException, IllegalArgumentException {
+        return this.remote.searchBooks(query, limit);
+    }
+
+    @Override
+    public Page<Book> findBooks(int yearFrom, int yearTo, Set<Rating> ratings,
+            String cursor, int pageSize) throws RemoteException, IllegalArgumentException {
+        return this.remote.findBooks(yearFrom, yearTo, ratings, cursor, pageSize);
+    }
+
+    @Override
+    public List<String> getOwnersForBook(String isbn) throws RemoteException {
+        Map<String, Book> copies = this.copies(isbn);
+        List<String> owners = new ArrayList<>(copies.size());
+        for (Book book : copies.values()) owners.add(book.getOwner());
+        return owners;
+    }
+
+    @Override
+    public Page<String> getOwnersForBook(String isbn, String cursor, int pageSize)
+            throws RemoteException, IllegalArgumentException {
+        NavigableMap<String, Book> copies = this.copies(isbn);
+        Page<Book> books = page(cursor == null ? copies : copies.tailMap(cursor, false), pageSize);
+        List<String> owners = new ArrayList<>(books.getItems().size());
+        for (Book book : books.getItems()) owners.add(book.getOwner());
+        return new Page<>(owners, books.getNextCursor());
+    }
+
+    @Override
+    public List<Book> getBooksForOwner(String owner) throws RemoteException {
+        Map<String, Book> owned = this.index.booksByOwner.get(fold(owner));
+        return owned == null ? new ArrayList<Book>() : new ArrayList<>(owned.values());
+    }
+
+    @Override
+    public Page<Book> getBooksForOwner(String owner, String cursor, int pageSize)
+            throws RemoteException, IllegalArgumentException {
+        NavigableMap<String, Book> owned = this.index.booksByOwner.get(fold(owner));
+        if (owned == null) owned = new ConcurrentSkipListMap<>();
+        return page(cursor == null ? owned : owned.tailMap(cursor, false), pageSize);
+    }
+
+    @Override
+    public IRemoteBookStream openBookStream(int chunkSize)
+            throws RemoteException, IllegalArgumentException {
+        return this.remote.openBookStream(chunkSize);
+    }
+
+    @Override
+    public ChangeSet getChangesSince(long version) throws RemoteException {
+        return this.remote.getChangesSince(version);
+    }
+
+    @Override
+    public void addLibraryListener(IRemoteLibraryListener listener, long version)
+            throws RemoteException, NullPointerException {
+        this.remote.addLibraryListener(listener, version);
+    }
+
+    @Override
+    public void removeLibraryListener(IRemoteLibraryListener listener) throws RemoteException {
+        this.remote.removeLibraryListener(listener);
+    }
+
+    /**
+     * Applies a change set pushed by the server. The server pushes to a
+     * listener from one thread at a time.
+     * @param changes the changes since the version of the copy.
+     * @throws RemoteException if a resync is required and fails.
+     */
+    private void apply(ChangeSet changes) throws RemoteException {
+        if (changes.isResyncRequired()) {
+            this.reload(changes.getVersion());
+            return;
+        }
+        synchronized (this) {
+            // a heartbeat may have made the server send changes the copy has :
+            if (changes.getVersion() <= this.version.get()) return;
+            for (Book book : changes.getRemoved()) this.index.remove(book.getISBN(), book.getOwner());
+            for (Book book : changes.getAdded()) this.index.add(book);
+            this.advance(changes.getVersion());
+        }
+    }
+
+    /**
+     * Applies a mutation of this client to the copy, and to the copy being
+     * loaded if a reload is in progress.
+     * @param mutation the mutation that the server accepted.
+     */
+    private synchronized void record(Mutation mutation) {
+        mutation.applyTo(this.index);
+        if (this.journal != null) this.journal.add(mutation);
+    }
+
+    /**
+     * Replaces the copy with the catalogue as the server streams it. The
+     * catalogue is streamed without locking the cache; the mutations of this
+     * client in the meantime are applied to the new copy before it is
+     * swapped in. The listing may already hold some changes after the given
+     * version; the changes pushed next bring it up to date either way.
+     * @param version the version of the library read before the listing.
+     * @throws RemoteException if the catalogue cannot be read.
+     */
+    private void reload(long version) throws RemoteException {
+        synchronized (this) {
+            this.journal = new ArrayList<>();
+        }
+        Index loaded = new Index();
+        try {
+            IRemoteBookStream stream = this.remote.openBookStream(Page.MAX_SIZE);
+            try {
+                List<Book> chunk;
+                while (! (chunk = stream.next()).isEmpty())
+                    for (Book book : chunk) loaded.add(book);
+            } finally {
+                stream.close();
+            }
+            synchronized (this) {
+                for (Mutation mutation : this.journal) mutation.applyTo(loaded);
+                this.index = loaded;
+                // a restarted server may count from a lower version :
+                this.version.set(version);
+            }
+        } finally {
+            synchronized (this) {
+                this.journal = null;
+            }
+        }
+    }
+
+    /**
+     * @param seen a version of the library the copy is up to date with.
+     */
+    private void advance(long seen) {
+        long current;
+        while ((current = this.version.get()) < seen)
+            if (this.version.compareAndSet(current, seen)) return;
+    }
+
+    /**
+     * @param isbn an ISBN.
+     * @return a live view of the copies of the book, keyed by the case-folded
+     * name of their owner.
+     */
+    private NavigableMap<String, Book> copies(String isbn) {
+        String normalized = ISBN.normalize(isbn);
+        NavigableMap<String, Book> copies = normalized == null
+                ? null : this.index.booksByISBN.get(normalized);
+        return copies == null ? new ConcurrentSkipListMap<String, Book>() : copies;
+    }
+
+    /**
+     * @param entries the entries from the first one on the page on.
+     * @param pageSize the maximal number of entries on the page.
+     * @return the page, whose cursor is the key of its last entry.
+     * @throws IllegalArgumentException if the page size is not positive.
+     */
+    private static Page<Book> page(NavigableMap<String, Book> entries, int pageSize)
+            throws IllegalArgumentException {
+        if (pageSize < 1)
+            throw new IllegalArgumentException("The page size must be greater than zero.");
+        int size = Math.min(pageSize, Page.MAX_SIZE);
+        List<Book> page = new ArrayList<>(Math.min(size, 64));
+        String last = null;
+        for (Map.Entry<String, Book> entry : entries.entrySet()) {
+            if (page.size() == size) return new Page<>(page, last);
+            page.add(entry.getValue());
+            last = entry.getKey();
+        }
+        return new Page<>(page, null);
+    }
+
+    /**
+     * @param isbn an ISBN.
+     * @param owner the name of an owner.
+     * @return the key of the copy of the book of the owner.
+     */
+    private static String key(String isbn, String owner) {
+        String normalized = ISBN.normalize(isbn);
+        return (normalized == null ? isbn : normalized) + '/' + fold(owner);
+    }
+
+    /**
+     * @param name a name.
+     * @return the name in the case used for keys, as on the server.
+     */
+    private static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The books of the copy, by ISBN and owner, by ISBN and by owner. The
+     * index in use is only changed while the cache is locked, and is read
+     * without locking.
+     */
+    private static final class Index {
+
+        private final ConcurrentNavigableMap<String, Book> books = new ConcurrentSkipListMap<>();
+        private final ConcurrentMap<String, ConcurrentNavigableMap<String, Book>> booksByISBN
+                = new ConcurrentHashMap<>();
+        private final ConcurrentMap<String, ConcurrentNavigableMap<String, Book>> booksByOwner
+                = new ConcurrentHashMap<>();
+
+        /**
+         * @param book the book to add or replace, with its ISBN in any form.
+         */
+        void add(Book book) {
+            String isbn = ISBN.normalize(book.getISBN());
+            if (isbn == null) return;
+            if (! isbn.equals(book.getISBN()))
+                book = new Book(book.getTitle(), book.getAuthor(), book.getYear(),
+                        book.getRating(), isbn, book.getOwner());
+            String owner = fold(book.getOwner());
+            this.books.put(isbn + '/' + owner, book);
+            entries(this.booksByISBN, isbn).put(owner, book);
+            entries(this.booksByOwner, owner).put(isbn, book);
+        }
+
+        /**
+         * @param isbn the ISBN of the book to remove, in any form.
+         * @param owner the owner of the book to remove.
+         */
+        void remove(String isbn, String owner) {
+            String normalized = ISBN.normalize(isbn);
+            if (normalized == null) return;
+            owner = fold(owner);
+            this.books.remove(normalized + '/' + owner);
+            remove(this.booksByISBN, normalized, owner);
+            remove(this.booksByOwner, owner, normalized);
+        }
+
+        /**
+         * @param index an index of the books by ISBN or by owner.
+         * @param key an ISBN or the case-folded name of an owner.
+         * @return the books under the key, which are added if there are none.
+         */
+        private static Map<String, Book> entries(
+                ConcurrentMap<String, ConcurrentNavigableMap<String, Book>> index, String key) {
+            ConcurrentNavigableMap<String, Book> entries = index.get(key);
+            if (entries == null) {
+                entries = new ConcurrentSkipListMap<>();
+                index.put(key, entries);
+            }
+            return entries;
+        }
+
+        /**
+         * @param index an index of the books by ISBN or by owner.
+         * @param key an ISBN or the case-folded name of an owner.
+         * @param entry the key of the book under the key.
+         */
+        private static void remove(ConcurrentMap<String, ConcurrentNavigableMap<String, Book>> index,
+                String key, String entry) {
+            Map<String, Book> entries = index.get(key);
+            if (entries != null) {
+                entries.remove(entry);
+                if (entries.isEmpty()) index.remove(key, entries);
+            }
+        }
+    }
+
+    /**
+     * A book that this client added or removed.
+     */
+    private static final class Mutation {
+
+        private final Book added;
+        private final String isbn;
+        private final String owner;
+
+        /**
+         * @param added the book that was added, or NULL.
+         * @param isbn the ISBN of the book that was removed, or NULL.
+         * @param owner the owner of the book that was removed, or NULL.
+         */
+        Mutation(Book added, String isbn, String owner) {
+            this.added = added;
+            this.isbn = isbn;
+            this.owner = owner;
+        }
+
+        /**
+         * @param index the index to apply the mutation to.
+         */
+        void applyTo(Index index) {
+            if (this.added != null) index.add(this.added);
+            else index.remove(this.isbn, this.owner);
+        }
+    }
+
+    /**
+     * The listener the server pushes the changes to.
+     */
+    private final class Listener implements IRemoteLibraryListener {
+
+        @Override
+        public void libraryChanged(ChangeSet changes) throws RemoteException {
+            apply(changes);
+        }
+    }
+}
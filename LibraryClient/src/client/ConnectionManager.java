@@ -0,0 +1,420 @@
+package client;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.UnknownHostException;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.NoSuchObjectException;
+import java.rmi.NotBoundException;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.rmi.server.RMIClientSocketFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import remote.IRemoteLibraryModule;
+import remote.IRemoteSessionModule;
+import rmi.RMISettings;
+
+/**
+ * The ConnectionManager class hands out library and session modules that
+ * survive failing and slow servers. It looks up the stubs of one or more
+ * server endpoints in their registries and caches them. A call that fails
+ * with a RemoteException drops the cached stub, so that the next attempt
+ * looks it up again, possibly on the next endpoint :
+ * <ul>
+ *      <li>reads (looking up and listing books, searches and session checks)
+ *      are retried on any RemoteException, after a backoff with jitter;</li>
+ *      <li>other calls are only retried when they surely did not reach the
+ *      server, such as when the connection was refused or the remote object
+ *      is unknown.</li>
+ * </ul>
+ * With hedging on and more than one endpoint, a read that takes longer than
+ * the 95th percentile of the recent calls of its method is sent to a second
+ * endpoint as well, and the first answer is used. This keeps the tail latency
+ * bounded when one server pauses. Session checks are only hedged when the
+ * servers accept each other's sessions, as with signed session tokens, since
+ * another server would otherwise answer that the session is unknown.
+ *
+ * Application exceptions, such as a BookNotFoundException, are never retried.
+ * A thread that is interrupted while it waits for a backoff or a hedged call
+ * stops with a RemoteException, and its interrupt status is kept.
+ */
+public final class ConnectionManager implements AutoCloseable {
+
+    /**
+     * The number of times a call is retried by default.
+     */
+    public static final int DEFAULT_RETRIES = 3;
+
+    private static final long BACKOFF_BASE = 50;
+    private static final long BACKOFF_MAX = 2000;
+    private static final int LATENCY_SAMPLES = 1024;
+    private static final double HEDGE_PERCENTILE = 0.95;
+    private static final long HEDGE_MIN_DELAY = TimeUnit.MILLISECONDS.toNanos(1);
+    private static final Set<String> READS = new HashSet<>(Arrays.asList(
+            "lookupBook", "getBooks", "getBooksForOwner", "getOwnersForBook",
+            "searchBooks", "findBooks", "getChangesSince", "isAuthenticated"));
+    private static final Set<String> SESSION_READS = Collections.singleton("isAuthenticated");
+
+    private final List<Endpoint> endpoints;
+    private final RMIClientSocketFactory csf;
+    private final int retries;
+    private final boolean hedging;
+    private final boolean sharedSessions;
+    private final AtomicInteger preferred;
+    private final ConcurrentMap<Method, LatencyWindow> latencies;
+    private final ExecutorService hedges;
+
+    /**
+     * @param endpoints the registries of the servers, the preferred one first.
+     * @param csf the socket factory to reach the registries with, or NULL.
+     * @param retries the number of times a call is retried.
+     * @param hedging whether or not to hedge slow reads.
+     * @param sharedSessions whether or not the servers accept each other's
+     * sessions, so that session checks may be hedged too.
+     * @throws IllegalArgumentException if there is no endpoint or the number
+     * of retries is negative.
+     */
+    public ConnectionManager(List<Endpoint> endpoints, RMIClientSocketFactory csf,
+            int retries, boolean hedging, boolean sharedSessions) throws IllegalArgumentException {
+        super();
+        if (endpoints.isEmpty()) throw new IllegalArgumentException("There must be an endpoint.");
+        if (retries < 0) throw new IllegalArgumentException("The retries must not be negative.");
+        this.endpoints = Collections.unmodifiableList(new ArrayList<>(endpoints));
+        this.csf = csf;
+        this.retries = retries;
+        this.hedging = hedging && endpoints.size() > 1;
+        this.sharedSessions = sharedSessions;
+        this.preferred = new AtomicInteger();
+        this.latencies = new ConcurrentHashMap<>();
+        this.hedges = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "hedged-call");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * @return a library module whose calls are retried and hedged.
+     */
+    public IRemoteLibraryModule getLibraryModule() {
+        return this.proxy(IRemoteLibraryModule.class, RMISettings.LIBRARY_SERVICE_NAME);
+    }
+
+    /**
+     * @return a session module whose calls are retried and hedged.
+     */
+    public IRemoteSessionModule getSessionModule() {
+        return this.proxy(IRemoteSessionModule.class, RMISettings.SESSION_SERVICE_NAME);
+    }
+
+    /**
+     * Stops the threads of hedged calls. Modules handed out keep working,
+     * without hedging.
+     */
+    @Override
+    public void close() {
+        this.hedges.shutdownNow();
+    }
+
+    /**
+     * @param <T> the remote interface.
+     * @param type the remote interface.
+     * @param name the name the remote object is bound to.
+     * @return a proxy that calls the remote object through this manager.
+     */
+    private <T extends Remote> T proxy(final Class<T> type, final String name) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type},
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if (method.getDeclaringClass() == Object.class)
+                            return invokeLocally(proxy, method, args, name);
+                        return call(name, method, args);
+                    }
+                }));
+    }
+
+    /**
+     * Makes a call, with retries and hedging.
+     * @param name the name the remote object is bound to.
+     * @param method the method to call.
+     * @param args the arguments of the call.
+     * @return the result of the call.
+     * @throws Throwable the exception of the last attempt.
+     */
+    private Object call(String name, Method method, Object[] args) throws Throwable {
+        boolean read = READS.contains(method.getName());
+        boolean hedged = read && this.hedging
+                && (this.sharedSessions || ! SESSION_READS.contains(method.getName()));
+        for (int attempt = 0; ; attempt++) {
+            int index = (this.preferred.get() + attempt) % this.endpoints.size();
+            try {
+                if (hedged) return this.callHedged(name, method, args, index);
+                Object result = this.callOnce(name, method, args, index);
+                this.preferred.set(index);
+                return result;
+            } catch (RemoteException | NotBoundException ex) {
+                if (attempt >= this.retries || ! (read || notDelivered(ex))
+                        || Thread.currentThread().isInterrupted()) throw ex;
+                this.backoff(attempt);
+            }
+        }
+    }
+
+    /**
+     * Makes a call on one endpoint and records its duration.
+     * @param name the name the remote object is bound to.
+     * @param method the method to call.
+     * @param args the arguments of the call.
+     * @param index the index of the endpoint.
+     * @return the result of the call.
+     * @throws Throwable the exception of the call.
+     */
+    private Object callOnce(String name, Method method, Object[] args, int index) throws Throwable {
+        Endpoint endpoint = this.endpoints.get(index);
+        Remote stub = endpoint.lookup(name, this.csf);
+        long start = System.nanoTime();
+        try {
+            Object result = method.invoke(stub, args);
+            this.window(method).record(System.nanoTime() - start);
+            return result;
+        } catch (InvocationTargetException ex) {
+            if (ex.getCause() instanceof RemoteException) endpoint.forget(name, stub);
+            throw ex.getCause();
+        }
+    }
+
+    /**
+     * Makes a call on one endpoint, and on the next one as well if the first
+     * takes longer than usual. The first successful result is returned, and
+     * the endpoint that gave it becomes the preferred one.
+     * @param name the name the remote object is bound to.
+     * @param method the method to call.
+     * @param args the arguments of the call.
+     * @param index the index of the first endpoint.
+     * @return the result of the first successful call.
+     * @throws RemoteException if the thread is interrupted while it waits.
+     * @throws Throwable the exception of the first call, if both fail.
+     */
+    private Object callHedged(final String name, final Method method, final Object[] args,
+            int index) throws Throwable {
+        long delay = this.window(method).get();
+        if (delay < 0 || this.hedges.isShutdown()) {
+            Object result = this.callOnce(name, method, args, index);
+            this.preferred.set(index);
+            return result;
+        }
+        int second = (index + 1) % this.endpoints.size();
+
+        ExecutorCompletionService<Object> calls = new ExecutorCompletionService<>(this.hedges);
+        List<Future<Object>> started = new ArrayList<>(2);
+        try {
+            started.add(calls.submit(this.task(name, method, args, index)));
+            Future<Object> done = calls.poll(Math.max(delay, HEDGE_MIN_DELAY), TimeUnit.NANOSECONDS);
+            if (done == null) started.add(calls.submit(this.task(name, method, args, second)));
+            Throwable failure = null;
+            for (int i = 0; i < started.size(); i++) {
+                if (done == null) done = calls.take();
+                try {
+                    Object result = done.get();
+                    this.preferred.set(done == started.get(0) ? index : second);
+                    return result;
+                } catch (ExecutionException ex) {
+                    // keep the failure of the first endpoint, which is retried :
+                    if (done == started.get(0) || failure == null) failure = ex.getCause();
+                }
+                done = null;
+            }
+            throw failure;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while calling " + method.getName() + ".", ex);
+        } finally {
+            for (Future<Object> future : started) future.cancel(true);
+        }
+    }
+
+    /**
+     * @param name the name the remote object is bound to.
+     * @param method the method to call.
+     * @param args the arguments of the call.
+     * @param index the index of the endpoint.
+     * @return the call as a task.
+     */
+    private Callable<Object> task(final String name, final Method method, final Object[] args,
+            final int index) {
+        return new Callable<Object>() {
+            @Override
+            public Object call() throws Exception {
+                try {
+                    return callOnce(name, method, args, index);
+                } catch (Exception | Error ex) {
+                    throw ex;
+                } catch (Throwable ex) {
+                    throw new ExecutionException(ex);
+                }
+            }
+        };
+    }
+
+    /**
+     * @param method a method.
+     * @return the durations of the recent calls of the method.
+     */
+    private LatencyWindow window(Method method) {
+        LatencyWindow window = this.latencies.get(method);
+        if (window == null) {
+            window = new LatencyWindow(LATENCY_SAMPLES, HEDGE_PERCENTILE);
+            LatencyWindow existing = this.latencies.putIfAbsent(method, window);
+            if (existing != null) window = existing;
+        }
+        return window;
+    }
+
+    /**
+     * Waits before the next attempt, a random time up to a limit that doubles
+     * with every attempt.
+     * @param attempt the number of the failed attempt, from 0.
+     * @throws RemoteException if the thread is interrupted while waiting.
+     */
+    private void backoff(int attempt) throws RemoteException {
+        long limit = Math.min(BACKOFF_MAX, BACKOFF_BASE << Math.min(attempt, 16));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(limit + 1));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Interrupted while waiting to retry.", ex);
+        }
+    }
+
+    /**
+     * @param ex the exception of a failed call.
+     * @return whether or not the call surely did not reach the server.
+     */
+    private static boolean notDelivered(Exception ex) {
+        return ex instanceof ConnectException || ex instanceof ConnectIOException
+                || ex instanceof NoSuchObjectException || ex instanceof NotBoundException
+                || ex instanceof java.rmi.UnknownHostException
+                || ex.getCause() instanceof UnknownHostException;
+    }
+
+    /**
+     * @param proxy the proxy.
+     * @param method a method of Object.
+     * @param args the arguments of the call.
+     * @param name the name the remote object is bound to.
+     * @return the result of the method for the proxy.
+     */
+    private Object invokeLocally(Object proxy, Method method, Object[] args, String name) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return "ConnectionManager.Proxy{" + name + ", " + this.endpoints + "}";
+        }
+    }
+
+    /**
+     * The registry of a server, with the stubs looked up in it.
+     */
+    public static final class Endpoint {
+
+        private final String host;
+        private final int port;
+        private final ConcurrentMap<String, Remote> stubs;
+
+        /**
+         * @param host the host of the registry.
+         * @param port the port of the registry.
+         */
+        public Endpoint(String host, int port) {
+            super();
+            this.host = host;
+            this.port = port;
+            this.stubs = new ConcurrentHashMap<>();
+        }
+
+        /**
+         * @param endpoints endpoints in the form host:port, separated by
+         * commas; the port may be left out.
+         * @param defaultPort the port of endpoints without one.
+         * @return the endpoints.
+         * @throws IllegalArgumentException if a port is not a number.
+         */
+        public static List<Endpoint> parse(String endpoints, int defaultPort)
+                throws IllegalArgumentException {
+            List<Endpoint> parsed = new ArrayList<>();
+            for (String endpoint : endpoints.split(",")) {
+                endpoint = endpoint.trim();
+                if (endpoint.isEmpty()) continue;
+                int colon = endpoint.lastIndexOf(':');
+                try {
+                    parsed.add(colon < 0 ? new Endpoint(endpoint, defaultPort)
+                            : new Endpoint(endpoint.substring(0, colon),
+                                    Integer.parseInt(endpoint.substring(colon + 1))));
+                } catch (NumberFormatException ex) {
+                    throw new IllegalArgumentException("Invalid endpoint '" + endpoint + "'.", ex);
+                }
+            }
+            return parsed;
+        }
+
+        /**
+         * @param name the name the remote object is bound to.
+         * @param csf the socket factory to reach the registry with, or NULL.
+         * @return the cached stub, or the stub looked up in the registry.
+         * @throws RemoteException if the registry cannot be reached.
+         * @throws NotBoundException if nothing is bound to the name.
+         */
+        Remote lookup(String name, RMIClientSocketFactory csf) throws RemoteException, NotBoundException {
+            Remote stub = this.stubs.get(name);
+            if (stub == null) {
+                Registry registry = LocateRegistry.getRegistry(this.host, this.port, csf);
+                stub = registry.lookup(name);
+                this.stubs.put(name, stub);
+            }
+            return stub;
+        }
+
+        /**
+         * Drops a cached stub that failed, so that it is looked up again.
+         * @param name the name the remote object is bound to.
+         * @param stub the stub that failed.
+         */
+        void forget(String name, Remote stub) {
+            this.stubs.remove(name, stub);
+        }
+
+        @Override
+        public String toString() {
+            return this.host + ":" + this.port;
+        }
+    }
+}
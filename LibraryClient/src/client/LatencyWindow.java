@@ -0,0 +1,51 @@
+package client;
+
+import java.util.Arrays;
+
+/**
+ * The LatencyWindow class keeps the durations of the most recent calls of a
+ * method and estimates a percentile of them. The percentile is computed
+ * again after every few calls instead of on every lookup.
+ */
+final class LatencyWindow {
+
+    private static final int RECOMPUTE = 32;
+
+    private final long[] samples;
+    private final double percentile;
+    private int count;
+    private int next;
+    private long total;
+    private long estimate = -1;
+
+    /**
+     * @param size the number of durations kept.
+     * @param percentile the percentile to estimate, between 0 and 1.
+     */
+    LatencyWindow(int size, double percentile) {
+        this.samples = new long[size];
+        this.percentile = percentile;
+    }
+
+    /**
+     * @param nanos the duration of a call, in nanoseconds.
+     */
+    synchronized void record(long nanos) {
+        this.samples[this.next] = nanos;
+        this.next = (this.next + 1) % this.samples.length;
+        if (this.count < this.samples.length) this.count++;
+        if (++this.total % RECOMPUTE == 0) {
+            long[] sorted = Arrays.copyOf(this.samples, this.count);
+            Arrays.sort(sorted);
+            this.estimate = sorted[(int) Math.min(sorted.length - 1, (long) (this.percentile * sorted.length))];
+        }
+    }
+
+    /**
+     * @return the estimated percentile in nanoseconds, or -1 if too few
+     * calls were recorded.
+     */
+    synchronized long get() {
+        return this.estimate;
+    }
+}
@@ -0,0 +1,201 @@
+package client;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The RemoteCallExecutor class runs remote calls in the background and hands
+ * out futures for their results, so that a caller can keep many calls in
+ * flight at once. The calls run on virtual threads when the JVM has them,
+ * and on a bounded pool of threads otherwise.
+ *
+ * Every call has a deadline, counted from the moment it is submitted. A call
+ * that misses its deadline completes with a TimeoutException, and a call can
+ * be cancelled through its future. Either way, the caller stops waiting at
+ * once. The thread making the call is not freed until the call returns or
+ * the read timeout of the connection expires, since RMI does not respond to
+ * interrupts; with virtual threads, such a thread costs little.
+ *
+ * The projects are compiled for Java 7 (javac.source and javac.target 1.7
+ * in nbproject/project.properties), and that is a hard constraint for the
+ * client. So the calls hand out a plain Future rather than a
+ * CompletableFuture, which only came with Java 8. To combine calls, submit
+ * them all first and then wait for each of their futures; the deadlines
+ * run concurrently. Virtual threads are looked up by reflection for the
+ * same reason.
+ */
+public final class RemoteCallExecutor implements AutoCloseable {
+
+    /**
+     * The number of threads of the pool used without virtual threads.
+     */
+    public static final int DEFAULT_THREADS = 64;
+
+    /**
+     * The number of calls that may wait for a thread of the pool.
+     */
+    public static final int DEFAULT_QUEUE = 10_000;
+
+    private final ExecutorService executor;
+    private final ScheduledThreadPoolExecutor timer;
+    private final long timeout;
+
+    /**
+     * Creates an executor that runs the calls on virtual threads, or on a
+     * pool of {@link #DEFAULT_THREADS} threads if the JVM has none.
+     * @param timeout the default time a call may take, or 0 for no limit.
+     * @param unit the unit of the timeout.
+     */
+    public RemoteCallExecutor(long timeout, TimeUnit unit) {
+        this(newExecutor(DEFAULT_THREADS, DEFAULT_QUEUE), timeout, unit);
+    }
+
+    /**
+     * @param executor the executor to run the calls on, which is shut down
+     * when this executor is closed.
+     * @param timeout the default time a call may take, or 0 for no limit.
+     * @param unit the unit of the timeout.
+     * @throws IllegalArgumentException if the timeout is negative.
+     */
+    public RemoteCallExecutor(ExecutorService executor, long timeout, TimeUnit unit)
+            throws IllegalArgumentException {
+        super();
+        if (timeout < 0) throw new IllegalArgumentException("The timeout must not be negative.");
+        this.executor = executor;
+        this.timeout = unit.toNanos(timeout);
+        this.timer = new ScheduledThreadPoolExecutor(1, daemonThreads("remote-call-timer"));
+        this.timer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Creates an executor service for remote calls : one that starts a
+     * virtual thread per call if the JVM supports them, or else a pool with
+     * a bounded number of threads and a bounded queue.
+     * @param threads the number of threads of the pool.
+     * @param queue the number of calls that may wait for a thread of the pool.
+     * @return the executor service.
+     */
+    public static ExecutorService newExecutor(int threads, int queue) {
+        try {
+            // looked up by reflection, since virtual threads came after Java 7 :
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException | RuntimeException ex) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(queue), daemonThreads("remote-call"));
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+    /**
+     * @return whether or not the calls run on virtual threads.
+     */
+    public boolean usesVirtualThreads() {
+        return ! (this.executor instanceof ThreadPoolExecutor);
+    }
+
+    /**
+     * Submits a call with the default timeout.
+     * @param <T> the type of the result of the call.
+     * @param call the call.
+     * @return the future result of the call.
+     * @throws RejectedExecutionException if there is no room for the call.
+     */
+    public <T> Future<T> submit(Callable<T> call) throws RejectedExecutionException {
+        return this.submit(call, this.timeout, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param <T> the type of the result of the call.
+     * @param call the call.
+     * @param timeout the time the call may take, or 0 for no limit.
+     * @param unit the unit of the timeout.
+     * @return the future result of the call.
+     * @throws RejectedExecutionException if there is no room for the call.
+     */
+    public <T> Future<T> submit(Callable<T> call, long timeout, TimeUnit unit)
+            throws RejectedExecutionException {
+        final Call<T> future = new Call<>(call, unit.toMillis(timeout));
+        this.executor.execute(future);
+        if (timeout > 0 && ! future.isDone()) {
+            future.deadline = this.timer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    future.expire();
+                }
+            }, timeout, unit);
+            // the call may have finished before its deadline was set :
+            if (future.isDone()) future.deadline.cancel(false);
+        }
+        return future;
+    }
+
+    /**
+     * Stops accepting calls. Calls in progress are finished.
+     */
+    @Override
+    public void close() {
+        this.executor.shutdown();
+        this.timer.shutdown();
+    }
+
+    /**
+     * @param name the name of the threads.
+     * @return a factory of daemon threads with the given name.
+     */
+    private static ThreadFactory daemonThreads(final String name) {
+        return new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, name + "-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * A remote call with a deadline.
+     */
+    private static final class Call<T> extends FutureTask<T> {
+
+        private final long timeout;
+        private volatile ScheduledFuture<?> deadline;
+
+        Call(Callable<T> call, long timeout) {
+            super(call);
+            this.timeout = timeout;
+        }
+
+        /**
+         * Completes the call with a TimeoutException, unless it is done.
+         */
+        void expire() {
+            if (this.isDone()) return;
+            this.setException(new TimeoutException(
+                    "The remote call took longer than " + this.timeout + " ms."));
+        }
+
+        @Override
+        protected void done() {
+            ScheduledFuture<?> scheduled = this.deadline;
+            if (scheduled != null) scheduled.cancel(false);
+        }
+    }
+}
@@ -0,0 +1,120 @@
+package load;
+
+import args.ISBN;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The Fixture class holds the data a load test works with : the users and
+ * books the server was seeded with, read from the same CSV files, and a
+ * source of fresh ISBNs for the books the simulated users add.
+ *
+ * The password of every user is taken to be its name, as in the seed data.
+ */
+public final class Fixture {
+
+    private static final long ISBN_PREFIX = 979_000_000_000L;
+    private static final int ISBN_RANGE = 900_000_000;
+
+    private final List<String> usernames;
+    private final List<String> isbns;
+    private final List<String> owners;
+    private final AtomicLong nextIsbn;
+
+    /**
+     * @param users the CSV file with the users, as name and password hash.
+     * @param books the CSV file with the books, as title, author, year,
+     * rating, ISBN and owner.
+     * @param random the source of the ISBNs of added books, which start at a
+     * random place so that runs do not collide.
+     * @throws IOException if a file cannot be read.
+     * @throws IllegalArgumentException if a file has no users or books.
+     */
+    public Fixture(Path users, Path books, Random random) throws IOException, IllegalArgumentException {
+        super();
+        this.usernames = new ArrayList<>();
+        for (String[] fields : read(users, 2))
+            this.usernames.add(fields[0]);
+        if (this.usernames.isEmpty())
+            throw new IllegalArgumentException("There are no users in " + users + ".");
+        this.isbns = new ArrayList<>();
+        this.owners = new ArrayList<>();
+        for (String[] fields : read(books, 6)) {
+            String isbn = ISBN.normalize(fields[4]);
+            if (isbn == null) continue;
+            this.isbns.add(isbn);
+            this.owners.add(fields[5]);
+        }
+        if (this.isbns.isEmpty())
+            throw new IllegalArgumentException("There are no books in " + books + ".");
+        this.nextIsbn = new AtomicLong(ISBN_PREFIX + random.nextInt(ISBN_RANGE));
+    }
+
+    /**
+     * @return the names of the users.
+     */
+    List<String> getUsernames() {
+        return Collections.unmodifiableList(this.usernames);
+    }
+
+    /**
+     * @return the number of seeded books.
+     */
+    int getBookCount() {
+        return this.isbns.size();
+    }
+
+    /**
+     * @param index the index of a seeded book.
+     * @return the ISBN of the book.
+     */
+    String getIsbn(int index) {
+        return this.isbns.get(index);
+    }
+
+    /**
+     * @param index the index of a seeded book.
+     * @return the owner of the book.
+     */
+    String getOwner(int index) {
+        return this.owners.get(index);
+    }
+
+    /**
+     * @return an ISBN-13 with prefix 979 that was not handed out before.
+     */
+    String nextIsbn() {
+        long first12 = this.nextIsbn.getAndIncrement();
+        int sum = 0;
+        long digits = first12;
+        for (int i = 0; i < 12; i++) {
+            // the last of the 12 digits has weight 3 :
+            sum += (i % 2 == 0 ? 3 : 1) * (int) (digits % 10);
+            digits /= 10;
+        }
+        return ISBN.unpack(10 * first12 + (10 - sum % 10) % 10);
+    }
+
+    /**
+     * @param file a CSV file.
+     * @param fields the least number of fields of a row.
+     * @return the fields of the rows, without comments and short rows.
+     * @throws IOException if the file cannot be read.
+     */
+    private static List<String[]> read(Path file, int fields) throws IOException {
+        List<String[]> rows = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] row = line.split(",");
+            if (row.length >= fields) rows.add(row);
+        }
+        return rows;
+    }
+}
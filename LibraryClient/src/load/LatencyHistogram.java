@@ -0,0 +1,119 @@
+package load;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The LatencyHistogram class counts durations in buckets whose width grows
+ * with the duration, so that every duration is kept with a precision of
+ * about 1.5% in a fixed amount of memory. Durations are recorded in
+ * microseconds, by any number of threads at once.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BITS = 6;
+    private static final int SUB_COUNT = 1 << SUB_BITS;
+    private static final int BUCKETS = (Long.SIZE - SUB_BITS) * SUB_COUNT;
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    LatencyHistogram() {
+        super();
+        this.counts = new AtomicLongArray(BUCKETS);
+        this.count = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * @param micros a duration in microseconds.
+     */
+    void record(long micros) {
+        micros = Math.max(0, micros);
+        this.counts.incrementAndGet(index(micros));
+        this.count.incrementAndGet();
+        this.sum.addAndGet(micros);
+        long current = this.max.get();
+        while (micros > current && ! this.max.compareAndSet(current, micros))
+            current = this.max.get();
+    }
+
+    /**
+     * @param other a histogram whose durations are added to this one.
+     */
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKETS; i++) {
+            long n = other.counts.get(i);
+            if (n > 0) this.counts.addAndGet(i, n);
+        }
+        this.count.addAndGet(other.count.get());
+        this.sum.addAndGet(other.sum.get());
+        long current = this.max.get();
+        long candidate = other.max.get();
+        while (candidate > current && ! this.max.compareAndSet(current, candidate))
+            current = this.max.get();
+    }
+
+    /**
+     * @return the number of durations recorded.
+     */
+    long getCount() {
+        return this.count.get();
+    }
+
+    /**
+     * @return the mean duration in microseconds, or 0 if none was recorded.
+     */
+    double getMean() {
+        long n = this.count.get();
+        return n == 0 ? 0 : (double) this.sum.get() / n;
+    }
+
+    /**
+     * @return the longest duration in microseconds.
+     */
+    long getMax() {
+        return this.max.get();
+    }
+
+    /**
+     * @param quantile the quantile, between 0 and 1.
+     * @return the duration in microseconds that the given share of the
+     * durations does not exceed, or 0 if none was recorded.
+     */
+    long getPercentile(double quantile) {
+        long n = this.count.get();
+        if (n == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(quantile * n));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += this.counts.get(i);
+            if (seen >= rank) return Math.min(upperBound(i), this.max.get());
+        }
+        return this.max.get();
+    }
+
+    /**
+     * @param value a duration.
+     * @return the index of the bucket of the duration.
+     */
+    private static int index(long value) {
+        if (value < 2 * SUB_COUNT) return (int) value;
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+        return (shift + 1) * SUB_COUNT + (int) (value >>> shift) - SUB_COUNT;
+    }
+
+    /**
+     * @param index the index of a bucket.
+     * @return the longest duration in the bucket.
+     */
+    private static long upperBound(int index) {
+        if (index < 2 * SUB_COUNT) return index;
+        int shift = index / SUB_COUNT - 1;
+        long sub = index % SUB_COUNT + SUB_COUNT;
+        return ((sub + 1) << shift) - 1;
+    }
+}
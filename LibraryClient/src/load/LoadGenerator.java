@@ -0,0 +1,192 @@
+package load;
+
+import client.ConnectionManager;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.rmi.RemoteException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import remote.IRemoteLibraryModule;
+import remote.IRemoteSessionModule;
+import rmi.TransportConfig;
+
+/**
+ * The LoadGenerator class puts a server under load without the interactive
+ * client. Calls are scheduled at a target rate with random (Poisson) arrival
+ * times, whether or not earlier calls have finished, and are handed to a
+ * pool of simulated users that perform them. When the server falls behind,
+ * calls wait for a free user, and that wait counts in their latency; the
+ * latencies therefore show what clients arriving at that rate would see.
+ *
+ * Simulated users take turns with the users of the seed data, so a test
+ * with more simulated users than seeded users shares accounts; destroying
+ * the session of a shared account then makes the calls of the others fail.
+ */
+public final class LoadGenerator {
+
+    private final SimulatedUser[] users;
+    private final OperationMix mix;
+    private final double rate;
+
+    /**
+     * @param sessionModule the session module of the server.
+     * @param libraryModule the library module of the server.
+     * @param fixture the seed data of the server.
+     * @param users the number of simulated users.
+     * @param rate the target number of calls per second.
+     * @param mix the mix of operations.
+     * @throws IllegalArgumentException if the number of users or the rate is
+     * not positive.
+     */
+    public LoadGenerator(IRemoteSessionModule sessionModule, IRemoteLibraryModule libraryModule,
+            Fixture fixture, int users, double rate, OperationMix mix) throws IllegalArgumentException {
+        super();
+        if (users < 1) throw new IllegalArgumentException("The number of users must be greater than zero.");
+        if (! (rate > 0)) throw new IllegalArgumentException("The rate must be greater than zero.");
+        this.mix = mix;
+        this.rate = rate;
+        this.users = new SimulatedUser[users];
+        List<String> usernames = fixture.getUsernames();
+        for (int i = 0; i < users; i++)
+            this.users[i] = new SimulatedUser(usernames.get(i % usernames.size()),
+                    sessionModule, libraryModule, fixture);
+    }
+
+    /**
+     * Runs a load test. Calls scheduled during the warm-up are made but not
+     * measured. Afterwards, the books added by the simulated users are
+     * removed again.
+     * @param warmup the length of the warm-up.
+     * @param duration the length of the measured part of the test.
+     * @param unit the unit of the lengths.
+     * @param seed the seed of the random schedule and operations.
+     * @return the report of the measured calls.
+     * @throws InterruptedException if the thread is interrupted.
+     */
+    public LoadReport run(long warmup, long duration, TimeUnit unit, long seed)
+            throws InterruptedException {
+        final LoadReport report = new LoadReport(this.rate, this.users.length, this.mix);
+        final AtomicLong lastCall = new AtomicLong();
+        ExecutorService executor = Executors.newFixedThreadPool(this.users.length, new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "simulated-user-" + this.count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        Random random = new Random(seed);
+        long start = System.nanoTime();
+        final long measured = start + unit.toNanos(warmup);
+        long end = measured + unit.toNanos(duration);
+        double interval = TimeUnit.SECONDS.toNanos(1) / this.rate;
+        // the schedule is kept even when the calls fall behind :
+        for (long next = start; next < end;
+                next += (long) (-Math.log(1 - random.nextDouble()) * interval)) {
+            long wait = next - System.nanoTime();
+            while (wait > 0) {
+                LockSupport.parkNanos(wait);
+                wait = next - System.nanoTime();
+            }
+            final SimulatedUser user = this.users[random.nextInt(this.users.length)];
+            final Operation drawn = this.mix.next(random);
+            final long scheduled = next;
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    Operation operation = user.resolve(drawn);
+                    LoadReport.Outcome outcome = LoadReport.Outcome.OK;
+                    try {
+                        user.perform(operation, ThreadLocalRandom.current());
+                    } catch (RemoteException ex) {
+                        outcome = LoadReport.Outcome.ERROR;
+                    } catch (RuntimeException ex) {
+                        outcome = LoadReport.Outcome.REJECTED;
+                    }
+                    long now = System.nanoTime();
+                    if (scheduled < measured) return;
+                    report.record(operation, TimeUnit.NANOSECONDS.toMicros(now - scheduled), outcome);
+                    long last = lastCall.get();
+                    while (now - last > 0 && ! lastCall.compareAndSet(last, now))
+                        last = lastCall.get();
+                }
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        report.setElapsed(Math.max(end, lastCall.get()) - measured, TimeUnit.NANOSECONDS);
+        for (SimulatedUser user : this.users) {
+            try {
+                user.cleanUp();
+            } catch (RemoteException | RuntimeException ex) {
+                System.err.println(ex.getClass().getName() + " : " + ex.getLocalizedMessage());
+            }
+        }
+        return report;
+    }
+
+    /**
+     * Runs a load test against the server of the transport settings and
+     * prints the report. The test is configured with system properties :
+     * <ul>
+     *      <li>load.users : the number of simulated users (10);</li>
+     *      <li>load.rate : the target number of calls per second (100);</li>
+     *      <li>load.duration : the seconds measured (60);</li>
+     *      <li>load.warmup : the seconds before measuring (10);</li>
+     *      <li>load.mix : the weights of the operations
+     *      ({@value OperationMix#DEFAULT});</li>
+     *      <li>load.seed : the seed of the schedule (random);</li>
+     *      <li>load.users.file and load.books.file : the seed data of the
+     *      server (../LibraryServer/src/users.csv and books.csv);</li>
+     *      <li>load.out : the path, without extension, to export the report
+     *      to as CSV and JSON (none).</li>
+     * </ul>
+     * The servers are reached as by the client, through 'library.endpoints'.
+     * Calls are not retried unless 'library.retries' says so.
+     * @param args the command line arguments, which are ignored.
+     */
+    public static void main(String[] args) {
+        try {
+            TransportConfig transport = TransportConfig.load();
+            transport.applyToRuntime();
+            List<ConnectionManager.Endpoint> endpoints = ConnectionManager.Endpoint.parse(
+                    System.getProperty("library.endpoints", transport.getRegistryHost() + ":"
+                            + transport.getRegistryPort()), transport.getRegistryPort());
+            ConnectionManager connections = new ConnectionManager(endpoints, transport.socketFactory(),
+                    Integer.getInteger("library.retries", 0), Boolean.getBoolean("library.hedging"),
+                    Boolean.getBoolean("library.session.tokens"));
+
+            long seed = Long.getLong("load.seed", System.nanoTime());
+            Fixture fixture = new Fixture(
+                    Paths.get(System.getProperty("load.users.file", "../LibraryServer/src/users.csv")),
+                    Paths.get(System.getProperty("load.books.file", "../LibraryServer/src/books.csv")),
+                    new Random(seed));
+            LoadGenerator generator = new LoadGenerator(connections.getSessionModule(),
+                    connections.getLibraryModule(), fixture, Integer.getInteger("load.users", 10),
+                    Double.parseDouble(System.getProperty("load.rate", "100")),
+                    OperationMix.parse(System.getProperty("load.mix", OperationMix.DEFAULT)));
+            LoadReport report = generator.run(Long.getLong("load.warmup", 10),
+                    Long.getLong("load.duration", 60), TimeUnit.SECONDS, seed);
+            connections.close();
+
+            report.print(System.out);
+            String out = System.getProperty("load.out");
+            if (out != null) {
+                report.writeCsv(Paths.get(out + ".csv"));
+                report.writeJson(Paths.get(out + ".json"));
+            }
+        } catch (IOException | IllegalArgumentException | InterruptedException e) {
+            System.err.println(e.getClass().getName() + " : " + e.getLocalizedMessage());
+        }
+    }
+}
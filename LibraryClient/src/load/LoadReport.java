@@ -0,0 +1,221 @@
+package load;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The LoadReport class gathers the outcome of a load test : for every
+ * operation, the latencies of the calls and how many of them the server
+ * rejected or failed to answer. Latencies are counted from the moment a call
+ * was scheduled, so the time a call waited for a free user counts as well.
+ *
+ * A report is printed as a table, or exported as CSV or JSON with the
+ * latencies in milliseconds and the throughput in calls per second.
+ */
+public final class LoadReport {
+
+    private static final String TOTAL = "total";
+    private static final String[] COLUMNS = {"operation", "calls", "rejected", "errors",
+        "throughput", "mean_ms", "p50_ms", "p99_ms", "p999_ms", "max_ms"};
+
+    /**
+     * The outcome of a call.
+     */
+    public enum Outcome {
+        /** The call succeeded. */
+        OK,
+        /** The server answered with an exception, such as a missing book. */
+        REJECTED,
+        /** The call failed with a RemoteException. */
+        ERROR
+    }
+
+    private final Map<Operation, Stats> stats;
+    private final double rate;
+    private final int users;
+    private final String mix;
+    private volatile long elapsed;
+
+    /**
+     * @param rate the target number of calls per second.
+     * @param users the number of simulated users.
+     * @param mix the mix of operations.
+     */
+    LoadReport(double rate, int users, OperationMix mix) {
+        super();
+        this.rate = rate;
+        this.users = users;
+        this.mix = mix.toString();
+        this.stats = new EnumMap<>(Operation.class);
+        for (Operation operation : Operation.values())
+            this.stats.put(operation, new Stats());
+    }
+
+    /**
+     * @param operation the operation that was called.
+     * @param micros the latency of the call in microseconds.
+     * @param outcome the outcome of the call.
+     */
+    void record(Operation operation, long micros, Outcome outcome) {
+        Stats stats = this.stats.get(operation);
+        stats.latencies.record(micros);
+        if (outcome == Outcome.REJECTED) stats.rejected.incrementAndGet();
+        else if (outcome == Outcome.ERROR) stats.errors.incrementAndGet();
+    }
+
+    /**
+     * @param elapsed the length of the measured part of the test.
+     * @param unit the unit of the length.
+     */
+    void setElapsed(long elapsed, TimeUnit unit) {
+        this.elapsed = unit.toNanos(elapsed);
+    }
+
+    /**
+     * @return the number of calls measured.
+     */
+    public long getCalls() {
+        long calls = 0;
+        for (Stats stats : this.stats.values())
+            calls += stats.latencies.getCount();
+        return calls;
+    }
+
+    /**
+     * Prints the report as a table.
+     * @param out the stream to print to.
+     */
+    public void print(PrintStream out) {
+        out.printf(Locale.ROOT, "%d users at %.1f calls/s for %.1f s, mix %s%n",
+                this.users, this.rate, this.elapsed / 1e9, this.mix);
+        out.printf(Locale.ROOT, "%-15s %9s %9s %9s %11s %9s %9s %9s %9s %9s%n", (Object[]) COLUMNS);
+        for (String[] row : this.rows())
+            out.printf(Locale.ROOT, "%-15s %9s %9s %9s %11s %9s %9s %9s %9s %9s%n", (Object[]) row);
+    }
+
+    /**
+     * Writes the report as CSV, with a row per operation and a row with the
+     * totals.
+     * @param file the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeCsv(Path file) throws IOException {
+        try (Writer writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            writer.write(join(COLUMNS));
+            writer.write('\n');
+            for (String[] row : this.rows()) {
+                writer.write(join(row));
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Writes the report as JSON : the settings of the test, and an object per
+     * operation and for the totals.
+     * @param file the file to write.
+     * @throws IOException if the file cannot be written.
+     */
+    public void writeJson(Path file) throws IOException {
+        StringBuilder json = new StringBuilder();
+        json.append("{\n  \"users\": ").append(this.users)
+                .append(",\n  \"rate\": ").append(format(this.rate))
+                .append(",\n  \"duration_s\": ").append(format(this.elapsed / 1e9))
+                .append(",\n  \"mix\": \"").append(this.mix).append('"')
+                .append(",\n  \"operations\": [");
+        List<String[]> rows = this.rows();
+        for (int i = 0; i < rows.size(); i++) {
+            String[] row = rows.get(i);
+            json.append(i == 0 ? "\n" : ",\n").append("    {\"").append(COLUMNS[0])
+                    .append("\": \"").append(row[0]).append('"');
+            for (int j = 1; j < row.length; j++)
+                json.append(", \"").append(COLUMNS[j]).append("\": ").append(row[j]);
+            json.append('}');
+        }
+        json.append("\n  ]\n}\n");
+        Files.write(file, json.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @return the rows of the report : one per operation that was called,
+     * and the totals.
+     */
+    private List<String[]> rows() {
+        List<String[]> rows = new ArrayList<>();
+        Stats total = new Stats();
+        for (Map.Entry<Operation, Stats> entry : this.stats.entrySet()) {
+            Stats stats = entry.getValue();
+            if (stats.latencies.getCount() == 0) continue;
+            rows.add(this.row(entry.getKey().getMethodName(), stats));
+            total.latencies.add(stats.latencies);
+            total.rejected.addAndGet(stats.rejected.get());
+            total.errors.addAndGet(stats.errors.get());
+        }
+        rows.add(this.row(TOTAL, total));
+        return rows;
+    }
+
+    /**
+     * @param name the name of the row.
+     * @param stats the outcome of the calls.
+     * @return the row.
+     */
+    private String[] row(String name, Stats stats) {
+        LatencyHistogram latencies = stats.latencies;
+        double seconds = this.elapsed / 1e9;
+        return new String[] {
+            name,
+            Long.toString(latencies.getCount()),
+            Long.toString(stats.rejected.get()),
+            Long.toString(stats.errors.get()),
+            format(seconds > 0 ? latencies.getCount() / seconds : 0),
+            format(latencies.getMean() / 1000),
+            format(latencies.getPercentile(0.5) / 1000.0),
+            format(latencies.getPercentile(0.99) / 1000.0),
+            format(latencies.getPercentile(0.999) / 1000.0),
+            format(latencies.getMax() / 1000.0)
+        };
+    }
+
+    /**
+     * @param value a number.
+     * @return the number with three decimals.
+     */
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+
+    /**
+     * @param fields the fields of a row.
+     * @return the fields separated by commas.
+     */
+    private static String join(String[] fields) {
+        StringBuilder builder = new StringBuilder();
+        for (String field : fields) {
+            if (builder.length() > 0) builder.append(',');
+            builder.append(field);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * The outcome of the calls of an operation.
+     */
+    private static final class Stats {
+
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+    }
+}
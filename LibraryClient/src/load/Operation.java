@@ -0,0 +1,44 @@
+package load;
+
+import java.util.Locale;
+
+/**
+ * The operations a simulated user performs on the server.
+ */
+public enum Operation {
+
+    AUTHENTICATE("authenticate"),
+    GET_BOOKS("getBooks"),
+    LOOKUP_BOOK("lookupBook"),
+    ADD_BOOK("addBook"),
+    REMOVE_BOOK("removeBook"),
+    DESTROY_SESSION("destroySession");
+
+    private final String methodName;
+
+    /**
+     * @param methodName the name of the remote method.
+     */
+    private Operation(String methodName) {
+        this.methodName = methodName;
+    }
+
+    /**
+     * @return the name of the remote method, as used in mixes and reports.
+     */
+    public String getMethodName() {
+        return this.methodName;
+    }
+
+    /**
+     * @param methodName the name of a remote method, in any case.
+     * @return the operation that calls the method.
+     * @throws IllegalArgumentException if no operation calls the method.
+     */
+    public static Operation forMethodName(String methodName) throws IllegalArgumentException {
+        for (Operation operation : values())
+            if (operation.methodName.toLowerCase(Locale.ROOT).equals(methodName.toLowerCase(Locale.ROOT)))
+                return operation;
+        throw new IllegalArgumentException("Unknown operation '" + methodName + "'.");
+    }
+}
@@ -0,0 +1,91 @@
+package load;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * The OperationMix class draws operations at random, each with a weight that
+ * sets its share of the load. A mix is written as a list of weights, such as
+ * "lookupBook=70,getBooks=5,addBook=10".
+ */
+public final class OperationMix {
+
+    /**
+     * The mix used when none is given : mostly lookups, with some listing,
+     * changes to the catalogue and logging in and out.
+     */
+    public static final String DEFAULT = "authenticate=5,getBooks=5,lookupBook=70,"
+            + "addBook=10,removeBook=5,destroySession=5";
+
+    private final Operation[] operations;
+    private final long[] cumulative;
+    private final Map<Operation, Long> weights;
+
+    /**
+     * @param weights the weight of every operation; operations without a
+     * weight are not drawn.
+     * @throws IllegalArgumentException if a weight is negative or all are 0.
+     */
+    public OperationMix(Map<Operation, Long> weights) throws IllegalArgumentException {
+        super();
+        this.weights = new EnumMap<>(weights);
+        this.operations = new Operation[this.weights.size()];
+        this.cumulative = new long[this.weights.size()];
+        long total = 0;
+        int i = 0;
+        for (Map.Entry<Operation, Long> entry : this.weights.entrySet()) {
+            if (entry.getValue() < 0)
+                throw new IllegalArgumentException("The weight of " + entry.getKey().getMethodName()
+                        + " must not be negative.");
+            total += entry.getValue();
+            this.operations[i] = entry.getKey();
+            this.cumulative[i++] = total;
+        }
+        if (total == 0) throw new IllegalArgumentException("The mix must have a positive weight.");
+    }
+
+    /**
+     * @param mix the weights, as "operation=weight" separated by commas.
+     * @return the mix.
+     * @throws IllegalArgumentException if the mix cannot be parsed.
+     */
+    public static OperationMix parse(String mix) throws IllegalArgumentException {
+        Map<Operation, Long> weights = new EnumMap<>(Operation.class);
+        for (String part : mix.split(",")) {
+            part = part.trim();
+            if (part.isEmpty()) continue;
+            int equals = part.indexOf('=');
+            if (equals < 0) throw new IllegalArgumentException("Invalid weight '" + part + "'.");
+            try {
+                weights.put(Operation.forMethodName(part.substring(0, equals).trim()),
+                        Long.parseLong(part.substring(equals + 1).trim()));
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Invalid weight '" + part + "'.", ex);
+            }
+        }
+        return new OperationMix(weights);
+    }
+
+    /**
+     * @param random the source of randomness.
+     * @return an operation, drawn according to the weights.
+     */
+    public Operation next(Random random) {
+        long total = this.cumulative[this.cumulative.length - 1];
+        long draw = (long) (random.nextDouble() * total);
+        for (int i = 0; i < this.cumulative.length; i++)
+            if (draw < this.cumulative[i]) return this.operations[i];
+        return this.operations[this.operations.length - 1];
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (Map.Entry<Operation, Long> entry : this.weights.entrySet()) {
+            if (builder.length() > 0) builder.append(',');
+            builder.append(entry.getKey().getMethodName()).append('=').append(entry.getValue());
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,149 @@
+package load;
+
+import args.Book;
+import args.Rating;
+import args.Session;
+import exceptions.AuthorizationException;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Random;
+import remote.IRemoteLibraryModule;
+import remote.IRemoteSessionModule;
+
+/**
+ * The SimulatedUser class performs operations on the server on behalf of one
+ * user : it keeps the session of the user and the books it added, so that it
+ * can remove them again. An operation that the user cannot perform in its
+ * current state is replaced by one it can :
+ * <ul>
+ *      <li>adding or removing a book without a session authenticates;</li>
+ *      <li>removing a book when the user has added none adds one.</li>
+ * </ul>
+ * Operations of one user may run at the same time.
+ */
+final class SimulatedUser {
+
+    private final String username;
+    private final IRemoteSessionModule sessionModule;
+    private final IRemoteLibraryModule libraryModule;
+    private final Fixture fixture;
+    private final Deque<String> added;
+    private Session session;
+
+    /**
+     * @param username the name of the user, which is also its password.
+     * @param sessionModule the session module of the server.
+     * @param libraryModule the library module of the server.
+     * @param fixture the seed data of the server.
+     */
+    SimulatedUser(String username, IRemoteSessionModule sessionModule,
+            IRemoteLibraryModule libraryModule, Fixture fixture) {
+        super();
+        this.username = username;
+        this.sessionModule = sessionModule;
+        this.libraryModule = libraryModule;
+        this.fixture = fixture;
+        this.added = new ArrayDeque<>();
+    }
+
+    /**
+     * @param operation the operation that was drawn.
+     * @return the operation that the user can perform in its current state.
+     */
+    synchronized Operation resolve(Operation operation) {
+        switch (operation) {
+            case ADD_BOOK:
+                return this.session == null ? Operation.AUTHENTICATE : operation;
+            case REMOVE_BOOK:
+                if (this.session == null) return Operation.AUTHENTICATE;
+                return this.added.isEmpty() ? Operation.ADD_BOOK : operation;
+            default:
+                return operation;
+        }
+    }
+
+    /**
+     * Performs an operation. A session that the server no longer accepts is
+     * forgotten, so that the user authenticates again.
+     * @param operation an operation returned by {@link #resolve(Operation)}.
+     * @param random the source of randomness.
+     * @throws RemoteException if the call failed.
+     * @throws RuntimeException if the server rejected the call.
+     */
+    void perform(Operation operation, Random random) throws RemoteException {
+        Session current;
+        synchronized (this) {
+            current = this.session;
+        }
+        try {
+            switch (operation) {
+                case AUTHENTICATE:
+                    Session session = this.sessionModule.authenticate(this.username, this.username);
+                    synchronized (this) {
+                        this.session = session;
+                    }
+                    break;
+                case GET_BOOKS:
+                    this.libraryModule.getBooks();
+                    break;
+                case LOOKUP_BOOK:
+                    int index = random.nextInt(this.fixture.getBookCount());
+                    this.libraryModule.lookupBook(this.fixture.getIsbn(index), this.fixture.getOwner(index));
+                    break;
+                case ADD_BOOK:
+                    String isbn = this.fixture.nextIsbn();
+                    this.libraryModule.addBook(new Book("Load test " + isbn, this.username, 2000,
+                            Rating.AVERAGE, isbn, this.username), current);
+                    synchronized (this) {
+                        this.added.add(isbn);
+                    }
+                    break;
+                case REMOVE_BOOK:
+                    String removed;
+                    synchronized (this) {
+                        removed = this.added.poll();
+                    }
+                    try {
+                        this.libraryModule.removeBook(removed, current);
+                    } catch (RemoteException | RuntimeException ex) {
+                        // keep the book, to remove it when cleaning up :
+                        synchronized (this) {
+                            this.added.add(removed);
+                        }
+                        throw ex;
+                    }
+                    break;
+                case DESTROY_SESSION:
+                    synchronized (this) {
+                        this.session = null;
+                    }
+                    this.sessionModule.destroySession(this.username);
+                    break;
+            }
+        } catch (AuthorizationException ex) {
+            synchronized (this) {
+                if (this.session == current) this.session = null;
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Removes the books the user added and ends its session.
+     * @throws RemoteException if a call failed.
+     */
+    void cleanUp() throws RemoteException {
+        Session current = this.sessionModule.authenticate(this.username, this.username);
+        List<String> isbns;
+        synchronized (this) {
+            isbns = new ArrayList<>(this.added);
+            this.added.clear();
+            this.session = null;
+        }
+        if (! isbns.isEmpty()) this.libraryModule.removeBooks(isbns, current);
+        this.sessionModule.destroySession(this.username);
+    }
+}
@@ -1,6 +1,7 @@
 package ui;
 
 import args.Book;
+import args.Page;
 import args.Rating;
 import args.Session;
 import exceptions.AuthenticationException;
@@ -8,7 +9,6 @@ import exceptions.AuthorizationException;
 import exceptions.DuplicateException;
 import java.rmi.RemoteException;
 import java.util.InputMismatchException;
-import java.util.List;
 import java.util.Scanner;
 import remote.IRemoteLibraryModule;
 import remote.IRemoteSessionModule;
@@ -27,6 +27,7 @@ public class ApplicationView {
     private Session session;
     private final Scanner scanner;
     private static final String TRY_AGAIN_MSG = "Wrong input, please try again.";
+    private static final int PAGE_SIZE = 20;
 
     /**
      * Instantiates a new text-based user interface.
@@ -148,16 +149,24 @@ public class ApplicationView {
     }
 
     /**
-     * Prints an overview of all the books in the library.
+     * Prints an overview of the books in the library, one page at a time.
+     * The next page is only fetched when the user asks for it.
      */
     private void showBooksOverview() {
         try {
             System.out.println("---------------------------------------");
             System.out.println("- Library books                       -");
             System.out.println("---------------------------------------");
-            List<Book> books = getLibraryModule().getBooks();
-            for (int i = 0; i < books.size(); i++) {
-                System.out.println("\t" + (i + 1) + ". " + books.get(i));
+            int i = 0;
+            Page<Book> page = getLibraryModule().getBooks(null, PAGE_SIZE);
+            for (Book book : page.getItems()) {
+                System.out.println("\t" + (++i) + ". " + book);
+            }
+            while (page.hasNext() && showNextPageMenu()) {
+                page = getLibraryModule().getBooks(page.getNextCursor(), PAGE_SIZE);
+                for (Book book : page.getItems()) {
+                    System.out.println("\t" + (++i) + ". " + book);
+                }
             }
         } catch (RemoteException re) {
             printException(re);
@@ -166,6 +175,20 @@ public class ApplicationView {
         }
     }
 
+    /**
+     * Asks whether to show the next page of the overview.
+     * @return true if the user wants to see the next page.
+     */
+    private boolean showNextPageMenu() {
+        System.out.println("---------------------------------------");
+        System.out.println("- Please select an option :           -");
+        System.out.println("- 1. Next page.                       -");
+        System.out.println("- 2. Back to the main menu.           -");
+        System.out.println("---------------------------------------");
+
+        return readInt(1, 2) == 1;
+    }
+
     /**
      * Prints a wizard and asks for user input to add a book to the library.
      */
@@ -196,10 +219,16 @@ public class ApplicationView {
         }
         
         try {
+            // a session token is only valid for a short time :
+            this.session = getSessionModule().refreshSession(getSession());
             Book book = new Book(title, author, year, rating, isbn, getSession().getUsername());
             this.getLibraryModule().addBook(book, getSession());
             System.out.println("INFO : The item was successfully added to the library.");
             showBooksOverview();
+        } catch (AuthenticationException ae) {
+            printException(ae);
+            System.err.println("INFO : Your session has expired, please log in again.");
+            showStartMenu();
         } catch (IllegalArgumentException | RemoteException | NullPointerException | DuplicateException | AuthorizationException ex) {
             printException(ex);
             System.err.println("INFO : The item was not added to the library.");
@@ -1,19 +1,33 @@
 package args;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
 import java.io.Serializable;
 import java.util.Objects;
 
 /**
- * The Book class is an item with ISBN number.
+ * The Book class is an item with ISBN number. Books are equal when they have
+ * the same owner, ignoring case, and ISBNs of the same book : an ISBN-10 and
+ * its ISBN-13 are the same book.
+ *
+ * A book is serialized through a compact proxy, which writes the ISBN packed
+ * and the year as a varint; the ISBN is read back in its normalized form.
  * @author Joris Schelfaut
  */
 public class Book implements Serializable {
 
+    private static final long serialVersionUID = 1L;
+
     private String title;
     private String author;
     private int year;
     private Rating rating;
     private String isbn;
+    private long packedISBN;
     private String owner;
     
     /**
@@ -43,30 +57,28 @@ public class Book implements Serializable {
      */
     private void setISBN(String isbn) throws IllegalArgumentException {
         if (! correctISBNFormat(isbn))
-            throw new IllegalArgumentException("The ISBN did not have the correct format.");
+            throw new IllegalArgumentException("The ISBN did not have the correct format or check digit.");
         this.isbn = isbn;
+        this.packedISBN = ISBN.pack(isbn);
     }
     
     /**
-     * The ISBN is of one the following formats :
+     * The ISBN is of one the following formats, with a correct check digit :
      * <ul>
      *      <li>0123456789</li>
-     *      <li>123-0123456789</li>
+     *      <li>9780123456786</li>
+     *      <li>978-0123456786</li>
      * </ul>
+     * Enforcing the check digit changed the behaviour of this method : it used
+     * to accept any ten digits and any three digits, a dash and ten digits,
+     * so ISBNs with a wrong check digit that were accepted before, such as
+     * in existing CSV files, are now rejected.
      * @param isbn the ISBN to be checked.
      * @return whether or not the ISBN value has the correct format.
+     * @see ISBN
      */
     public static boolean correctISBNFormat(String isbn) {
-        String regex = "\\d+";
-        if (isbn.length() == 10) return isbn.matches(regex);
-        
-        if (isbn.length() == 14) {
-            String i[] = isbn.split("\\-");
-            if (i[0].length() != 3) return false;
-            return i[0].matches(regex) && correctISBNFormat(i[1]);
-        }
-        
-        return false;
+        return ISBN.isValid(isbn);
     }
     
     /**
@@ -166,7 +178,7 @@ public class Book implements Serializable {
     @Override
     public int hashCode() {
         int hash = 7;
-        hash = 83 * hash + Objects.hashCode(this.getISBN());
+        hash = 83 * hash + (int) (this.packedISBN ^ (this.packedISBN >>> 32));
         hash = 83 * hash + Objects.hashCode(this.getOwner());
         return hash;
     }
@@ -177,10 +189,64 @@ public class Book implements Serializable {
         if (obj == null) return false;
         if (obj instanceof Book) {
             Book i = (Book) obj;
-            if (! this.getISBN().equals(i.getISBN()))
+            if (this.packedISBN != i.packedISBN)
                 return false;
             return this.getOwner().equalsIgnoreCase(i.getOwner());
         }
         return false;
     }
+
+    /**
+     * @return the proxy that is serialized in place of this book.
+     */
+    private Object writeReplace() {
+        return new SerializationProxy(this);
+    }
+
+    /**
+     * @param in the stream to read from.
+     * @throws InvalidObjectException always, as books are only read through
+     * their proxy.
+     */
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("A book is serialized through its proxy.");
+    }
+
+    /**
+     * The serialized form of a book.
+     */
+    private static final class SerializationProxy implements Externalizable {
+
+        private static final long serialVersionUID = 1L;
+
+        private Book book;
+
+        /**
+         * Instantiates an empty proxy; used by serialization.
+         */
+        public SerializationProxy() {
+            super();
+        }
+
+        SerializationProxy(Book book) {
+            this.book = book;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            WireFormat.writeBook(out, this.book, new WireFormat.StringTable());
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            this.book = WireFormat.readBook(in, new WireFormat.StringTable());
+        }
+
+        /**
+         * @return the book read.
+         */
+        private Object readResolve() {
+            return this.book;
+        }
+    }
 }
@@ -0,0 +1,68 @@
+package args;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * A BookList is an unmodifiable list of books with a compact serialized
+ * form : the books are written field by field, without class descriptors,
+ * and every title, author and owner is written in full only once per list.
+ * The remote methods that return books return them in a BookList.
+ */
+public final class BookList extends AbstractList<Book> implements RandomAccess, Externalizable {
+
+    private static final long serialVersionUID = 1L;
+
+    private List<Book> books;
+
+    /**
+     * Instantiates an empty list; used by serialization.
+     */
+    public BookList() {
+        super();
+        this.books = new ArrayList<>();
+    }
+
+    /**
+     * @param books the books in the list, which the list takes over.
+     */
+    public BookList(List<Book> books) {
+        super();
+        this.books = books;
+    }
+
+    @Override
+    public Book get(int index) {
+        return this.books.get(index);
+    }
+
+    @Override
+    public int size() {
+        return this.books.size();
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        WireFormat.StringTable strings = new WireFormat.StringTable();
+        WireFormat.writeVarint(out, this.books.size());
+        for (Book book : this.books) WireFormat.writeBook(out, book, strings);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        long size = WireFormat.readVarint(in);
+        if (size > Integer.MAX_VALUE)
+            throw new InvalidObjectException("Invalid list size " + size + ".");
+        WireFormat.StringTable strings = new WireFormat.StringTable();
+        List<Book> read = new ArrayList<>((int) Math.min(size, 1024));
+        for (long i = 0; i < size; i++) read.add(WireFormat.readBook(in, strings));
+        this.books = read;
+    }
+}
@@ -0,0 +1,101 @@
+package args;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A ChangeSet holds the books added to and removed from a library since a
+ * given version, up to the version it brings a client to. Changes to the
+ * same book are coalesced, so a book is either added or removed, never both.
+ *
+ * When the library no longer remembers the changes since the given version,
+ * the change set requires a resync instead : the client then fetches the
+ * whole catalogue and continues from the version of the change set.
+ */
+public class ChangeSet implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final long version;
+    private final boolean resync;
+    private final List<Book> added;
+    private final List<Book> removed;
+
+    /**
+     * @param version the version of the library the changes lead up to.
+     * @param added the books added since the given version.
+     * @param removed the books removed since the given version.
+     */
+    public ChangeSet(long version, List<Book> added, List<Book> removed) {
+        this(version, false, added, removed);
+    }
+
+    /**
+     * @param version the version of the library the changes lead up to.
+     * @param resync whether or not the client must fetch the whole catalogue.
+     * @param added the books added since the given version.
+     * @param removed the books removed since the given version.
+     */
+    private ChangeSet(long version, boolean resync, List<Book> added, List<Book> removed) {
+        super();
+        this.version = version;
+        this.resync = resync;
+        // a book list is unmodifiable already and keeps its compact form :
+        this.added = added instanceof BookList ? added : Collections.unmodifiableList(added);
+        this.removed = removed instanceof BookList ? removed : Collections.unmodifiableList(removed);
+    }
+
+    /**
+     * @param version the current version of the library.
+     * @return a change set that requires the client to fetch the whole
+     * catalogue, which is at least as recent as the given version.
+     */
+    public static ChangeSet resync(long version) {
+        return new ChangeSet(version, true, Collections.<Book>emptyList(),
+                Collections.<Book>emptyList());
+    }
+
+    /**
+     * @return the version to ask for the next changes since.
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return whether or not the changes are unknown, so that the client must
+     * fetch the whole catalogue.
+     */
+    public boolean isResyncRequired() {
+        return resync;
+    }
+
+    /**
+     * @return the books added since the given version.
+     */
+    public List<Book> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return the books removed since the given version.
+     */
+    public List<Book> getRemoved() {
+        return removed;
+    }
+
+    /**
+     * @return whether or not nothing changed.
+     */
+    public boolean isEmpty() {
+        return ! this.resync && this.added.isEmpty() && this.removed.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+        if (this.resync) return "ChangeSet{version=" + this.version + ", resync}";
+        return "ChangeSet{version=" + this.version + ", " + this.added.size() + " added, "
+                + this.removed.size() + " removed}";
+    }
+}
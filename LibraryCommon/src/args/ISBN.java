@@ -0,0 +1,177 @@
+package args;
+
+/**
+ * The ISBN class validates, converts and packs International Standard Book
+ * Numbers. It accepts the following forms :
+ * <ul>
+ *      <li>0123456789 : an ISBN-10, with X as check digit for ten</li>
+ *      <li>9780123456786 : an ISBN-13</li>
+ *      <li>978-0123456786 : an ISBN-13 with a dash after its prefix</li>
+ * </ul>
+ * The check digit must match. The normalized form of an ISBN is the last
+ * one; an ISBN-10 is normalized to the ISBN-13 of the same book, under the
+ * prefix 978. Validating and packing do not allocate.
+ */
+public final class ISBN {
+
+    private ISBN() {
+        super();
+    }
+
+    /**
+     * @param isbn the ISBN to be checked.
+     * @return whether or not the ISBN has one of the accepted forms and a
+     * correct check digit.
+     */
+    public static boolean isValid(CharSequence isbn) {
+        return pack(isbn) >= 0;
+    }
+
+    /**
+     * Packs an ISBN into a long for indexing and hashing. The ISBN-10 and
+     * ISBN-13 of the same book pack into the same value : the 13 digits of
+     * the ISBN-13 as a number.
+     * @param isbn the ISBN to be packed.
+     * @return the packed ISBN, or -1 if the ISBN is invalid.
+     */
+    public static long pack(CharSequence isbn) {
+        if (isbn == null) return -1;
+        switch (isbn.length()) {
+            case 10:
+                return pack10(isbn);
+            case 13:
+                return pack13(isbn, -1);
+            case 14:
+                return isbn.charAt(3) == '-' ? pack13(isbn, 3) : -1;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * @param packed a packed ISBN.
+     * @return the ISBN in normalized form.
+     */
+    public static String unpack(long packed) {
+        char[] chars = new char[14];
+        for (int i = 13; i >= 0; i--) {
+            if (i == 3) {
+                chars[i] = '-';
+                continue;
+            }
+            chars[i] = (char) ('0' + packed % 10);
+            packed /= 10;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @param isbn an ISBN.
+     * @return the ISBN in normalized form, or NULL if the ISBN is invalid.
+     * An ISBN that is already normalized is returned as is.
+     */
+    public static String normalize(String isbn) {
+        long packed = pack(isbn);
+        if (packed < 0) return null;
+        return isbn.length() == 14 ? isbn : unpack(packed);
+    }
+
+    /**
+     * @param isbn an ISBN.
+     * @return the 13 digits of the ISBN-13 of the book, or NULL if the ISBN
+     * is invalid.
+     */
+    public static String toISBN13(CharSequence isbn) {
+        long packed = pack(isbn);
+        if (packed < 0) return null;
+        // keep the leading zeros of a prefix such as 075 :
+        char[] chars = new char[13];
+        for (int i = 12; i >= 0; i--) {
+            chars[i] = (char) ('0' + packed % 10);
+            packed /= 10;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @param isbn an ISBN.
+     * @return the ISBN-10 of the book, or NULL if the ISBN is invalid or is
+     * an ISBN-13 without an ISBN-10 (a prefix other than 978).
+     */
+    public static String toISBN10(CharSequence isbn) {
+        long packed = pack(isbn);
+        if (packed / 10_000_000_000L != 978) return null;
+        long body = packed / 10 % 1_000_000_000L;
+        char[] chars = new char[10];
+        int sum = 0;
+        for (int i = 8; i >= 0; i--) {
+            int digit = (int) (body % 10);
+            chars[i] = (char) ('0' + digit);
+            sum += (10 - i) * digit;
+            body /= 10;
+        }
+        int check = (11 - sum % 11) % 11;
+        chars[9] = check == 10 ? 'X' : (char) ('0' + check);
+        return new String(chars);
+    }
+
+    /**
+     * @param isbn an ISBN of 10 characters.
+     * @return the packed ISBN-13 of the book, or -1 if the ISBN is invalid.
+     */
+    private static long pack10(CharSequence isbn) {
+        long value = 978;
+        int sum = 0;
+        for (int i = 0; i < 9; i++) {
+            int digit = digit(isbn.charAt(i));
+            if (digit < 0) return -1;
+            sum += (10 - i) * digit;
+            value = 10 * value + digit;
+        }
+        char last = isbn.charAt(9);
+        int check = last == 'X' || last == 'x' ? 10 : digit(last);
+        if (check < 0 || (sum + check) % 11 != 0) return -1;
+        return 10 * value + check13(value);
+    }
+
+    /**
+     * @param isbn an ISBN of 13 digits, possibly with a dash.
+     * @param dash the position of the dash, or -1 if there is none.
+     * @return the packed ISBN, or -1 if the ISBN is invalid.
+     */
+    private static long pack13(CharSequence isbn, int dash) {
+        long value = 0;
+        int sum = 0;
+        int position = 0;
+        for (int i = 0; i < isbn.length(); i++) {
+            if (i == dash) continue;
+            int digit = digit(isbn.charAt(i));
+            if (digit < 0) return -1;
+            sum += (position++ % 2 == 0 ? 1 : 3) * digit;
+            value = 10 * value + digit;
+        }
+        return sum % 10 == 0 ? value : -1;
+    }
+
+    /**
+     * @param first12 the first 12 digits of an ISBN-13 as a number.
+     * @return the check digit of the ISBN-13.
+     */
+    private static int check13(long first12) {
+        int sum = 0;
+        for (int i = 0; i < 12; i++) {
+            // the last of the 12 digits has weight 3 :
+            sum += (i % 2 == 0 ? 3 : 1) * (int) (first12 % 10);
+            first12 /= 10;
+        }
+        return (10 - sum % 10) % 10;
+    }
+
+    /**
+     * @param c a character.
+     * @return the value of the decimal digit, or -1 if it is not a digit.
+     */
+    private static int digit(char c) {
+        return c >= '0' && c <= '9' ? c - '0' : -1;
+    }
+}
@@ -0,0 +1,10 @@
+package args;
+
+/**
+ * The outcome of one item of a batch mutation on the library.
+ */
+public enum MutationResult {
+
+    ADDED, REMOVED, DUPLICATE, NOT_FOUND, UNAUTHORIZED, INVALID;
+
+}
@@ -0,0 +1,63 @@
+package args;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A Page holds one slice of a listing, together with the cursor to continue
+ * the listing with. Cursors are keys rather than offsets, so a cursor stays
+ * valid while items are added to or removed from the listing.
+ *
+ * @param <T> the type of the items on the page.
+ */
+public class Page<T> implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The largest number of items a single page holds.
+     */
+    public static final int MAX_SIZE = 1000;
+
+    private final List<T> items;
+    private final String nextCursor;
+
+    /**
+     * @param items the items on this page.
+     * @param nextCursor the cursor for the next page, or NULL for the last page.
+     */
+    public Page(List<T> items, String nextCursor) {
+        super();
+        // a book list is unmodifiable already and keeps its compact form :
+        this.items = items instanceof BookList ? items : Collections.unmodifiableList(items);
+        this.nextCursor = nextCursor;
+    }
+
+    /**
+     * @return the items on this page.
+     */
+    public List<T> getItems() {
+        return items;
+    }
+
+    /**
+     * @return the cursor to request the next page with, or NULL if this is
+     * the last page.
+     */
+    public String getNextCursor() {
+        return nextCursor;
+    }
+
+    /**
+     * @return whether or not there is a page after this one.
+     */
+    public boolean hasNext() {
+        return this.nextCursor != null;
+    }
+
+    @Override
+    public String toString() {
+        return "Page{" + this.items.size() + " items, next=" + this.nextCursor + "}";
+    }
+}
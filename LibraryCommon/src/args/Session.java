@@ -1,25 +1,54 @@
 package args;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInput;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutput;
 import java.io.Serializable;
 import java.util.Objects;
 
 /**
- * Session holds the current username and session key.
+ * Session holds the current username and session key. A session issued as a
+ * signed token also carries its expiry time and a signature, which allow any
+ * server to validate it without looking it up.
+ *
+ * A session is serialized through a compact proxy, which writes its fields
+ * without class descriptors.
  * @author Joris Schelfaut
  */
 public class Session implements Serializable {
-    
+
+    private static final long serialVersionUID = 1L;
+
     private final String username;
     private final String sessionkey;
+    private final long expiry;
+    private final String signature;
 
     /**
      * @param username the username of the user of this session.
      * @param sessionkey a generated key that allows authentication.
      */
     public Session(String username, String sessionkey) {
+        this(username, sessionkey, 0, null);
+    }
+
+    /**
+     * @param username the username of the user of this session.
+     * @param sessionkey a generated key that allows authentication.
+     * @param expiry the time in milliseconds since the epoch at which the
+     * session expires, or 0 if the session is not a signed token.
+     * @param signature the signature of the server that issued the token, or
+     * NULL if the session is not a signed token.
+     */
+    public Session(String username, String sessionkey, long expiry, String signature) {
         super();
         this.username = username;
         this.sessionkey = sessionkey;
+        this.expiry = expiry;
+        this.signature = signature;
     }
 
     public String getSessionkey() {
@@ -30,6 +59,20 @@ public class Session implements Serializable {
         return username;
     }
 
+    /**
+     * @return the expiry time of a signed token, or 0 for other sessions.
+     */
+    public long getExpiry() {
+        return expiry;
+    }
+
+    /**
+     * @return the signature of a signed token, or NULL for other sessions.
+     */
+    public String getSignature() {
+        return signature;
+    }
+
     @Override
     public boolean equals(Object obj) {
         if (obj == this) return true;
@@ -51,4 +94,66 @@ public class Session implements Serializable {
     public String toString() {
         return "Session{" + this.getUsername() + "[" + this.getSessionkey() + "]}";
     }
+
+    /**
+     * @return the proxy that is serialized in place of this session.
+     */
+    private Object writeReplace() {
+        return new SerializationProxy(this);
+    }
+
+    /**
+     * @param in the stream to read from.
+     * @throws InvalidObjectException always, as sessions are only read
+     * through their proxy.
+     */
+    private void readObject(ObjectInputStream in) throws InvalidObjectException {
+        throw new InvalidObjectException("A session is serialized through its proxy.");
+    }
+
+    /**
+     * The serialized form of a session.
+     */
+    private static final class SerializationProxy implements Externalizable {
+
+        private static final long serialVersionUID = 1L;
+
+        private Session session;
+
+        /**
+         * Instantiates an empty proxy; used by serialization.
+         */
+        public SerializationProxy() {
+            super();
+        }
+
+        SerializationProxy(Session session) {
+            this.session = session;
+        }
+
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeUTF(this.session.username);
+            out.writeUTF(this.session.sessionkey);
+            WireFormat.writeVarint(out, this.session.expiry);
+            out.writeBoolean(this.session.signature != null);
+            if (this.session.signature != null) out.writeUTF(this.session.signature);
+        }
+
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            String username = in.readUTF();
+            String sessionkey = in.readUTF();
+            long expiry = WireFormat.readVarint(in);
+            String signature = in.readBoolean() ? in.readUTF() : null;
+            this.session = new Session(username, sessionkey, expiry, signature);
+        }
+
+        /**
+         * @return the session read.
+         */
+        private Object readResolve() {
+            return this.session;
+        }
+    }
 }
\ No newline at end of file
@@ -0,0 +1,139 @@
+package args;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidObjectException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The WireFormat class holds the compact encoding shared by the custom
+ * serialized forms of the argument types. Numbers are written as varints,
+ * ratings as their ordinal and ISBNs packed. Strings are written once per
+ * stream and referred to by number afterwards.
+ */
+final class WireFormat {
+
+    private static final Rating[] RATINGS = Rating.values();
+
+    private WireFormat() {
+        super();
+    }
+
+    /**
+     * @param out the output to write to.
+     * @param value a non-negative number, written in 7-bit groups.
+     * @throws IOException if the number cannot be written.
+     */
+    static void writeVarint(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    /**
+     * @param in the input to read from.
+     * @return the number read.
+     * @throws IOException if the number cannot be read or is too long.
+     */
+    static long readVarint(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new InvalidObjectException("Malformed number.");
+    }
+
+    /**
+     * Writes a book. The ISBN is written packed, so it is read back in its
+     * normalized form.
+     * @param out the output to write to.
+     * @param book the book to write.
+     * @param strings the strings written so far on the output.
+     * @throws IOException if the book cannot be written.
+     */
+    static void writeBook(DataOutput out, Book book, StringTable strings) throws IOException {
+        strings.write(out, book.getTitle());
+        strings.write(out, book.getAuthor());
+        // zigzag, so that years before the common era stay short :
+        writeVarint(out, (book.getYear() << 1) ^ (book.getYear() >> 31));
+        out.writeByte(book.getRating() == null ? 0 : book.getRating().ordinal() + 1);
+        writeVarint(out, ISBN.pack(book.getISBN()));
+        strings.write(out, book.getOwner());
+    }
+
+    /**
+     * @param in the input to read from.
+     * @param strings the strings read so far from the input.
+     * @return the book read.
+     * @throws IOException if the book cannot be read or is invalid.
+     */
+    static Book readBook(DataInput in, StringTable strings) throws IOException {
+        String title = strings.read(in);
+        String author = strings.read(in);
+        int zigzag = (int) readVarint(in);
+        int year = (zigzag >>> 1) ^ -(zigzag & 1);
+        int rating = in.readUnsignedByte();
+        long isbn = readVarint(in);
+        String owner = strings.read(in);
+        if (rating > RATINGS.length)
+            throw new InvalidObjectException("Unknown rating " + rating + ".");
+        try {
+            return new Book(title, author, year, rating == 0 ? null : RATINGS[rating - 1],
+                    ISBN.unpack(isbn), owner);
+        } catch (IllegalArgumentException ex) {
+            throw new InvalidObjectException(ex.getMessage());
+        }
+    }
+
+    /**
+     * The strings written to or read from one stream. A string is written in
+     * full the first time, as 0 followed by the string, and as its number
+     * after that.
+     */
+    static final class StringTable {
+
+        private final Map<String, Integer> written = new HashMap<>();
+        private final List<String> read = new ArrayList<>();
+
+        /**
+         * @param out the output to write to.
+         * @param s the string to write.
+         * @throws IOException if the string cannot be written.
+         */
+        void write(DataOutput out, String s) throws IOException {
+            Integer number = this.written.get(s);
+            if (number != null) {
+                writeVarint(out, number);
+            } else {
+                this.written.put(s, this.written.size() + 1);
+                out.writeByte(0);
+                out.writeUTF(s);
+            }
+        }
+
+        /**
+         * @param in the input to read from.
+         * @return the string read.
+         * @throws IOException if the string cannot be read.
+         */
+        String read(DataInput in) throws IOException {
+            long number = readVarint(in);
+            if (number == 0) {
+                String s = in.readUTF();
+                this.read.add(s);
+                return s;
+            }
+            if (number > this.read.size())
+                throw new InvalidObjectException("Unknown string reference " + number + ".");
+            return this.read.get((int) number - 1);
+        }
+    }
+}
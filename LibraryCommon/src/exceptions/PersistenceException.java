@@ -0,0 +1,15 @@
+package exceptions;
+
+/**
+ * Thrown when a change to the library could not be made durable.
+ */
+public class PersistenceException extends RuntimeException {
+
+    /**
+     * @param message the description of the failure.
+     * @param cause the underlying failure.
+     */
+    public PersistenceException(String message, Throwable cause) {
+        super(message, cause);
+    }
+}
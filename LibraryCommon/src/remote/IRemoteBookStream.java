@@ -0,0 +1,29 @@
+package remote;
+
+import args.Book;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+import java.util.List;
+
+/**
+ * IRemoteBookStream is a server-side cursor over the books of the library.
+ * The books are sent in chunks of a fixed size, and the server only reads the
+ * next chunk when the client asks for it, so neither side ever holds more
+ * than one chunk. The stream should be closed when it is no longer needed;
+ * streams of clients that went away are released by the server.
+ */
+public interface IRemoteBookStream extends Remote {
+
+    /**
+     * @return the next chunk of books, or an empty list once the stream is
+     * exhausted or closed.
+     * @throws RemoteException
+     */
+    public List<Book> next() throws RemoteException;
+
+    /**
+     * Releases the resources held by this stream on the server.
+     * @throws RemoteException
+     */
+    public void close() throws RemoteException;
+}
@@ -0,0 +1,23 @@
+package remote;
+
+import args.ChangeSet;
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * IRemoteLibraryListener is exported by a client to be told about the
+ * changes to the catalogue of the library. The server gathers the changes
+ * of a short period and pushes them in one change set, and never pushes to
+ * the same listener twice at once, so change sets arrive in order.
+ */
+public interface IRemoteLibraryListener extends Remote {
+
+    /**
+     * Called with the books added and removed since the previous change set,
+     * or with a change set that requires a resync if the listener fell too
+     * far behind.
+     * @param changes the changes since the previous change set.
+     * @throws RemoteException
+     */
+    public void libraryChanged(ChangeSet changes) throws RemoteException;
+}
@@ -5,7 +5,12 @@ import exceptions.DuplicateException;
 import exceptions.BookNotFoundException;
 import java.rmi.RemoteException;
 import java.util.List;
+import java.util.Set;
 import args.Book;
+import args.ChangeSet;
+import args.MutationResult;
+import args.Page;
+import args.Rating;
 import args.Session;
 import java.rmi.Remote;
 
@@ -29,6 +34,21 @@ public interface IRemoteLibraryModule extends Remote {
     public void addBook (Book book, Session session) throws RemoteException,
             NullPointerException, DuplicateException, AuthorizationException;
     
+    /**
+     * Adds a batch of books to the library in a single call. The session is
+     * checked once; the books are then added one by one, and a book that
+     * cannot be added does not stop the others.
+     * @param books the books to be added, all owned by the user of the session.
+     * @param session the session for the user invoking the operation.
+     * @return for every book, in order : ADDED, DUPLICATE if the book is
+     * already in the library, UNAUTHORIZED if the book belongs to another
+     * user, or INVALID if the book resolves as NULL.
+     * @throws RemoteException
+     * @throws AuthorizationException if the session is not valid.
+     */
+    public List<MutationResult> addBooks (List<Book> books, Session session)
+            throws RemoteException, AuthorizationException;
+    
     /**
      * Removes the given book from the library.
      * @param book the book to be removed from the library.
@@ -49,6 +69,18 @@ public interface IRemoteLibraryModule extends Remote {
     public void removeBook (String isbn, Session session)
             throws RemoteException, AuthorizationException;
     
+    /**
+     * Removes a batch of books of the user of the session in a single call.
+     * @param isbns the ISBNs of the books to be removed.
+     * @param session the session for the user invoking the operation.
+     * @return for every ISBN, in order : REMOVED, NOT_FOUND if the user has
+     * no book with that ISBN, or INVALID if the ISBN resolves as NULL.
+     * @throws RemoteException
+     * @throws AuthorizationException if the session is not valid.
+     */
+    public List<MutationResult> removeBooks (List<String> isbns, Session session)
+            throws RemoteException, AuthorizationException;
+    
     /**
      * Find a book with given ISBN in the library.
      * @param isbn the ISBN of the book.
@@ -66,6 +98,83 @@ public interface IRemoteLibraryModule extends Remote {
      */
     public List<Book> getBooks() throws RemoteException;
     
+    /**
+     * Lists the books of the library one page at a time, ordered by ISBN
+     * and owner. The cursor of a page stays valid while books are added to
+     * or removed from the library.
+     * @param cursor the cursor of the previous page, or NULL for the first page.
+     * @param pageSize the maximal number of books on the page, capped at
+     * {@link Page#MAX_SIZE}.
+     * @return the page of books following the given cursor.
+     * @throws RemoteException
+     * @throws IllegalArgumentException if the cursor or page size is invalid.
+     */
+    public Page<Book> getBooks(String cursor, int pageSize)
+            throws RemoteException, IllegalArgumentException;
+    
+    /**
+     * Lists the books added and removed since a version of the library, so
+     * that a client can keep a copy of the catalogue up to date without
+     * listing all books again. A client starts by passing 0, which returns a
+     * change set that requires a resync : it then lists all books, and from
+     * then on asks for the changes since the version of the last change set.
+     * @param version the version of the library the client is up to date with.
+     * @return the changes since the version, coalesced per book, or a change
+     * set that requires a resync if the library no longer remembers them.
+     * @throws RemoteException
+     */
+    public ChangeSet getChangesSince(long version) throws RemoteException;
+    
+    /**
+     * Registers a listener to be pushed the changes to the catalogue since a
+     * version of the library, typically the version of the change set that
+     * required the last resync. Registering a listener again only resets its
+     * version. A listener that cannot be reached is dropped.
+     * @param listener the listener, exported by the client.
+     * @param version the version of the library the client is up to date with.
+     * @throws RemoteException
+     * @throws NullPointerException if the listener resolves as NULL.
+     */
+    public void addLibraryListener(IRemoteLibraryListener listener, long version)
+            throws RemoteException, NullPointerException;
+    
+    /**
+     * @param listener the listener to stop pushing changes to.
+     * @throws RemoteException
+     */
+    public void removeLibraryListener(IRemoteLibraryListener listener)
+            throws RemoteException;
+    
+    /**
+     * Searches the titles and authors of the books in the library. Only books
+     * with every word of the query match, and a word in the title counts for
+     * more than a word in the author.
+     * @param query the words to search for, in any case.
+     * @param limit the maximal number of results, capped at {@link Page#MAX_SIZE}.
+     * @return the best matching books, best match first.
+     * @throws RemoteException
+     * @throws IllegalArgumentException if the query resolves as NULL or the
+     * limit is not positive.
+     */
+    public List<Book> searchBooks(String query, int limit)
+            throws RemoteException, IllegalArgumentException;
+    
+    /**
+     * Finds the books published in a range of years with one of the given
+     * ratings, one page at a time, ordered by year, ISBN and owner.
+     * @param yearFrom the first publishing year, inclusive.
+     * @param yearTo the last publishing year, inclusive.
+     * @param ratings the accepted ratings, or NULL or empty to accept all.
+     * @param cursor the cursor of the previous page, or NULL for the first page.
+     * @param pageSize the maximal number of books on the page, capped at
+     * {@link Page#MAX_SIZE}.
+     * @return the page of matching books following the given cursor.
+     * @throws RemoteException
+     * @throws IllegalArgumentException if the cursor or page size is invalid.
+     */
+    public Page<Book> findBooks(int yearFrom, int yearTo, Set<Rating> ratings,
+            String cursor, int pageSize) throws RemoteException, IllegalArgumentException;
+    
     /**
      * @param isbn the ISBN of the book.
      * @return the owners for a book with given ISBN.
@@ -73,10 +182,48 @@ public interface IRemoteLibraryModule extends Remote {
      */
     public List<String> getOwnersForBook(String isbn) throws RemoteException;
     
+    /**
+     * Lists the owners of a book one page at a time, ordered by name.
+     * @param isbn the ISBN of the book.
+     * @param cursor the cursor of the previous page, or NULL for the first page.
+     * @param pageSize the maximal number of owners on the page, capped at
+     * {@link Page#MAX_SIZE}.
+     * @return the page of owners following the given cursor.
+     * @throws RemoteException
+     * @throws IllegalArgumentException if the page size is invalid.
+     */
+    public Page<String> getOwnersForBook(String isbn, String cursor, int pageSize)
+            throws RemoteException, IllegalArgumentException;
+    
     /**
      * @param owner the owner of the books.
      * @return the books of a given owner.
      * @throws RemoteException
      */
     public List<Book> getBooksForOwner(String owner) throws RemoteException;
+    
+    /**
+     * Opens a stream over all the books of the library, ordered by ISBN and
+     * owner. Use this to export the whole catalogue.
+     * @param chunkSize the number of books per chunk, capped at
+     * {@link Page#MAX_SIZE}.
+     * @return a remote stream over the books of the library.
+     * @throws RemoteException
+     * @throws IllegalArgumentException if the chunk size is not positive.
+     */
+    public IRemoteBookStream openBookStream(int chunkSize)
+            throws RemoteException, IllegalArgumentException;
+    
+    /**
+     * Lists the books of an owner one page at a time, ordered by ISBN.
+     * @param owner the owner of the books.
+     * @param cursor the cursor of the previous page, or NULL for the first page.
+     * @param pageSize the maximal number of books on the page, capped at
+     * {@link Page#MAX_SIZE}.
+     * @return the page of books following the given cursor.
+     * @throws RemoteException
+     * @throws IllegalArgumentException if the page size is invalid.
+     */
+    public Page<Book> getBooksForOwner(String owner, String cursor, int pageSize)
+            throws RemoteException, IllegalArgumentException;
 }
@@ -30,6 +30,19 @@ public interface IRemoteSessionModule extends Remote {
      * @throws RemoteException
      */
     public boolean isAuthenticated(Session session) throws RemoteException;
+
+    /**
+     * Extends a session that is still known to the server that issued it.
+     * A signed token is only valid for a short time, and is replaced by a
+     * new token; other sessions are returned as they are.
+     * @param session the session to extend.
+     * @return the extended session.
+     * @throws AuthenticationException if the session is unknown, has expired
+     * or was logged off.
+     * @throws RemoteException
+     */
+    public Session refreshSession(Session session)
+            throws AuthenticationException, RemoteException;
     
     /**
      * @param username the username of the user to log off.
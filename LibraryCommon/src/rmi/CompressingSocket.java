@@ -0,0 +1,54 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * A socket whose streams exchange compressed frames.
+ *
+ * @see CompressingSocketFactory
+ */
+final class CompressingSocket extends TunedSocket {
+
+    private final int level;
+    private final int threshold;
+    private FramedInputStream in;
+    private FramedOutputStream out;
+
+    /**
+     * Creates an unconnected socket, to be connected or to be accepted by a
+     * server socket.
+     * @param level the DEFLATE level.
+     * @param threshold the size in bytes from which frames are compressed.
+     */
+    CompressingSocket(int level, int threshold) {
+        super();
+        this.level = level;
+        this.threshold = threshold;
+    }
+
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (this.in == null) this.in = new FramedInputStream(super.getInputStream());
+        return this.in;
+    }
+
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        if (this.out == null)
+            this.out = new FramedOutputStream(super.getOutputStream(), this.level, this.threshold);
+        return this.out;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            // release the native memory of the codecs :
+            if (this.in != null) this.in.release();
+            if (this.out != null) this.out.release();
+        }
+    }
+}
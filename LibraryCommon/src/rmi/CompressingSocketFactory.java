@@ -0,0 +1,119 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.util.zip.Deflater;
+
+/**
+ * The CompressingSocketFactory class creates the client and server sockets
+ * of a remote object whose traffic is compressed. Everything written to a
+ * socket between two flushes forms a frame (of at most 64 KiB); frames of
+ * at least the threshold size are compressed with DEFLATE, unless that does
+ * not make them smaller. Both ends of a connection must use this factory,
+ * which RMI ensures by passing the client factory along with the stub.
+ *
+ * Compression costs CPU on both ends to save bandwidth. It pays off for
+ * large listings over slow links and not for small calls or local networks;
+ * see the README for measurements.
+ */
+public final class CompressingSocketFactory
+        implements RMIClientSocketFactory, RMIServerSocketFactory, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The default size in bytes from which frames are compressed.
+     */
+    public static final int DEFAULT_THRESHOLD = 512;
+
+    /**
+     * The compression levels, trading CPU time for compression ratio.
+     */
+    public enum Level {
+        /** The fastest DEFLATE level. */
+        FAST(Deflater.BEST_SPEED),
+        /** The strongest DEFLATE level. */
+        STRONG(Deflater.BEST_COMPRESSION);
+
+        private final int deflaterLevel;
+
+        private Level(int deflaterLevel) {
+            this.deflaterLevel = deflaterLevel;
+        }
+    }
+
+    private final Level level;
+    private final int threshold;
+
+    /**
+     * @param level the compression level.
+     * @param threshold the size in bytes from which frames are compressed.
+     * @throws NullPointerException if the level resolves as NULL.
+     * @throws IllegalArgumentException if the threshold is negative.
+     */
+    public CompressingSocketFactory(Level level, int threshold) throws IllegalArgumentException {
+        super();
+        if (level == null) throw new NullPointerException("The level resolved as NULL.");
+        if (threshold < 0)
+            throw new IllegalArgumentException("The threshold must not be negative.");
+        this.level = level;
+        this.threshold = threshold;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        Socket socket = this.newSocket();
+        socket.connect(new InetSocketAddress(host, port));
+        return socket;
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        return new ServerSocket(port) {
+            @Override
+            public Socket accept() throws IOException {
+                Socket socket = newSocket();
+                this.implAccept(socket);
+                return socket;
+            }
+        };
+    }
+
+    /**
+     * @return a new unconnected socket that compresses its traffic.
+     */
+    TunedSocket newSocket() {
+        return new CompressingSocket(this.level.deflaterLevel, this.threshold);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (! (obj instanceof CompressingSocketFactory)) return false;
+        CompressingSocketFactory f = (CompressingSocketFactory) obj;
+        return f.level == this.level && f.threshold == this.threshold;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.level.hashCode() + this.threshold;
+    }
+
+    @Override
+    public String toString() {
+        return "CompressingSocketFactory{" + this.level + ", threshold=" + this.threshold + "}";
+    }
+}
@@ -0,0 +1,162 @@
+package rmi;
+
+import java.io.BufferedInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StreamCorruptedException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the frames written by a FramedOutputStream and returns their
+ * uncompressed contents.
+ */
+final class FramedInputStream extends FilterInputStream {
+
+    private final Inflater inflater;
+    private final byte[] frame;
+    private final byte[] compressed;
+    private int position;
+    private int limit;
+    private boolean released;
+
+    /**
+     * @param in the stream to read the frames from.
+     */
+    FramedInputStream(InputStream in) {
+        super(new BufferedInputStream(in));
+        this.inflater = new Inflater();
+        this.frame = new byte[FramedOutputStream.MAX_FRAME];
+        this.compressed = new byte[FramedOutputStream.MAX_FRAME];
+    }
+
+    @Override
+    public synchronized int read() throws IOException {
+        if (this.position == this.limit && ! this.readFrame()) return -1;
+        return this.frame[this.position++] & 0xFF;
+    }
+
+    @Override
+    public synchronized int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) return 0;
+        if (this.position == this.limit && ! this.readFrame()) return -1;
+        int n = Math.min(len, this.limit - this.position);
+        System.arraycopy(this.frame, this.position, b, off, n);
+        this.position += n;
+        return n;
+    }
+
+    @Override
+    public synchronized long skip(long n) throws IOException {
+        if (n <= 0 || (this.position == this.limit && ! this.readFrame())) return 0;
+        int skipped = (int) Math.min(n, this.limit - this.position);
+        this.position += skipped;
+        return skipped;
+    }
+
+    @Override
+    public synchronized int available() {
+        return this.limit - this.position;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            this.release();
+        } finally {
+            this.in.close();
+        }
+    }
+
+    /**
+     * Frees the decompressor. Later reads fail.
+     */
+    synchronized void release() {
+        if (this.released) return;
+        this.released = true;
+        this.inflater.end();
+    }
+
+    /**
+     * @return whether or not a frame was read; false at the end of the stream.
+     * @throws IOException if the frame cannot be read or is corrupt.
+     */
+    private boolean readFrame() throws IOException {
+        if (this.released) throw new IOException("The stream is closed.");
+        do {
+            int header = this.in.read();
+            if (header < 0) return false;
+            header = (header << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+            int length = header & ~FramedOutputStream.COMPRESSED;
+            if (length > FramedOutputStream.MAX_FRAME)
+                throw new StreamCorruptedException("Invalid frame length " + length + ".");
+            if ((header & FramedOutputStream.COMPRESSED) == 0) {
+                this.readFully(this.frame, length);
+                this.limit = length;
+            } else {
+                int original = (readByte() << 24) | (readByte() << 16) | (readByte() << 8) | readByte();
+                if (original < 0 || original > FramedOutputStream.MAX_FRAME)
+                    throw new StreamCorruptedException("Invalid frame length " + original + ".");
+                this.readFully(this.compressed, length);
+                this.inflate(length, original);
+                this.limit = original;
+            }
+            this.position = 0;
+        } while (this.limit == 0);
+        return true;
+    }
+
+    /**
+     * @param length the length of the compressed frame.
+     * @param original the length of the frame before compression.
+     * @throws IOException if the frame is corrupt.
+     */
+    private void inflate(int length, int original) throws IOException {
+        this.inflater.reset();
+        this.inflater.setInput(this.compressed, 0, length);
+        try {
+            int n = 0;
+            while (n < original && ! this.inflater.finished()) {
+                int inflated = this.inflater.inflate(this.frame, n, original - n);
+                if (inflated == 0 && (this.inflater.needsInput() || this.inflater.needsDictionary()))
+                    break;
+                n += inflated;
+            }
+            if (n != original)
+                throw new StreamCorruptedException("Truncated compressed frame.");
+        } catch (DataFormatException ex) {
+            throw new StreamCorruptedException(ex.getMessage());
+        }
+    }
+
+    /**
+     * @param b the buffer to fill.
+     * @param length the number of bytes to read.
+     * @throws IOException if the stream ends first.
+     */
+    private void readFully(byte[] b, int length) throws IOException {
+        int n = 0;
+        while (n < length) {
+            int read = this.in.read(b, n, length - n);
+            if (read < 0) throw new EOFException("Truncated frame.");
+            n += read;
+        }
+    }
+
+    /**
+     * @return the next byte of the underlying stream.
+     * @throws IOException if the stream ends.
+     */
+    private int readByte() throws IOException {
+        int b = this.in.read();
+        if (b < 0) throw new EOFException("Truncated frame header.");
+        return b;
+    }
+}
@@ -0,0 +1,122 @@
+package rmi;
+
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * Buffers what is written to it and writes it as a frame on every flush, or
+ * when the buffer is full. A frame starts with its length, whose highest bit
+ * tells whether the frame is compressed; a compressed frame continues with
+ * its uncompressed length.
+ */
+final class FramedOutputStream extends FilterOutputStream {
+
+    static final int MAX_FRAME = 1 << 16;
+    static final int COMPRESSED = 1 << 31;
+
+    private final Deflater deflater;
+    private final int threshold;
+    private final byte[] buffer;
+    private final byte[] compressed;
+    private final byte[] header;
+    private int count;
+    private boolean released;
+
+    /**
+     * @param out the stream to write the frames to.
+     * @param level the DEFLATE level.
+     * @param threshold the size in bytes from which frames are compressed.
+     */
+    FramedOutputStream(OutputStream out, int level, int threshold) {
+        super(out);
+        this.deflater = new Deflater(level);
+        this.threshold = threshold;
+        this.buffer = new byte[MAX_FRAME];
+        this.compressed = new byte[MAX_FRAME];
+        this.header = new byte[8];
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        if (this.count == this.buffer.length) this.writeFrame();
+        this.buffer[this.count++] = (byte) b;
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (this.count == this.buffer.length) this.writeFrame();
+            int n = Math.min(len, this.buffer.length - this.count);
+            System.arraycopy(b, off, this.buffer, this.count, n);
+            this.count += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        if (this.count > 0) this.writeFrame();
+        this.out.flush();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            this.flush();
+        } finally {
+            this.release();
+            this.out.close();
+        }
+    }
+
+    /**
+     * Frees the compressor. Later writes fail.
+     */
+    synchronized void release() {
+        if (this.released) return;
+        this.released = true;
+        this.deflater.end();
+    }
+
+    /**
+     * Writes the buffered bytes as a frame, compressed if that is worth it.
+     * @throws IOException if the frame cannot be written.
+     */
+    private void writeFrame() throws IOException {
+        if (this.released) throw new IOException("The stream is closed.");
+        int length = 0;
+        if (this.count >= this.threshold) {
+            this.deflater.reset();
+            this.deflater.setInput(this.buffer, 0, this.count);
+            this.deflater.finish();
+            while (! this.deflater.finished() && length < this.count)
+                length += this.deflater.deflate(this.compressed, length, this.count - length);
+            if (! this.deflater.finished()) length = 0;
+        }
+        if (length > 0 && length < this.count) {
+            putInt(0, length | COMPRESSED);
+            putInt(4, this.count);
+            this.out.write(this.header, 0, 8);
+            this.out.write(this.compressed, 0, length);
+        } else {
+            putInt(0, this.count);
+            this.out.write(this.header, 0, 4);
+            this.out.write(this.buffer, 0, this.count);
+        }
+        this.count = 0;
+    }
+
+    /**
+     * @param offset the offset in the header.
+     * @param v the number to put, most significant byte first.
+     */
+    private void putInt(int offset, int v) {
+        this.header[offset] = (byte) (v >>> 24);
+        this.header[offset + 1] = (byte) (v >>> 16);
+        this.header[offset + 2] = (byte) (v >>> 8);
+        this.header[offset + 3] = (byte) v;
+    }
+}
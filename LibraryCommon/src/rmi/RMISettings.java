@@ -4,7 +4,9 @@ package rmi;
  */
 public class RMISettings {
 
+    /** The default registry host; see {@link TransportConfig}. */
     public static final String REGISTRY_HOST = "localhost";
+    /** The default registry port; see {@link TransportConfig}. */
     public static final int REGISTRY_PORT = 1099;
     public static final String NAMING_SERVICE_NAME = "LIBRARY_NAMING_SERVICE";
     public static final String SESSION_SERVICE_NAME = "LIBRARY_SESSION_SERVICE";
@@ -0,0 +1,200 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Properties;
+
+/**
+ * The TransportConfig class holds the settings of the RMI transport of a
+ * client or server. The settings are read from a properties file, if any,
+ * and from system properties, which take precedence. The system property
+ * rmi.config names the default properties file. All settings are optional :
+ * <ul>
+ *      <li>rmi.registry.host : the host of the registry (localhost)</li>
+ *      <li>rmi.registry.port : the port of the registry (1099)</li>
+ *      <li>rmi.export.port : the port remote objects are exported on, or 0
+ *      for any free port (0)</li>
+ *      <li>rmi.tcp.nodelay : whether or not to disable Nagle's algorithm (true)</li>
+ *      <li>rmi.tcp.sendbuffer : the socket send buffer in bytes, or 0 for the
+ *      system default (0)</li>
+ *      <li>rmi.tcp.receivebuffer : the socket receive buffer in bytes, or 0
+ *      for the system default (0)</li>
+ *      <li>rmi.connect.timeout : the time in milliseconds to wait for a
+ *      connection, or 0 to wait indefinitely (10000)</li>
+ *      <li>rmi.read.timeout : the time in milliseconds a client waits for a
+ *      reply, or 0 to wait indefinitely (0)</li>
+ *      <li>rmi.connection.reuse : the time in milliseconds an idle client
+ *      connection is kept for reuse (the JDK default of 15 seconds)</li>
+ *      <li>rmi.connection.idle : the time in milliseconds a server keeps an
+ *      idle connection open (the JDK default of 2 hours)</li>
+ * </ul>
+ * The last two settings apply to the RMI runtime as a whole, through the
+ * system properties it reads when it starts. Once applied, the client
+ * options (TCP_NODELAY, buffers and timeouts) of a JVM also replace those
+ * sent along by servers with their stubs.
+ */
+public final class TransportConfig {
+
+    private static final String PREFIX = "rmi.";
+    private static final String CONFIG = PREFIX + "config";
+
+    private final String registryHost;
+    private final int registryPort;
+    private final int exportPort;
+    private final boolean tcpNoDelay;
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final long connectionReuse;
+    private final long connectionIdle;
+
+    /**
+     * @param properties the settings.
+     * @throws IllegalArgumentException if a setting has an invalid value.
+     */
+    private TransportConfig(Properties properties) throws IllegalArgumentException {
+        super();
+        this.registryHost = properties.getProperty(PREFIX + "registry.host", RMISettings.REGISTRY_HOST);
+        this.registryPort = (int) number(properties, "registry.port", RMISettings.REGISTRY_PORT, 0xFFFF);
+        this.exportPort = (int) number(properties, "export.port", 0, 0xFFFF);
+        this.tcpNoDelay = Boolean.parseBoolean(properties.getProperty(PREFIX + "tcp.nodelay", "true"));
+        this.sendBufferSize = (int) number(properties, "tcp.sendbuffer", 0, Integer.MAX_VALUE);
+        this.receiveBufferSize = (int) number(properties, "tcp.receivebuffer", 0, Integer.MAX_VALUE);
+        this.connectTimeout = (int) number(properties, "connect.timeout", 10_000, Integer.MAX_VALUE);
+        this.readTimeout = (int) number(properties, "read.timeout", 0, Integer.MAX_VALUE);
+        this.connectionReuse = number(properties, "connection.reuse", -1, Long.MAX_VALUE);
+        this.connectionIdle = number(properties, "connection.idle", -1, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the settings in the file named by the system property
+     * rmi.config, if any, overridden by system properties.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if a setting has an invalid value.
+     */
+    public static TransportConfig load() throws IOException, IllegalArgumentException {
+        String file = System.getProperty(CONFIG);
+        return load(file == null ? null : Paths.get(file));
+    }
+
+    /**
+     * @param file the properties file with the settings, or NULL.
+     * @return the settings in the file, overridden by system properties.
+     * @throws IOException if the file cannot be read.
+     * @throws IllegalArgumentException if a setting has an invalid value.
+     */
+    public static TransportConfig load(Path file) throws IOException, IllegalArgumentException {
+        Properties properties = new Properties();
+        if (file != null) {
+            try (InputStream in = Files.newInputStream(file)) {
+                properties.load(in);
+            }
+        }
+        for (String name : System.getProperties().stringPropertyNames())
+            if (name.startsWith(PREFIX))
+                properties.setProperty(name, System.getProperty(name));
+        return fromProperties(properties);
+    }
+
+    /**
+     * @param properties the settings.
+     * @return the settings given by the properties.
+     * @throws IllegalArgumentException if a setting has an invalid value.
+     */
+    public static TransportConfig fromProperties(Properties properties)
+            throws IllegalArgumentException {
+        return new TransportConfig(properties);
+    }
+
+    public String getRegistryHost() {
+        return registryHost;
+    }
+
+    public int getRegistryPort() {
+        return registryPort;
+    }
+
+    public int getExportPort() {
+        return exportPort;
+    }
+
+    public int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    public int getReadTimeout() {
+        return readTimeout;
+    }
+
+    /**
+     * @return a socket factory with the socket options of these settings.
+     */
+    public TunedSocketFactory socketFactory() {
+        return this.socketFactory(null);
+    }
+
+    /**
+     * @param compression the factory whose compression to apply, or NULL.
+     * @return a socket factory with the socket options of these settings,
+     * which also compresses the traffic if asked to.
+     */
+    public TunedSocketFactory socketFactory(CompressingSocketFactory compression) {
+        return new TunedSocketFactory(this.tcpNoDelay, this.sendBufferSize,
+                this.receiveBufferSize, this.connectTimeout, this.readTimeout, compression);
+    }
+
+    /**
+     * Makes these settings the client options of this JVM, which then apply
+     * to the connections to every remote object, and passes the connection
+     * reuse settings on to the RMI runtime. This must be done before the
+     * first remote call or export, since the runtime reads them only once.
+     */
+    public void applyToRuntime() {
+        TunedSocketFactory.setClientDefaults(this.socketFactory());
+        if (this.connectionReuse >= 0)
+            System.setProperty("sun.rmi.transport.connectionTimeout",
+                    Long.toString(this.connectionReuse));
+        if (this.connectionIdle >= 0)
+            System.setProperty("sun.rmi.transport.tcp.readTimeout",
+                    Long.toString(this.connectionIdle));
+    }
+
+    @Override
+    public String toString() {
+        return "TransportConfig{registry=" + this.registryHost + ":" + this.registryPort
+                + ", exportPort=" + this.exportPort
+                + ", tcpNoDelay=" + this.tcpNoDelay
+                + ", sendBuffer=" + this.sendBufferSize
+                + ", receiveBuffer=" + this.receiveBufferSize
+                + ", connectTimeout=" + this.connectTimeout
+                + ", readTimeout=" + this.readTimeout
+                + ", connectionReuse=" + this.connectionReuse
+                + ", connectionIdle=" + this.connectionIdle + "}";
+    }
+
+    /**
+     * @param properties the settings.
+     * @param name the name of the setting, without prefix.
+     * @param fallback the value if the setting is absent.
+     * @param max the largest valid value.
+     * @return the value of the setting.
+     * @throws IllegalArgumentException if the value is not a number from 0
+     * to the largest valid value.
+     */
+    private static long number(Properties properties, String name, long fallback, long max)
+            throws IllegalArgumentException {
+        String value = properties.getProperty(PREFIX + name);
+        if (value == null || value.trim().isEmpty()) return fallback;
+        try {
+            long number = Long.parseLong(value.trim());
+            if (number >= 0 && number <= max) return number;
+        } catch (NumberFormatException ex) {
+            // reported below :
+        }
+        throw new IllegalArgumentException("Invalid value for " + PREFIX + name + " : " + value);
+    }
+}
@@ -0,0 +1,55 @@
+package rmi;
+
+import java.net.Socket;
+import java.net.SocketException;
+
+/**
+ * A socket whose TCP_NODELAY and read timeout options are chosen by its
+ * factory. The RMI runtime enables TCP_NODELAY on every connection it makes
+ * or accepts, and sets its own read timeout during the handshake; once its
+ * factory fixed an option, this socket ignores later changes to it.
+ *
+ * @see TunedSocketFactory
+ */
+class TunedSocket extends Socket {
+
+    private boolean noDelayFixed;
+    private boolean timeoutFixed;
+
+    /**
+     * Creates an unconnected socket.
+     */
+    TunedSocket() {
+        super();
+    }
+
+    /**
+     * Sets TCP_NODELAY for good.
+     * @param on whether or not to disable Nagle's algorithm.
+     * @throws SocketException if the option cannot be set.
+     */
+    void fixTcpNoDelay(boolean on) throws SocketException {
+        super.setTcpNoDelay(on);
+        this.noDelayFixed = true;
+    }
+
+    /**
+     * Sets the read timeout for good.
+     * @param timeout the read timeout in milliseconds.
+     * @throws SocketException if the option cannot be set.
+     */
+    void fixSoTimeout(int timeout) throws SocketException {
+        super.setSoTimeout(timeout);
+        this.timeoutFixed = true;
+    }
+
+    @Override
+    public void setTcpNoDelay(boolean on) throws SocketException {
+        if (! this.noDelayFixed) super.setTcpNoDelay(on);
+    }
+
+    @Override
+    public synchronized void setSoTimeout(int timeout) throws SocketException {
+        if (! this.timeoutFixed) super.setSoTimeout(timeout);
+    }
+}
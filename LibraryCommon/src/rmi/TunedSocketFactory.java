@@ -0,0 +1,185 @@
+package rmi;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+
+/**
+ * The TunedSocketFactory class creates the client and server sockets of a
+ * remote object with the socket options of a transport configuration. The
+ * client factory travels with the stub; when it arrives in a JVM that has
+ * client options of its own (see {@link #setClientDefaults}), it takes
+ * those options and keeps only the compression of the server. Otherwise
+ * the options of the server apply to its clients as well.
+ *
+ * Traffic can be compressed in addition; without compression the sockets
+ * speak plain RMI, so a tuned client can reach a registry or server that
+ * uses the default sockets.
+ *
+ * @see TransportConfig
+ */
+public final class TunedSocketFactory
+        implements RMIClientSocketFactory, RMIServerSocketFactory, Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static volatile TunedSocketFactory clientDefaults;
+
+    private final boolean tcpNoDelay;
+    private final int sendBufferSize;
+    private final int receiveBufferSize;
+    private final int connectTimeout;
+    private final int readTimeout;
+    private final CompressingSocketFactory compression;
+
+    /**
+     * @param tcpNoDelay whether or not to disable Nagle's algorithm.
+     * @param sendBufferSize the size of the send buffer, or 0 for the
+     * system default.
+     * @param receiveBufferSize the size of the receive buffer, or 0 for the
+     * system default.
+     * @param connectTimeout the time in milliseconds to wait for a connection,
+     * or 0 to wait indefinitely.
+     * @param readTimeout the time in milliseconds a client waits for data
+     * from the server, or 0 to wait indefinitely.
+     * @param compression the factory whose compression to apply, or NULL.
+     * @throws IllegalArgumentException if a size or timeout is negative.
+     */
+    public TunedSocketFactory(boolean tcpNoDelay, int sendBufferSize, int receiveBufferSize,
+            int connectTimeout, int readTimeout, CompressingSocketFactory compression)
+            throws IllegalArgumentException {
+        super();
+        if (sendBufferSize < 0 || receiveBufferSize < 0)
+            throw new IllegalArgumentException("Buffer sizes must not be negative.");
+        if (connectTimeout < 0 || readTimeout < 0)
+            throw new IllegalArgumentException("Timeouts must not be negative.");
+        this.tcpNoDelay = tcpNoDelay;
+        this.sendBufferSize = sendBufferSize;
+        this.receiveBufferSize = receiveBufferSize;
+        this.connectTimeout = connectTimeout;
+        this.readTimeout = readTimeout;
+        this.compression = compression;
+    }
+
+    /**
+     * @return the factory whose compression is applied, or NULL.
+     */
+    public CompressingSocketFactory getCompression() {
+        return compression;
+    }
+
+    /**
+     * Sets the client options of this JVM, which replace those of the
+     * factories received with stubs from then on.
+     * @param defaults the factory with the client options, or NULL to keep
+     * the options of the received factories.
+     */
+    public static void setClientDefaults(TunedSocketFactory defaults) {
+        clientDefaults = defaults;
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        TunedSocket socket = this.newSocket();
+        try {
+            this.configure(socket);
+            if (this.readTimeout > 0) socket.fixSoTimeout(this.readTimeout);
+            socket.connect(new InetSocketAddress(host, port), this.connectTimeout);
+        } catch (IOException ex) {
+            socket.close();
+            throw ex;
+        }
+        return socket;
+    }
+
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        ServerSocket server = new ServerSocket() {
+            @Override
+            public Socket accept() throws IOException {
+                TunedSocket socket = newSocket();
+                this.implAccept(socket);
+                configure(socket);
+                return socket;
+            }
+        };
+        try {
+            // accepted sockets inherit the receive buffer, which must be
+            // set before binding to take effect on large windows :
+            if (this.receiveBufferSize > 0) server.setReceiveBufferSize(this.receiveBufferSize);
+            server.bind(new InetSocketAddress(port));
+        } catch (IOException ex) {
+            server.close();
+            throw ex;
+        }
+        return server;
+    }
+
+    /**
+     * @return a new unconnected socket.
+     */
+    private TunedSocket newSocket() {
+        return this.compression == null ? new TunedSocket() : this.compression.newSocket();
+    }
+
+    /**
+     * Applies the socket options shared by client and server sockets.
+     * @param socket the socket to configure.
+     * @throws IOException if an option cannot be set.
+     */
+    private void configure(TunedSocket socket) throws IOException {
+        socket.fixTcpNoDelay(this.tcpNoDelay);
+        if (this.sendBufferSize > 0) socket.setSendBufferSize(this.sendBufferSize);
+        if (this.receiveBufferSize > 0) socket.setReceiveBufferSize(this.receiveBufferSize);
+    }
+
+    /**
+     * @return this factory, or a factory with the client options of this JVM
+     * and the compression of this factory.
+     */
+    private Object readResolve() {
+        TunedSocketFactory defaults = clientDefaults;
+        if (defaults == null) return this;
+        return new TunedSocketFactory(defaults.tcpNoDelay, defaults.sendBufferSize,
+                defaults.receiveBufferSize, defaults.connectTimeout, defaults.readTimeout,
+                this.compression);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (! (obj instanceof TunedSocketFactory)) return false;
+        TunedSocketFactory f = (TunedSocketFactory) obj;
+        return f.tcpNoDelay == this.tcpNoDelay
+                && f.sendBufferSize == this.sendBufferSize
+                && f.receiveBufferSize == this.receiveBufferSize
+                && f.connectTimeout == this.connectTimeout
+                && f.readTimeout == this.readTimeout
+                && (f.compression == null ? this.compression == null
+                        : f.compression.equals(this.compression));
+    }
+
+    @Override
+    public int hashCode() {
+        int hash = this.tcpNoDelay ? 1 : 0;
+        hash = 31 * hash + this.sendBufferSize;
+        hash = 31 * hash + this.receiveBufferSize;
+        hash = 31 * hash + this.connectTimeout;
+        hash = 31 * hash + this.readTimeout;
+        return 31 * hash + (this.compression == null ? 0 : this.compression.hashCode());
+    }
+
+    @Override
+    public String toString() {
+        return "TunedSocketFactory{tcpNoDelay=" + this.tcpNoDelay
+                + ", sendBuffer=" + this.sendBufferSize
+                + ", receiveBuffer=" + this.receiveBufferSize
+                + ", connectTimeout=" + this.connectTimeout
+                + ", readTimeout=" + this.readTimeout
+                + ", compression=" + this.compression + "}";
+    }
+}
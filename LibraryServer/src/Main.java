@@ -1,24 +1,29 @@
-import exceptions.DuplicateException;
 import remote.IRemoteLibraryModule;
 import remote.IRemoteSessionModule;
-import args.Book;
-import args.Rating;
-import system.User;
-import java.io.BufferedReader;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import system.CsvLoader;
 import system.Library;
 import java.rmi.RemoteException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
-import java.util.StringTokenizer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.concurrent.TimeUnit;
+import rmi.CompressingSocketFactory;
 import rmi.RMISettings;
+import rmi.TransportConfig;
+import rmi.TunedSocketFactory;
 import system.LibraryModule;
 import system.SessionModule;
+import system.SessionTokens;
+import system.Snapshot;
+import system.SnapshotManager;
+import system.WriteAheadLog;
 
 /**
  * The Main class contains the main method to run the server.
@@ -26,21 +31,65 @@ import system.SessionModule;
  * @author Joris Schelfaut, Gertjan Vanthienen
  */
 public class Main {
+    
+    private static final CsvLoader CSV_LOADER
+            = new CsvLoader(Runtime.getRuntime().availableProcessors());
 
     /**
      * @param args the command line arguments
      */
     public static void main(String[] args) {
         try {
-            // Instantiate a new library object :
-            Library library = new Library();
+            // Read the transport settings before anything touches RMI :
+            TransportConfig transport;
+            try {
+                transport = TransportConfig.load();
+            } catch (IOException | IllegalArgumentException ex) {
+                Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+                return;
+            }
+            transport.applyToRuntime();
+            
+            // Choose where the library keeps its books ('heap' or 'off_heap') :
+            Library.Storage storage = Library.Storage.valueOf(System.getProperty(
+                    "library.storage", "heap").toUpperCase(Locale.ROOT));
+            
+            // Load the library from the newest snapshot, if there is one :
+            String snapshots = System.getProperty("library.snapshot.dir");
+            Snapshot snapshot = null;
+            if (snapshots != null) {
+                try {
+                    snapshot = SnapshotManager.loadNewest(Paths.get(snapshots), storage);
+                } catch (IOException ex) {
+                    Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
+            
+            Library library;
+            if (snapshot != null) {
+                library = snapshot.getLibrary();
+            } else {
+                // Instantiate a new library object :
+                library = new Library(storage);
+                
+                // Load some test data :
+                try {
+                    loadUsersFromCSV(library, "src/users.csv");
+                    loadBooksFromCSV(library, "src/books.csv");
+                } catch (IOException ex) {
+                    Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+                }
+            }
             
-            // Load some test data :
+            // Replay and attach the write-ahead log, and start taking snapshots :
             try {
-                loadUsersFromCSV(library, "src/users.csv");
-                loadBooksFromCSV(library, "src/books.csv");
+                WriteAheadLog log = attachWriteAheadLog(library,
+                        snapshot == null ? 0 : snapshot.getLsn());
+                if (snapshots != null)
+                    startSnapshots(library, log, snapshots);
             } catch (IOException ex) {
                 Logger.getLogger(Main.class.getName()).log(Level.SEVERE, null, ex);
+                return;
             }
             
             // Set the security manager :
@@ -49,15 +98,22 @@ public class Main {
             }
             
             // Create a new registry with given port :
-            Registry registry = LocateRegistry.createRegistry(RMISettings.REGISTRY_PORT);
+            TunedSocketFactory registryFactory = transport.socketFactory();
+            Registry registry = LocateRegistry.createRegistry(transport.getRegistryPort(),
+                    registryFactory, registryFactory);
             
-            // Register the remote objects :
-            IRemoteSessionModule sessionModule = new SessionModule(library);
-            IRemoteSessionModule stubSessionModule = (IRemoteSessionModule) UnicastRemoteObject.exportObject(sessionModule, 0);
+            // Register the remote objects, which share the export port :
+            int port = transport.getExportPort();
+            TunedSocketFactory factory = transport.socketFactory(createCompression());
+            IRemoteSessionModule sessionModule = createSessionModule(library);
+            IRemoteSessionModule stubSessionModule = (IRemoteSessionModule) UnicastRemoteObject.exportObject(sessionModule, port,
+                    factory, factory);
             registry.rebind(RMISettings.SESSION_SERVICE_NAME, stubSessionModule);
 
-            IRemoteLibraryModule libraryModule = new LibraryModule(library, sessionModule);
-            IRemoteLibraryModule stubLibraryModule = (IRemoteLibraryModule) UnicastRemoteObject.exportObject(libraryModule, 0);
+            IRemoteLibraryModule libraryModule = new LibraryModule(library, sessionModule,
+                    port, factory, factory);
+            IRemoteLibraryModule stubLibraryModule = (IRemoteLibraryModule) UnicastRemoteObject.exportObject(libraryModule, port,
+                    factory, factory);
             registry.rebind(RMISettings.LIBRARY_SERVICE_NAME, stubLibraryModule);
             
         } catch (RemoteException ex) {
@@ -65,71 +121,133 @@ public class Main {
         }
     }
     
+    /**
+     * Creates the socket factory that compresses the traffic of the remote
+     * modules, as chosen by the system property 'library.compression' ('none',
+     * 'fast' or 'strong'). The property 'library.compression.threshold' sets
+     * the size in bytes from which messages are compressed.
+     * @return the socket factory, or NULL if compression is off.
+     */
+    private static CompressingSocketFactory createCompression() {
+        String level = System.getProperty("library.compression", "none");
+        if (level.equalsIgnoreCase("none")) return null;
+        return new CompressingSocketFactory(
+                CompressingSocketFactory.Level.valueOf(level.toUpperCase(Locale.ROOT)),
+                Integer.getInteger("library.compression.threshold",
+                        CompressingSocketFactory.DEFAULT_THRESHOLD));
+    }
+    
+    /**
+     * Creates the session module. Setting the system property
+     * 'library.session.tokens' to true switches to signed session tokens;
+     * servers that should accept each other's tokens must share the secret
+     * in 'library.session.secret'. A token is valid for
+     * 'library.session.token.ttl' minutes (5 by default) and must then be
+     * refreshed at the server that issued it; that is also how long other
+     * servers accept the token of a user that logged off.
+     * @param library the library whose users are managed through sessions.
+     * @return the session module.
+     */
+    private static SessionModule createSessionModule(Library library) {
+        if (! Boolean.getBoolean("library.session.tokens"))
+            return new SessionModule(library);
+        byte[] secret;
+        String configured = System.getProperty("library.session.secret");
+        if (configured != null) {
+            secret = configured.getBytes(StandardCharsets.UTF_8);
+        } else {
+            secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+        }
+        return new SessionModule(library, new SessionTokens(secret,
+                Long.getLong("library.session.token.ttl", SessionModule.DEFAULT_TOKEN_TTL), TimeUnit.MINUTES));
+    }
+    
+    /**
+     * Attaches a write-ahead log to the library when the system property
+     * 'library.wal' names a log file. The log is replayed on top of the data
+     * loaded so far. The optional property 'library.wal.window' sets how many
+     * microseconds the log waits to gather concurrent writes into one fsync.
+     * @param library the library to make durable.
+     * @param afterLsn the LSN the library is already up to date with.
+     * @return the attached log, or NULL if none is configured.
+     * @throws IOException if the log cannot be opened or replayed.
+     */
+    private static WriteAheadLog attachWriteAheadLog(Library library, long afterLsn)
+            throws IOException {
+        String file = System.getProperty("library.wal");
+        if (file == null) return null;
+        final WriteAheadLog log = new WriteAheadLog(Paths.get(file),
+                Long.getLong("library.wal.window", 0), TimeUnit.MICROSECONDS);
+        int records = log.replay(library, afterLsn);
+        System.out.println("Replayed " + records + " records from " + file + ".");
+        library.setWriteAheadLog(log);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    log.close();
+                } catch (IOException ex) {
+                    printException(ex);
+                }
+            }
+        }));
+        return log;
+    }
+    
+    /**
+     * Takes a snapshot of the library in the given directory every
+     * 'library.snapshot.interval' minutes (10 by default). Snapshots are
+     * only taken with a write-ahead log, which they truncate.
+     * @param library the library to take snapshots of.
+     * @param log the write-ahead log of the library, or NULL.
+     * @param directory the directory to keep the snapshots in.
+     * @throws IOException if the directory cannot be created.
+     */
+    private static void startSnapshots(Library library, WriteAheadLog log, String directory)
+            throws IOException {
+        if (log == null) {
+            System.err.println("No snapshots are taken without a write-ahead log ('library.wal').");
+            return;
+        }
+        final SnapshotManager snapshots = new SnapshotManager(Paths.get(directory), library, log);
+        snapshots.start(Long.getLong("library.snapshot.interval", 10), TimeUnit.MINUTES);
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                snapshots.close();
+            }
+        }));
+    }
+    
     /**
      * @param library the library to load the users to.
      * @param file the CSV file to load the users from.
-     * @throws FileNotFoundException
      * @throws IOException 
      */
     public static void loadUsersFromCSV(Library library, String file)
-            throws FileNotFoundException, IOException {
-        
-        BufferedReader in = new BufferedReader(new FileReader(file));
-        
-        while (in.ready()) {
-            String line = in.readLine();
-            if (line.startsWith("#")) continue;
-            StringTokenizer csvReader = new StringTokenizer(line, ",");
-            User user = null;
-            try {
-                user = new User(csvReader.nextToken(),
-                        csvReader.nextToken());
-            } catch (IllegalArgumentException iae) {
-                printException(iae);
-            }
-            
-            try {
-                library.addUser(user);
-            } catch (DuplicateException | NullPointerException ex) {
-                printException(ex);
-            }
-        }
+            throws IOException {
+        printRejections(file, CSV_LOADER.loadUsers(library, Paths.get(file)));
     }
     
     /**
      * Loads the library data from a CSV file (Comma-separated values).
      * @param library the library to load the data to.
      * @param file the CSV file to read data from.
-     * @throws FileNotFoundException
      * @throws IOException 
      */
     public static void loadBooksFromCSV(Library library, String file)
-            throws FileNotFoundException, IOException {
-        
-        BufferedReader in = new BufferedReader(new FileReader(file));
-        
-        while (in.ready()) {
-            String line = in.readLine();
-            if (line.startsWith("#")) continue;
-            StringTokenizer csvReader = new StringTokenizer(line, ",");
-            Book book = null;
-            try {
-                book = new Book(csvReader.nextToken(),
-                        csvReader.nextToken(),
-                        Integer.parseInt(csvReader.nextToken()),
-                        Rating.valueOf(csvReader.nextToken()),
-                        csvReader.nextToken(),
-                        csvReader.nextToken());
-            } catch (IllegalArgumentException iae) {
-                printException(iae);
-            }
-            
-            try {
-                library.addBook(book);
-            } catch (DuplicateException | NullPointerException ex) {
-                printException(ex);
-            }
-        }
+            throws IOException {
+        printRejections(file, CSV_LOADER.loadBooks(library, Paths.get(file)));
+    }
+    
+    /**
+     * @param file the CSV file that was loaded.
+     * @param report the outcome of loading the file.
+     */
+    private static void printRejections(String file, CsvLoader.Report report) {
+        for (CsvLoader.Rejection rejection : report.getRejected())
+            System.err.println(file + ", " + rejection);
     }
     
     /**
@@ -0,0 +1,79 @@
+package system;
+
+import args.ISBN;
+import java.util.Locale;
+
+/**
+ * The BookKey class identifies a single copy of a book in the library : the
+ * normalized ISBN of the book together with the case-folded name of its
+ * owner, so the ISBN-10 and ISBN-13 of a book make the same key. Keys are
+ * ordered by ISBN first and owner second.
+ */
+final class BookKey implements Comparable<BookKey> {
+
+    private final String isbn;
+    private final String owner;
+
+    /**
+     * @param isbn the ISBN of the book, in any accepted form.
+     * @param owner the owner of the book, in any case.
+     */
+    BookKey(String isbn, String owner) {
+        this.isbn = normalize(isbn);
+        this.owner = fold(owner);
+    }
+
+    /**
+     * @param isbn an ISBN.
+     * @return the normalized form of the ISBN, used for indexing, or the
+     * ISBN itself if it is invalid (and therefore not in the library).
+     */
+    static String normalize(String isbn) {
+        String normalized = ISBN.normalize(isbn);
+        return normalized == null ? isbn : normalized;
+    }
+
+    /**
+     * @param name a user or owner name.
+     * @return the case-folded form of the given name, used for indexing.
+     */
+    static String fold(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+
+    String getISBN() {
+        return isbn;
+    }
+
+    String getOwner() {
+        return owner;
+    }
+
+    @Override
+    public int compareTo(BookKey k) {
+        int c = this.isbn.compareTo(k.isbn);
+        if (c != 0) return c;
+        return this.owner.compareTo(k.owner);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (! (obj instanceof BookKey)) return false;
+        BookKey k = (BookKey) obj;
+        return k.isbn.equals(this.isbn) && k.owner.equals(this.owner);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.isbn.hashCode() + this.owner.hashCode();
+    }
+
+    /**
+     * @return the key in the form 'ISBN/owner', as used by listing cursors.
+     */
+    @Override
+    public String toString() {
+        return this.isbn + "/" + this.owner;
+    }
+}
@@ -0,0 +1,39 @@
+package system;
+
+import args.Book;
+
+/**
+ * A BookStore holds the books of a library, keyed by ISBN and case-folded
+ * owner. The library keeps its secondary indexes itself and only asks the
+ * store for a book when it hands the book out.
+ *
+ * The library serializes mutations of books with the same ISBN; a store
+ * must allow lookups concurrent with mutations.
+ */
+interface BookStore {
+
+    /**
+     * @param key the key of the book.
+     * @return the book with the given key, or NULL if there is none.
+     */
+    Book get(BookKey key);
+
+    /**
+     * @param key the key of the book.
+     * @param book the book to be added.
+     * @return the key as stored, which may share its strings with other keys,
+     * or NULL if the key was taken.
+     */
+    BookKey add(BookKey key, Book book);
+
+    /**
+     * @param key the key of the book.
+     * @return the removed book, or NULL if there was no such book.
+     */
+    Book remove(BookKey key);
+
+    /**
+     * @return the number of books in the store.
+     */
+    int size();
+}
@@ -0,0 +1,70 @@
+package system;
+
+import args.Book;
+import args.BookList;
+import args.Page;
+import java.rmi.NoSuchObjectException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.rmi.server.Unreferenced;
+import java.util.Collections;
+import java.util.List;
+import remote.IRemoteBookStream;
+
+/**
+ * Implementation for the IRemoteBookStream. The stream walks the catalogue of
+ * the library with a keyset cursor, so it only holds the position of the last
+ * book it sent. The stream unexports itself when it is closed or when the
+ * client holding it is no longer referenced.
+ */
+public class BookStream implements IRemoteBookStream, Unreferenced {
+
+    private final Library library;
+    private final int chunkSize;
+    private String cursor;
+    private boolean exhausted;
+    private boolean closed;
+
+    /**
+     * @param library the library to stream the books of.
+     * @param chunkSize the number of books sent per chunk.
+     */
+    BookStream(Library library, int chunkSize) {
+        super();
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("The chunk size must be greater than zero.");
+        this.library = library;
+        this.chunkSize = Math.min(chunkSize, Page.MAX_SIZE);
+    }
+
+    @Override
+    public synchronized List<Book> next() throws RemoteException {
+        if (this.exhausted) return Collections.emptyList();
+        Page<Book> page = this.library.getBooks(this.cursor, this.chunkSize);
+        this.cursor = page.getNextCursor();
+        this.exhausted = ! page.hasNext();
+        return new BookList(page.getItems());
+    }
+
+    @Override
+    public synchronized void close() throws RemoteException {
+        if (this.closed) return;
+        this.closed = true;
+        this.exhausted = true;
+        this.cursor = null;
+        try {
+            UnicastRemoteObject.unexportObject(this, true);
+        } catch (NoSuchObjectException ex) {
+            // the stream was never exported or is already gone
+        }
+    }
+
+    @Override
+    public void unreferenced() {
+        try {
+            this.close();
+        } catch (RemoteException ex) {
+            // closing locally does not involve a remote call
+        }
+    }
+}
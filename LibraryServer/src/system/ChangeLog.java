@@ -0,0 +1,175 @@
+package system;
+
+import args.Book;
+import args.ChangeSet;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The ChangeLog class remembers the most recent book mutations of a library
+ * in a ring of fixed size, each under the version of the library it led to.
+ * Versions increase by one with every mutation. They start from the time the
+ * log was created, in microseconds, so that a version handed out by an
+ * earlier run of the server is older than anything the log remembers.
+ *
+ * Recording a change takes no lock : it draws the next version from a
+ * counter and writes the change to its slot of the ring. A version is only
+ * published once the changes of all versions before it are written, so that
+ * a client that saw a version never misses a change before it. Threads that
+ * wait for a change are only signalled when there are any.
+ */
+final class ChangeLog {
+
+    private final AtomicReferenceArray<Change> ring;
+    private final long first;
+    private final AtomicLong drawn;
+    private final AtomicLong published;
+    private final AtomicInteger waiters;
+    private final ReentrantLock waitLock;
+    private final Condition changed;
+
+    /**
+     * @param capacity the number of changes remembered.
+     */
+    ChangeLog(int capacity) {
+        if (capacity <= 0) throw new IllegalArgumentException("The capacity must be positive.");
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.first = System.currentTimeMillis() * 1000;
+        this.drawn = new AtomicLong(this.first);
+        this.published = new AtomicLong(this.first);
+        this.waiters = new AtomicInteger();
+        this.waitLock = new ReentrantLock();
+        this.changed = this.waitLock.newCondition();
+    }
+
+    /**
+     * Records a mutation. The caller must hold the lock of the owner of the
+     * book, so that the changes of a book are recorded in the order in which
+     * they were made.
+     * @param book the book added or removed.
+     * @param added whether the book was added or removed.
+     */
+    void append(Book book, boolean added) {
+        long version = this.drawn.incrementAndGet();
+        this.ring.set(this.slot(version), new Change(version, book, added));
+        this.publish();
+        if (this.waiters.get() > 0) {
+            this.waitLock.lock();
+            try {
+                this.changed.signalAll();
+            } finally {
+                this.waitLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Waits until the version passes a given one.
+     * @param version the version to pass.
+     * @param timeout the time to wait at most, in milliseconds.
+     * @return the current version.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    long awaitChange(long version, long timeout) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+        if (this.published.get() > version || remaining <= 0) return this.published.get();
+        // counted before the version is checked again, so that a writer that
+        // publishes after the check sees the waiter :
+        this.waiters.incrementAndGet();
+        this.waitLock.lock();
+        try {
+            while (this.published.get() <= version && remaining > 0)
+                remaining = this.changed.awaitNanos(remaining);
+            return this.published.get();
+        } finally {
+            this.waitLock.unlock();
+            this.waiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * @return the current version.
+     */
+    long getVersion() {
+        return this.publish();
+    }
+
+    /**
+     * @param since the version the client is up to date with.
+     * @return the changes after the given version, coalesced per book, or a
+     * resync if some of them are no longer remembered or the version is
+     * unknown.
+     */
+    ChangeSet since(long since) {
+        long current = this.publish();
+        long oldest = Math.max(this.first, current - this.ring.length());
+        if (since < oldest || since > current) return ChangeSet.resync(current);
+        Change[] changes = new Change[(int) (current - since)];
+        for (int i = 0; i < changes.length; i++) {
+            changes[i] = this.ring.get(this.slot(since + 1 + i));
+            // overwritten by a newer change while it was read :
+            if (changes[i].version != since + 1 + i) return ChangeSet.resync(this.publish());
+        }
+
+        // only the last change of every book counts :
+        Map<BookKey, Change> last = new LinkedHashMap<>();
+        for (Change change : changes) {
+            BookKey key = new BookKey(change.book.getISBN(), change.book.getOwner());
+            last.remove(key);
+            last.put(key, change);
+        }
+        List<Book> added = new ArrayList<>();
+        List<Book> removed = new ArrayList<>();
+        for (Change change : last.values())
+            (change.added ? added : removed).add(change.book);
+        return new ChangeSet(current, added, removed);
+    }
+
+    /**
+     * Moves the published version past every change that is written and
+     * follows it without a gap. Any thread may do so; writers do it for
+     * the changes of writers that finished after them.
+     * @return the published version.
+     */
+    private long publish() {
+        long version = this.published.get();
+        while (true) {
+            Change next = this.ring.get(this.slot(version + 1));
+            if (next == null || next.version != version + 1) return version;
+            if (this.published.compareAndSet(version, version + 1)) version++;
+            else version = this.published.get();
+        }
+    }
+
+    /**
+     * @param version a version.
+     * @return the slot of the ring that holds the change of the version.
+     */
+    private int slot(long version) {
+        return (int) (version % this.ring.length());
+    }
+
+    /**
+     * A book that was added or removed.
+     */
+    private static final class Change {
+
+        private final long version;
+        private final Book book;
+        private final boolean added;
+
+        Change(long version, Book book, boolean added) {
+            this.version = version;
+            this.book = book;
+            this.added = added;
+        }
+    }
+}
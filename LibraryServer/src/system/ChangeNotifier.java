@@ -0,0 +1,178 @@
+package system;
+
+import args.ChangeSet;
+import java.rmi.RemoteException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import remote.IRemoteLibraryListener;
+
+/**
+ * The ChangeNotifier class pushes the changes to the catalogue of a library
+ * to the listeners of clients. A single thread waits for the library to
+ * change, lets the changes of a short window gather and then hands every
+ * listener the changes since the version it has seen, coalesced per book.
+ * The pushes run on a pool, so a slow client only delays itself. A listener
+ * is pushed to by one thread at a time; one that is still busy is skipped
+ * and gets the changes it missed with the next push. A push only moves the
+ * version of a listener on from the version it started from, so that it
+ * does not overwrite the version that the listener registered with again
+ * in the meantime.
+ *
+ * The thread also wakes up every second, so that a listener skipped in the
+ * last round does not wait for the next change.
+ */
+final class ChangeNotifier implements AutoCloseable {
+
+    private static final long WINDOW = 50;
+    private static final long TICK = 1000;
+    private static final Logger LOGGER = Logger.getLogger(ChangeNotifier.class.getName());
+
+    private final Library library;
+    private final ConcurrentMap<IRemoteLibraryListener, Subscription> subscriptions;
+    private ExecutorService pushers;
+    private Thread watcher;
+    private volatile boolean closed;
+
+    /**
+     * @param library the library whose changes are pushed.
+     */
+    ChangeNotifier(Library library) {
+        super();
+        this.library = library;
+        this.subscriptions = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Registers a listener, or resets the version of a registered one. The
+     * threads of the notifier are started with the first listener.
+     * @param listener the listener.
+     * @param version the version of the library the listener has seen.
+     */
+    void subscribe(IRemoteLibraryListener listener, long version) {
+        Subscription subscription = this.subscriptions.putIfAbsent(listener, new Subscription(version));
+        if (subscription != null) subscription.version.set(version);
+        this.start();
+    }
+
+    /**
+     * @param listener the listener to stop pushing to.
+     */
+    void unsubscribe(IRemoteLibraryListener listener) {
+        this.subscriptions.remove(listener);
+    }
+
+    /**
+     * @return the number of registered listeners.
+     */
+    int size() {
+        return this.subscriptions.size();
+    }
+
+    /**
+     * Stops pushing changes. Pushes in progress are finished.
+     */
+    @Override
+    public synchronized void close() {
+        this.closed = true;
+        if (this.watcher != null) this.watcher.interrupt();
+        if (this.pushers != null) this.pushers.shutdown();
+    }
+
+    /**
+     * Starts the threads of the notifier, unless they run already.
+     */
+    private synchronized void start() {
+        if (this.watcher != null || this.closed) return;
+        this.pushers = Executors.newCachedThreadPool(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "change-pusher");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.watcher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                watch();
+            }
+        }, "change-notifier");
+        this.watcher.setDaemon(true);
+        this.watcher.start();
+    }
+
+    /**
+     * Pushes the changes to all listeners whenever the library changed,
+     * until the notifier is closed.
+     */
+    private void watch() {
+        long seen = this.library.getVersion();
+        try {
+            while (! this.closed) {
+                if (this.library.awaitChange(seen, TICK, TimeUnit.MILLISECONDS) > seen)
+                    Thread.sleep(WINDOW);
+                seen = this.library.getVersion();
+                for (Map.Entry<IRemoteLibraryListener, Subscription> entry : this.subscriptions.entrySet())
+                    this.push(entry.getKey(), entry.getValue());
+            }
+        } catch (InterruptedException ex) {
+            // closed
+        }
+    }
+
+    /**
+     * Pushes the changes a listener has not seen yet, unless a push to that
+     * listener is still in progress.
+     * @param listener the listener.
+     * @param subscription the subscription of the listener.
+     */
+    private void push(final IRemoteLibraryListener listener, final Subscription subscription) {
+        if (! subscription.busy.compareAndSet(false, true)) return;
+        try {
+            this.pushers.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        long seen = subscription.version.get();
+                        ChangeSet changes = library.getChangesSince(seen);
+                        if (! changes.isEmpty())
+                            listener.libraryChanged(LibraryModule.compact(changes));
+                        subscription.version.compareAndSet(seen, changes.getVersion());
+                    } catch (RemoteException | RuntimeException ex) {
+                        // the client went away or its listener failed :
+                        subscriptions.remove(listener, subscription);
+                        LOGGER.log(Level.FINE, "Dropped a library listener", ex);
+                    } finally {
+                        subscription.busy.set(false);
+                    }
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            subscription.busy.set(false);
+        }
+    }
+
+    /**
+     * The version a listener has seen, and whether a push to it is in
+     * progress.
+     */
+    private static final class Subscription {
+
+        private final AtomicBoolean busy = new AtomicBoolean();
+        private final AtomicLong version;
+
+        Subscription(long version) {
+            this.version = new AtomicLong(version);
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package system;
+
+/**
+ * A Credential is a stored password hash, decoded once so that verifying a
+ * password does not have to parse it again. Credentials are stored as
+ * '{SCHEME}salt$hash' with a hexadecimal salt and hash, or as
+ * '{SCHEME}cost$salt$hash' for a scheme with a cost parameter, except for
+ * the original format : a bare hexadecimal MD5 hash.
+ */
+final class Credential {
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final String scheme;
+    private final int cost;
+    private final byte[] salt;
+    private final byte[] hash;
+    private final String encoded;
+
+    /**
+     * @param scheme the name of the scheme, or NULL if the credential could
+     * not be decoded.
+     * @param cost the cost of the credential, or 0.
+     * @param salt the salt of the credential.
+     * @param hash the hash of the salted password.
+     * @param encoded the stored form of the credential.
+     */
+    private Credential(String scheme, int cost, byte[] salt, byte[] hash, String encoded) {
+        this.scheme = scheme;
+        this.cost = cost;
+        this.salt = salt;
+        this.hash = hash;
+        this.encoded = encoded;
+    }
+
+    /**
+     * @param scheme the scheme of the credential.
+     * @param salt the salt of the credential.
+     * @param hash the hash of the salted password with the cost of the
+     * scheme.
+     * @return the credential for the given values.
+     */
+    static Credential of(PasswordScheme scheme, byte[] salt, byte[] hash) {
+        int cost = scheme.getCost();
+        return new Credential(scheme.getName(), cost, salt, hash,
+                "{" + scheme.getName() + "}" + (cost > 0 ? cost + "$" : "")
+                + hex(salt) + "$" + hex(hash));
+    }
+
+    /**
+     * @param encoded the stored form of a credential.
+     * @return the decoded credential. A credential that cannot be decoded
+     * has no scheme and never matches a password.
+     */
+    static Credential parse(String encoded) {
+        try {
+            if (! encoded.startsWith("{"))
+                return new Credential(DigestPasswordScheme.MD5.getName(), 0,
+                        new byte[0], unhex(encoded, 0, encoded.length()), encoded);
+            int end = encoded.indexOf('}');
+            int separator = encoded.indexOf('$', end);
+            if (end < 0 || separator < 0)
+                return new Credential(null, 0, new byte[0], new byte[0], encoded);
+            int cost = 0;
+            int salt = end + 1;
+            int last = encoded.indexOf('$', separator + 1);
+            if (last >= 0) {
+                cost = Integer.parseInt(encoded.substring(salt, separator));
+                if (cost < 1) throw new IllegalArgumentException("The cost must be positive.");
+                salt = separator + 1;
+                separator = last;
+            }
+            return new Credential(encoded.substring(1, end), cost,
+                    unhex(encoded, salt, separator),
+                    unhex(encoded, separator + 1, encoded.length()), encoded);
+        } catch (IllegalArgumentException ex) {
+            return new Credential(null, 0, new byte[0], new byte[0], encoded);
+        }
+    }
+
+    String getScheme() {
+        return scheme;
+    }
+
+    int getCost() {
+        return cost;
+    }
+
+    byte[] getSalt() {
+        return salt;
+    }
+
+    byte[] getHash() {
+        return hash;
+    }
+
+    String getEncoded() {
+        return encoded;
+    }
+
+    /**
+     * @param bytes the bytes to encode.
+     * @return the lower-case hexadecimal form of the bytes.
+     */
+    private static String hex(byte[] bytes) {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            hex[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(hex);
+    }
+
+    /**
+     * @param s the string holding the hexadecimal digits.
+     * @param from the index of the first digit.
+     * @param to the index after the last digit.
+     * @return the decoded bytes.
+     * @throws IllegalArgumentException if the range holds no valid hexadecimal.
+     */
+    private static byte[] unhex(String s, int from, int to) throws IllegalArgumentException {
+        if (((to - from) & 1) != 0)
+            throw new IllegalArgumentException("Odd number of hexadecimal digits.");
+        byte[] bytes = new byte[(to - from) / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(s.charAt(from + 2 * i), 16);
+            int low = Character.digit(s.charAt(from + 2 * i + 1), 16);
+            if (high < 0 || low < 0)
+                throw new IllegalArgumentException("Invalid hexadecimal digit.");
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+}
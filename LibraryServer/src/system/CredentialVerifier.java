@@ -0,0 +1,104 @@
+package system;
+
+import exceptions.PersistenceException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The CredentialVerifier class checks passwords against the stored
+ * credentials of users. The comparison runs in constant time. A credential
+ * stored with another scheme than the preferred one, or with a lower cost,
+ * is replaced by a preferred credential after the first successful login;
+ * the replacement goes through the library, which logs it.
+ */
+public final class CredentialVerifier {
+
+    private final PasswordScheme preferred;
+    private final Map<String, PasswordScheme> schemes;
+    private final SecureRandom random;
+
+    /**
+     * @param preferred the scheme for new and upgraded credentials.
+     * @param accepted the other schemes that existing credentials may use.
+     */
+    public CredentialVerifier(PasswordScheme preferred, PasswordScheme... accepted) {
+        super();
+        this.preferred = preferred;
+        this.schemes = new HashMap<>();
+        this.schemes.put(preferred.getName(), preferred);
+        for (PasswordScheme scheme : accepted) this.schemes.put(scheme.getName(), scheme);
+        this.random = new SecureRandom();
+    }
+
+    /**
+     * @return a verifier that prefers PBKDF2 with HMAC-SHA256, and upgrades
+     * salted SHA-256 and MD5.
+     */
+    public static CredentialVerifier createDefault() {
+        return new CredentialVerifier(Pbkdf2PasswordScheme.PBKDF2_SHA256,
+                DigestPasswordScheme.SSHA256, DigestPasswordScheme.MD5);
+    }
+
+    /**
+     * Checks a password, and upgrades the credential in memory only.
+     * @param user the user to be authenticated.
+     * @param password the password to be checked.
+     * @return whether or not the password matches the credential of the user.
+     */
+    public boolean verify(User user, String password) {
+        return this.verify(user, password, null);
+    }
+
+    /**
+     * @param user the user to be authenticated.
+     * @param password the password to be checked.
+     * @param library the library of the user, which logs an upgraded
+     * credential, or NULL to upgrade it in memory only.
+     * @return whether or not the password matches the credential of the user.
+     */
+    public boolean verify(User user, String password, Library library) {
+        Credential credential = user.getCredential();
+        PasswordScheme scheme = credential.getScheme() == null
+                ? null : this.schemes.get(credential.getScheme());
+        if (scheme == null || password == null) return false;
+        byte[] bytes = password.getBytes(StandardCharsets.UTF_8);
+        if (! MessageDigest.isEqual(scheme.hash(credential.getSalt(), credential.getCost(), bytes),
+                credential.getHash()))
+            return false;
+        if (scheme != this.preferred || credential.getCost() < this.preferred.getCost()) {
+            Credential upgraded = this.create(bytes);
+            if (library == null) {
+                user.setCredential(upgraded, credential);
+            } else {
+                try {
+                    library.replaceCredential(user, upgraded, credential);
+                } catch (PersistenceException ex) {
+                    // the old credential stays; the next login tries again :
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param password the password to be stored.
+     * @return the stored form of the password with the preferred scheme.
+     */
+    public String encode(String password) {
+        return this.create(password.getBytes(StandardCharsets.UTF_8)).getEncoded();
+    }
+
+    /**
+     * @param password the UTF-8 encoded password.
+     * @return a new credential for the password with the preferred scheme.
+     */
+    private Credential create(byte[] password) {
+        byte[] salt = new byte[this.preferred.getSaltLength()];
+        this.random.nextBytes(salt);
+        return Credential.of(this.preferred, salt,
+                this.preferred.hash(salt, this.preferred.getCost(), password));
+    }
+}
@@ -0,0 +1,405 @@
+package system;
+
+import args.Book;
+import args.MutationResult;
+import args.Rating;
+import exceptions.DuplicateException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The CsvLoader class bulk-loads users and books from CSV files. The file is
+ * memory-mapped and split into chunks that end on line boundaries. The chunks
+ * are parsed in parallel straight from the mapped bytes, and every chunk is
+ * added to the library as one batch. Rows that cannot be loaded are reported
+ * with their line number; lines starting with '#' are comments.
+ *
+ * Books have the fields title, author, year, rating, ISBN and owner; users
+ * have the fields name and password hash.
+ */
+public final class CsvLoader {
+
+    private static final int BOOK_FIELDS = 6;
+    private static final int USER_FIELDS = 2;
+    private static final long MIN_CHUNK_SIZE = 1 << 20;
+    private static final long MAX_CHUNK_SIZE = 64 << 20;
+    private static final byte[][] RATINGS = new byte[Rating.values().length][];
+
+    static {
+        for (Rating rating : Rating.values())
+            RATINGS[rating.ordinal()] = rating.name().getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private final int threads;
+
+    /**
+     * @param threads the number of threads that parse chunks in parallel.
+     */
+    public CsvLoader(int threads) {
+        super();
+        if (threads < 1)
+            throw new IllegalArgumentException("The number of threads must be greater than zero.");
+        this.threads = threads;
+    }
+
+    /**
+     * @param library the library to load the books to.
+     * @param file the CSV file to load the books from.
+     * @return the number of books loaded and the rows that were rejected.
+     * @throws IOException if the file cannot be read.
+     */
+    public Report loadBooks(Library library, Path file) throws IOException {
+        return this.load(library, file, true);
+    }
+
+    /**
+     * @param library the library to load the users to.
+     * @param file the CSV file to load the users from.
+     * @return the number of users loaded and the rows that were rejected.
+     * @throws IOException if the file cannot be read.
+     */
+    public Report loadUsers(Library library, Path file) throws IOException {
+        return this.load(library, file, false);
+    }
+
+    /**
+     * @param library the library to load the rows to.
+     * @param file the CSV file to load the rows from.
+     * @param books whether the file holds books or users.
+     * @return the number of rows loaded and the rows that were rejected.
+     * @throws IOException if the file cannot be read.
+     */
+    private Report load(final Library library, Path file, final boolean books)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long[] bounds = split(channel, this.threads);
+            ExecutorService executor = Executors.newFixedThreadPool(
+                    Math.min(this.threads, bounds.length - 1));
+            try {
+                List<Future<Chunk>> futures = new ArrayList<>(bounds.length - 1);
+                for (int i = 0; i + 1 < bounds.length; i++) {
+                    final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+                            bounds[i], bounds[i + 1] - bounds[i]);
+                    futures.add(executor.submit(new Callable<Chunk>() {
+                        @Override
+                        public Chunk call() {
+                            Chunk chunk = new Chunk();
+                            chunk.parse(buffer, books ? BOOK_FIELDS : USER_FIELDS);
+                            if (books) chunk.addBooks(library);
+                            else chunk.addUsers(library);
+                            return chunk;
+                        }
+                    }));
+                }
+
+                // line numbers in a chunk are relative to its first line :
+                int loaded = 0;
+                long line = 0;
+                List<Rejection> rejected = new ArrayList<>();
+                for (Future<Chunk> future : futures) {
+                    Chunk chunk = future.get();
+                    loaded += chunk.loaded;
+                    for (Rejection r : chunk.rejected)
+                        rejected.add(new Rejection(line + r.getLine(), r.getReason()));
+                    line += chunk.lines;
+                }
+                return new Report(loaded, rejected);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while loading " + file, ex);
+            } catch (ExecutionException ex) {
+                throw new IOException("Failed to load " + file, ex.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+
+    /**
+     * @param channel the file to be split.
+     * @param threads the number of threads that will parse the chunks.
+     * @return the offsets at which the chunks start, followed by the size of
+     * the file. Every chunk but the first starts right after a line feed.
+     * @throws IOException if the file cannot be read.
+     */
+    private static long[] split(FileChannel channel, int threads) throws IOException {
+        long size = channel.size();
+        long chunkSize = Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size / (4L * threads) + 1));
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        long position = chunkSize;
+        while (position < size) {
+            // move the bound to the byte after the next line feed :
+            long end = -1;
+            for (long p = position; end < 0 && p < size; p += buffer.limit()) {
+                buffer.clear();
+                if (channel.read(buffer, p) <= 0) break;
+                buffer.flip();
+                for (int i = 0; i < buffer.limit(); i++) {
+                    if (buffer.get(i) == '\n') {
+                        end = p + i + 1;
+                        break;
+                    }
+                }
+            }
+            if (end < 0 || end >= size) break;
+            bounds.add(end);
+            position = end + chunkSize;
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) result[i] = bounds.get(i);
+        return result;
+    }
+
+    /**
+     * The books or users parsed from one chunk of the file.
+     */
+    private static final class Chunk {
+
+        private final List<Book> books = new ArrayList<>();
+        private final List<User> users = new ArrayList<>();
+        private final List<Integer> rowLines = new ArrayList<>();
+        private final List<Rejection> rejected = new ArrayList<>();
+        private final Map<String, String> owners = new HashMap<>();
+        private int lines;
+        private int loaded;
+
+        /**
+         * Splits the chunk into lines and the lines into fields.
+         * @param buffer the bytes of the chunk.
+         * @param fields the number of fields per row.
+         */
+        void parse(ByteBuffer buffer, int fields) {
+            byte[] line = new byte[256];
+            int[] starts = new int[fields + 1];
+            int length = 0;
+            int limit = buffer.limit();
+            for (int i = 0; i <= limit; i++) {
+                byte b = i < limit ? buffer.get(i) : (byte) '\n';
+                if (b != '\n') {
+                    if (length == line.length) {
+                        byte[] larger = new byte[line.length * 2];
+                        System.arraycopy(line, 0, larger, 0, length);
+                        line = larger;
+                    }
+                    line[length++] = b;
+                    continue;
+                }
+                if (i == limit && length == 0) break;
+                this.lines++;
+                if (length > 0 && line[length - 1] == '\r') length--;
+                if (length > 0 && line[0] != '#') this.row(line, length, starts, fields);
+                length = 0;
+            }
+        }
+
+        /**
+         * @param line the bytes of the line.
+         * @param length the number of bytes in the line.
+         * @param starts scratch space for the offsets of the fields.
+         * @param fields the number of fields per row.
+         */
+        private void row(byte[] line, int length, int[] starts, int fields) {
+            int count = 0;
+            starts[count++] = 0;
+            for (int i = 0; i < length; i++) {
+                if (line[i] != ',') continue;
+                if (count == fields) {
+                    this.reject("expected " + fields + " fields but found more");
+                    return;
+                }
+                starts[count++] = i + 1;
+            }
+            if (count != fields) {
+                this.reject("expected " + fields + " fields but found " + count);
+                return;
+            }
+            starts[count] = length + 1;
+
+            try {
+                if (fields == USER_FIELDS) {
+                    this.users.add(new User(field(line, starts, 0), field(line, starts, 1)));
+                    this.rowLines.add(this.lines);
+                    return;
+                }
+                int year = parseYear(line, starts[2], starts[3] - 1);
+                if (year == Integer.MIN_VALUE) {
+                    this.reject("invalid year");
+                    return;
+                }
+                Rating rating = parseRating(line, starts[3], starts[4] - 1);
+                if (rating == null) {
+                    this.reject("invalid rating");
+                    return;
+                }
+                String owner = field(line, starts, 5);
+                String shared = this.owners.get(owner);
+                if (shared == null) this.owners.put(owner, shared = owner);
+                this.books.add(new Book(field(line, starts, 0), field(line, starts, 1),
+                        year, rating, field(line, starts, 4), shared));
+                this.rowLines.add(this.lines);
+            } catch (IllegalArgumentException ex) {
+                this.reject(ex.getMessage());
+            }
+        }
+
+        /**
+         * @param library the library to add the parsed books to.
+         */
+        void addBooks(Library library) {
+            List<MutationResult> results = library.addBooks(this.books);
+            for (int i = 0; i < results.size(); i++) {
+                if (results.get(i) == MutationResult.ADDED) this.loaded++;
+                else this.rejected.add(new Rejection(this.rowLines.get(i),
+                        "the book with ISBN " + this.books.get(i).getISBN()
+                        + " of " + this.books.get(i).getOwner() + " is a duplicate"));
+            }
+            this.books.clear();
+            Collections.sort(this.rejected);
+        }
+
+        /**
+         * @param library the library to add the parsed users to.
+         */
+        void addUsers(Library library) {
+            for (int i = 0; i < this.users.size(); i++) {
+                try {
+                    library.addUser(this.users.get(i));
+                    this.loaded++;
+                } catch (DuplicateException ex) {
+                    this.rejected.add(new Rejection(this.rowLines.get(i), ex.getMessage()));
+                }
+            }
+            this.users.clear();
+            Collections.sort(this.rejected);
+        }
+
+        /**
+         * @param reason why the current line was rejected.
+         */
+        private void reject(String reason) {
+            this.rejected.add(new Rejection(this.lines, reason));
+        }
+
+        /**
+         * @return the text of a field of the line.
+         */
+        private static String field(byte[] line, int[] starts, int field) {
+            return new String(line, starts[field], starts[field + 1] - starts[field] - 1,
+                    StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @return the year in the given bytes, or Integer.MIN_VALUE if they
+         * hold no valid year.
+         */
+        private static int parseYear(byte[] line, int from, int to) {
+            boolean negative = from < to && line[from] == '-';
+            if (negative) from++;
+            if (from == to || to - from > 9) return Integer.MIN_VALUE;
+            int year = 0;
+            for (int i = from; i < to; i++) {
+                if (line[i] < '0' || line[i] > '9') return Integer.MIN_VALUE;
+                year = 10 * year + (line[i] - '0');
+            }
+            return negative ? -year : year;
+        }
+
+        /**
+         * @return the rating named by the given bytes, or NULL if there is none.
+         */
+        private static Rating parseRating(byte[] line, int from, int to) {
+            for (Rating rating : Rating.values()) {
+                byte[] name = RATINGS[rating.ordinal()];
+                if (name.length != to - from) continue;
+                int i = 0;
+                while (i < name.length && name[i] == line[from + i]) i++;
+                if (i == name.length) return rating;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * The outcome of loading a CSV file.
+     */
+    public static final class Report {
+
+        private final int loaded;
+        private final List<Rejection> rejected;
+
+        Report(int loaded, List<Rejection> rejected) {
+            this.loaded = loaded;
+            this.rejected = Collections.unmodifiableList(rejected);
+        }
+
+        /**
+         * @return the number of rows that were loaded.
+         */
+        public int getLoaded() {
+            return loaded;
+        }
+
+        /**
+         * @return the rows that were not loaded, ordered by line number.
+         */
+        public List<Rejection> getRejected() {
+            return rejected;
+        }
+    }
+
+    /**
+     * A row that could not be loaded.
+     */
+    public static final class Rejection implements Comparable<Rejection> {
+
+        private final long line;
+        private final String reason;
+
+        Rejection(long line, String reason) {
+            this.line = line;
+            this.reason = reason;
+        }
+
+        /**
+         * @return the line number of the row, starting from 1.
+         */
+        public long getLine() {
+            return line;
+        }
+
+        /**
+         * @return why the row was not loaded.
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public int compareTo(Rejection r) {
+            return Long.compare(this.line, r.line);
+        }
+
+        @Override
+        public String toString() {
+            return "line " + this.line + " : " + this.reason;
+        }
+    }
+}
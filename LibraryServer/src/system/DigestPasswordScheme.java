@@ -0,0 +1,75 @@
+package system;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * A PasswordScheme that hashes the salt followed by the password with a
+ * message digest. Every thread reuses its own digest instance. A single
+ * digest is fast to compute, and so to guess; these schemes are only
+ * accepted to verify existing credentials.
+ */
+public final class DigestPasswordScheme implements PasswordScheme {
+
+    /**
+     * Unsalted MD5, the format of the original user files.
+     */
+    public static final DigestPasswordScheme MD5
+            = new DigestPasswordScheme("MD5", "MD5", 0);
+    /**
+     * SHA-256 with a 16-byte random salt.
+     */
+    public static final DigestPasswordScheme SSHA256
+            = new DigestPasswordScheme("SSHA256", "SHA-256", 16);
+
+    private final String name;
+    private final int saltLength;
+    private final ThreadLocal<MessageDigest> digests;
+
+    /**
+     * @param name the name of the scheme.
+     * @param algorithm the name of the message digest algorithm.
+     * @param saltLength the number of salt bytes per credential.
+     * @throws IllegalArgumentException if the algorithm is not available.
+     */
+    public DigestPasswordScheme(String name, final String algorithm, int saltLength)
+            throws IllegalArgumentException {
+        super();
+        this.name = name;
+        this.saltLength = saltLength;
+        this.digests = new ThreadLocal<MessageDigest>() {
+            @Override
+            protected MessageDigest initialValue() {
+                try {
+                    return MessageDigest.getInstance(algorithm);
+                } catch (NoSuchAlgorithmException ex) {
+                    throw new IllegalArgumentException(ex);
+                }
+            }
+        };
+        // fail early if the algorithm is not available :
+        this.digests.get();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getSaltLength() {
+        return saltLength;
+    }
+
+    @Override
+    public int getCost() {
+        return 0;
+    }
+
+    @Override
+    public byte[] hash(byte[] salt, int cost, byte[] password) {
+        MessageDigest digest = this.digests.get();
+        digest.update(salt);
+        return digest.digest(password);
+    }
+}
@@ -0,0 +1,186 @@
+package system;
+
+import args.Book;
+import args.Rating;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The HeapBookStore class keeps the books of a library on the heap, split
+ * into editions and copies. An edition holds what the copies of a book have
+ * in common (ISBN, title, author and year) and is shared by all of them; a
+ * copy only refers to its edition, its owner and its rating. Owner and
+ * author names are interned, so every distinct name is held once; a name is
+ * counted for every edition and copy that uses it, and dropped from the
+ * intern map once no book uses it any more. A Book is
+ * assembled from its edition and copy when it is asked for, with the
+ * normalized ISBN.
+ *
+ * A copy whose title, author or year differs from the shared edition of its
+ * ISBN gets an edition of its own, so that no details are lost.
+ */
+final class HeapBookStore implements BookStore {
+
+    private final ConcurrentMap<BookKey, Copy> copies;
+    private final ConcurrentMap<String, Edition> editions;
+    private final ConcurrentMap<String, Name> names;
+
+    HeapBookStore() {
+        super();
+        this.copies = new ConcurrentHashMap<>();
+        this.editions = new ConcurrentHashMap<>();
+        this.names = new ConcurrentHashMap<>();
+    }
+
+    @Override
+    public Book get(BookKey key) {
+        Copy copy = this.copies.get(key);
+        return copy == null ? null : copy.toBook();
+    }
+
+    @Override
+    public BookKey add(BookKey key, Book book) {
+        if (this.copies.containsKey(key)) return null;
+        Edition edition = this.editions.get(key.getISBN());
+        if (edition == null) {
+            edition = new Edition(key.getISBN(), book.getTitle(),
+                    this.intern(book.getAuthor()), book.getYear());
+            this.editions.put(edition.isbn, edition);
+        } else if (! edition.matches(book)) {
+            edition = new Edition(edition.isbn, book.getTitle(),
+                    this.intern(book.getAuthor()), book.getYear());
+        }
+        String owner = this.intern(book.getOwner());
+        BookKey stored = new BookKey(edition.isbn, this.intern(key.getOwner()));
+        edition.copies++;
+        this.copies.put(stored, new Copy(edition, owner, book.getRating()));
+        return stored;
+    }
+
+    @Override
+    public Book remove(BookKey key) {
+        Copy copy = this.copies.remove(key);
+        if (copy == null) return null;
+        if (--copy.edition.copies == 0) {
+            this.editions.remove(copy.edition.isbn, copy.edition);
+            this.release(copy.edition.author);
+        }
+        this.release(copy.owner);
+        this.release(key.getOwner());
+        return copy.toBook();
+    }
+
+    @Override
+    public int size() {
+        return this.copies.size();
+    }
+
+    /**
+     * @param name a name, which the caller will hold on to until it calls
+     * release.
+     * @return the single instance held of the name.
+     */
+    private String intern(String name) {
+        while (true) {
+            Name interned = this.names.get(name);
+            if (interned == null) {
+                interned = this.names.putIfAbsent(name, new Name(name));
+                if (interned == null) return name;
+            }
+            if (interned.retain()) return interned.value;
+            // the last user released it; wait for it to leave the map :
+            this.names.remove(name, interned);
+        }
+    }
+
+    /**
+     * @param name a name that was interned and is no longer held by a book.
+     */
+    private void release(String name) {
+        Name interned = this.names.get(name);
+        if (interned != null && interned.decrementAndGet() == 0)
+            this.names.remove(name, interned);
+    }
+
+    /**
+     * An interned name and the number of its users. A name whose count fell
+     * to 0 is never used again, as it may already be gone from the map.
+     */
+    private static final class Name extends AtomicInteger {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String value;
+
+        Name(String value) {
+            super(1);
+            this.value = value;
+        }
+
+        /**
+         * @return whether or not the name was still in use and is now used
+         * once more.
+         */
+        boolean retain() {
+            while (true) {
+                int count = this.get();
+                if (count == 0) return false;
+                if (this.compareAndSet(count, count + 1)) return true;
+            }
+        }
+    }
+
+    /**
+     * The details shared by the copies of a book. The number of copies is
+     * only changed while the library holds the lock of the ISBN.
+     */
+    private static final class Edition {
+
+        private final String isbn;
+        private final String title;
+        private final String author;
+        private final int year;
+        private int copies;
+
+        Edition(String isbn, String title, String author, int year) {
+            this.isbn = isbn;
+            this.title = title;
+            this.author = author;
+            this.year = year;
+        }
+
+        /**
+         * @param book a book with the ISBN of this edition.
+         * @return whether or not the book has the details of this edition.
+         */
+        boolean matches(Book book) {
+            return this.year == book.getYear() && this.title.equals(book.getTitle())
+                    && this.author.equals(book.getAuthor());
+        }
+    }
+
+    /**
+     * A single copy of an edition.
+     */
+    private static final class Copy {
+
+        private final Edition edition;
+        private final String owner;
+        private final Rating rating;
+
+        Copy(Edition edition, String owner, Rating rating) {
+            this.edition = edition;
+            this.owner = owner;
+            this.rating = rating;
+        }
+
+        /**
+         * @return the copy as a book.
+         */
+        Book toBook() {
+            return new Book(this.edition.title, this.edition.author, this.edition.year,
+                    this.rating, this.edition.isbn, this.owner);
+        }
+    }
+}
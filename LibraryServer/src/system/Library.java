@@ -2,81 +2,516 @@ package system;
 
 import exceptions.BookNotFoundException;
 import exceptions.DuplicateException;
+import exceptions.PersistenceException;
 import exceptions.UserNotFoundException;
 import args.Book;
+import args.ChangeSet;
+import args.MutationResult;
+import args.Page;
+import args.Rating;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
 
 /**
  * The Library class is an implementation of the IRemoteLibrary interface, which
  * manages a collection of items. Items can be added or removed.
- * 
+ *
+ * The books are kept in a store keyed by normalized ISBN and (case-folded)
+ * owner, and
+ * are referred to by that key from two secondary indexes : one from ISBN to
+ * the owners of a copy of that book and one from owner to the ISBNs of the
+ * books of that owner. The store keeps the books either as objects on the
+ * heap or as compact records in off-heap memory, which spares the garbage
+ * collector a large catalogue; books are only materialized when they are
+ * handed out. Users are kept in a directory
+ * keyed by their case-folded name. All lookups are therefore constant time.
+ * The secondary indexes are sorted, which gives the listings a stable order
+ * (ISBN first, then case-folded owner) that they can be paged through with
+ * keyset cursors. An inverted index over titles and authors answers
+ * full-text searches, and a year-sorted index per rating answers range
+ * queries on year and rating.
+ *
+ * The library is safe for use by concurrent RMI threads. Reads never lock.
+ * Book mutations lock the stripe of their owner and then the stripe of their
+ * ISBN, so that mutations on different owners and ISBNs do not contend.
+ *
+ * With a write-ahead log attached, every mutation is logged while its locks
+ * are held, and the mutating call returns once the log record is durable.
+ * A mutation that the log rejects, because it failed or is closed, is undone
+ * before the PersistenceException reaches the caller, and is never recorded
+ * as a change.
+ *
+ * Every book mutation increases the version of the library, and the most
+ * recent ones are kept in a change log, so that clients can catch up with
+ * the changes since the version they saw instead of listing all books.
+ *
  * @author Joris Schelfaut
  */
 public class Library {
 
-    private final List<Book> books;
-    private final List<User> users;
-    
+    private static final int LOCK_STRIPES = 64;
+    private static final int CHANGE_LOG_SIZE = 16_384;
+
+    private final BookStore books;
+    private final ConcurrentNavigableMap<String, NavigableSet<String>> booksByISBN;
+    private final ConcurrentMap<String, NavigableSet<String>> booksByOwner;
+    private final ConcurrentMap<String, User> users;
+    private final SearchIndex searchIndex;
+    private final Map<Rating, NavigableSet<YearKey>> booksByRating;
+    private final StripedLock ownerLocks;
+    private final StripedLock isbnLocks;
+    private final ChangeLog changes;
+    private volatile WriteAheadLog log;
+
     /**
-     * Instantiates a new Library object.
+     * The ways in which a library can store its books.
+     */
+    public enum Storage {
+        /** The books are kept as objects on the heap. */
+        HEAP,
+        /** The books are kept as fixed-size records in off-heap memory. */
+        OFF_HEAP
+    }
+
+    /**
+     * Instantiates a new Library object, which keeps its books on the heap.
      */
     public Library() {
+        this(Storage.HEAP);
+    }
+
+    /**
+     * Instantiates a new Library object.
+     * @param storage the way in which the library stores its books.
+     */
+    public Library(Storage storage) {
         super();
-        this.books = new ArrayList<>();
-        this.users = new ArrayList<>();
+        this.books = storage == Storage.OFF_HEAP ? new OffHeapBookStore() : new HeapBookStore();
+        this.booksByISBN = new ConcurrentSkipListMap<>();
+        this.booksByOwner = new ConcurrentHashMap<>();
+        this.users = new ConcurrentHashMap<>();
+        this.searchIndex = new SearchIndex();
+        this.booksByRating = new EnumMap<>(Rating.class);
+        for (Rating rating : Rating.values())
+            this.booksByRating.put(rating, new ConcurrentSkipListSet<YearKey>());
+        this.ownerLocks = new StripedLock(LOCK_STRIPES);
+        this.isbnLocks = new StripedLock(LOCK_STRIPES);
+        this.changes = new ChangeLog(CHANGE_LOG_SIZE);
     }
-    
+
     /**
      * @param book the book to be added to the library.
      * @throws NullPointerException if the book resolves as NULL.
      * @throws DuplicateException if the book (by this owner) was already in the library.
+     * @throws PersistenceException if the write-ahead log failed or is closed.
      */
-    public synchronized void addBook (Book book)
-            throws NullPointerException, DuplicateException {
+    public void addBook (Book book)
+            throws NullPointerException, DuplicateException, PersistenceException {
         if (book == null) throw new NullPointerException("The book resolved as NULL.");
-        if (this.books.contains(book)) throw new DuplicateException(book);
-        this.books.add(book);
+        BookKey key = new BookKey(book.getISBN(), book.getOwner());
+        Lock ownerLock = this.ownerLocks.get(key.getOwner());
+        long lsn;
+        ownerLock.lock();
+        try {
+            this.checkLog();
+            BookKey stored = this.insert(key, book);
+            if (stored == null) throw new DuplicateException(book);
+            lsn = this.logAddBook(stored, book);
+        } finally {
+            ownerLock.unlock();
+        }
+        this.awaitDurable(lsn);
+    }
+
+    /**
+     * Adds a batch of books to the library. Consecutive books with the same
+     * owner are added under a single acquisition of the lock of that owner.
+     * @param books the books to be added to the library.
+     * @return for every book, in order, whether it was ADDED, a DUPLICATE or
+     * INVALID because it resolved as NULL.
+     * @throws PersistenceException if the write-ahead log failed or is closed.
+     */
+    public List<MutationResult> addBooks (List<Book> books) throws PersistenceException {
+        List<MutationResult> results = new ArrayList<>(books.size());
+        long lsn = 0;
+        Lock held = null;
+        try {
+            this.checkLog();
+            for (Book book : books) {
+                if (book == null) {
+                    results.add(MutationResult.INVALID);
+                    continue;
+                }
+                BookKey key = new BookKey(book.getISBN(), book.getOwner());
+                Lock ownerLock = this.ownerLocks.get(key.getOwner());
+                if (ownerLock != held) {
+                    if (held != null) held.unlock();
+                    held = null;
+                    ownerLock.lock();
+                    held = ownerLock;
+                }
+                BookKey stored = this.insert(key, book);
+                if (stored != null) {
+                    lsn = this.logAddBook(stored, book);
+                    results.add(MutationResult.ADDED);
+                } else {
+                    results.add(MutationResult.DUPLICATE);
+                }
+            }
+        } finally {
+            if (held != null) held.unlock();
+        }
+        this.awaitDurable(lsn);
+        return results;
     }
-    
+
     /**
      * @param book the book to be removed.
      */
     public void removeBook (Book book) {
-        this.books.remove(book);
+        this.removeBook(book.getISBN(), book.getOwner());
     }
-    
+
     /**
      * @param isbn the ISBN of the book that will be removed.
      * @param owner the owner of the book that will be removed.
      */
     public void removeBook (String isbn, String owner) {
-        for (Book b : this.books) {
-            if (b.getISBN().equals(isbn) && b.getOwner().equalsIgnoreCase(owner))
-                this.books.remove(b);
+        BookKey key = new BookKey(isbn, owner);
+        Lock ownerLock = this.ownerLocks.get(key.getOwner());
+        long lsn = 0;
+        ownerLock.lock();
+        try {
+            this.checkLog();
+            Book book = this.delete(key);
+            if (book != null) lsn = this.logRemoveBook(key, book);
+        } finally {
+            ownerLock.unlock();
         }
+        this.awaitDurable(lsn);
     }
-    
+
+    /**
+     * Removes a batch of books of one owner under a single acquisition of the
+     * lock of that owner.
+     * @param owner the owner of the books that will be removed.
+     * @param isbns the ISBNs of the books that will be removed.
+     * @return for every ISBN, in order, whether the book was REMOVED, was
+     * NOT_FOUND or was INVALID because the ISBN resolved as NULL.
+     * @throws PersistenceException if the write-ahead log failed or is closed.
+     */
+    public List<MutationResult> removeBooks (String owner, List<String> isbns)
+            throws PersistenceException {
+        List<MutationResult> results = new ArrayList<>(isbns.size());
+        long lsn = 0;
+        Lock ownerLock = this.ownerLocks.get(BookKey.fold(owner));
+        ownerLock.lock();
+        try {
+            this.checkLog();
+            for (String isbn : isbns) {
+                if (isbn == null) {
+                    results.add(MutationResult.INVALID);
+                    continue;
+                }
+                BookKey key = new BookKey(isbn, owner);
+                Book book = this.delete(key);
+                if (book != null) {
+                    lsn = this.logRemoveBook(key, book);
+                    results.add(MutationResult.REMOVED);
+                } else {
+                    results.add(MutationResult.NOT_FOUND);
+                }
+            }
+        } finally {
+            ownerLock.unlock();
+        }
+        this.awaitDurable(lsn);
+        return results;
+    }
+
+    /**
+     * Adds a book to all indexes. The caller must hold the lock of the owner.
+     * @param key the key of the book.
+     * @param book the book to be added.
+     * @return the key of the book as stored, or NULL if it was a duplicate.
+     */
+    private BookKey insert (BookKey key, Book book) {
+        Lock isbnLock = this.isbnLocks.get(key.getISBN());
+        isbnLock.lock();
+        try {
+            // index the key as stored, which shares its strings with the store :
+            BookKey stored = this.books.add(key, book);
+            if (stored == null) return null;
+            index(this.booksByISBN, stored.getISBN(), stored.getOwner());
+            index(this.booksByOwner, stored.getOwner(), stored.getISBN());
+            this.searchIndex.add(stored, book);
+            this.booksByRating.get(ratingOf(book)).add(new YearKey(book.getYear(), stored));
+            return stored;
+        } finally {
+            isbnLock.unlock();
+        }
+    }
+
+    /**
+     * Removes a book from all indexes. The caller must hold the lock of the owner.
+     * @param key the key of the book.
+     * @return the removed book, or NULL if there was no such book.
+     */
+    private Book delete (BookKey key) {
+        Lock isbnLock = this.isbnLocks.get(key.getISBN());
+        isbnLock.lock();
+        try {
+            Book book = this.books.remove(key);
+            if (book == null) return null;
+            unindex(this.booksByISBN, key.getISBN(), key.getOwner());
+            unindex(this.booksByOwner, key.getOwner(), key.getISBN());
+            this.searchIndex.remove(key, book);
+            this.booksByRating.get(ratingOf(book)).remove(new YearKey(book.getYear(), key));
+            return book;
+        } finally {
+            isbnLock.unlock();
+        }
+    }
+
     /**
      * @param isbn the ISBN of the book.
      * @param owner the owner of the book.
      * @return the book with given owner and ISBN.
-     * @throws BookNotFoundException 
+     * @throws BookNotFoundException
      */
     public Book lookupBook (String isbn, String owner) throws BookNotFoundException {
-        for (Book b : this.books) {
-            if (b.getISBN().equals(isbn) && b.getOwner().equalsIgnoreCase(owner))
-                return b;
-        }
-        throw new BookNotFoundException(isbn);
+        Book book = this.books.get(new BookKey(isbn, owner));
+        if (book == null) throw new BookNotFoundException(isbn);
+        return book;
     }
-    
+
     /**
-     * @return all the books in this library.
+     * @return a snapshot of all the books in this library.
      */
     public List<Book> getBooks() {
-        return Collections.unmodifiableList(this.books);
+        List<Book> books = new ArrayList<>(this.books.size());
+        for (Map.Entry<String, NavigableSet<String>> bucket : this.booksByISBN.entrySet())
+            for (String owner : bucket.getValue())
+                this.collect(books, new BookKey(bucket.getKey(), owner));
+        return Collections.unmodifiableList(books);
+    }
+
+    /**
+     * Lists the books of the library, ordered by ISBN and owner.
+     * @param cursor the cursor returned with the previous page, or NULL to
+     * start from the first book.
+     * @param pageSize the maximal number of books on the page.
+     * @return the page of books following the given cursor.
+     * @throws IllegalArgumentException if the cursor or page size is invalid.
+     */
+    public Page<Book> getBooks(String cursor, int pageSize)
+            throws IllegalArgumentException {
+        int size = checkPageSize(pageSize);
+        List<Book> page = new ArrayList<>(Math.min(size, 64));
+        ConcurrentNavigableMap<String, NavigableSet<String>> buckets = this.booksByISBN;
+        String isbn = null;
+        String owner = null;
+        if (cursor != null) {
+            int separator = cursor.indexOf('/');
+            if (separator < 0)
+                throw new IllegalArgumentException("Invalid cursor '" + cursor + "'.");
+            isbn = cursor.substring(0, separator);
+            owner = cursor.substring(separator + 1);
+            buckets = buckets.tailMap(isbn, true);
+        }
+        BookKey last = null;
+        for (Map.Entry<String, NavigableSet<String>> bucket : buckets.entrySet()) {
+            NavigableSet<String> copies = bucket.getValue();
+            // skip the owners up to the cursor only in the bucket of the cursor,
+            // which may have been removed since :
+            if (owner != null && bucket.getKey().equals(isbn))
+                copies = copies.tailSet(owner, false);
+            owner = null;
+            for (String copy : copies) {
+                if (page.size() == size)
+                    return new Page<>(page, last.toString());
+                BookKey key = new BookKey(bucket.getKey(), copy);
+                if (this.collect(page, key)) last = key;
+            }
+        }
+        return new Page<>(page, null);
+    }
+
+    /**
+     * @return the current version of the library, which increases with
+     * every book that is added or removed.
+     */
+    public long getVersion() {
+        return this.changes.getVersion();
+    }
+
+    /**
+     * Lists the books added and removed since a version of the library. Only
+     * the most recent changes are remembered; a client that fell further
+     * behind, or that starts without a version, gets a change set that
+     * requires a resync. It must then fetch all books and ask for the changes
+     * since the version of that change set, which may include changes that it
+     * already saw in the listing.
+     * @param version the version of the library the client is up to date with.
+     * @return the changes since the version, coalesced per book.
+     */
+    public ChangeSet getChangesSince(long version) {
+        return this.changes.since(version);
+    }
+
+    /**
+     * Waits until a book is added or removed after a given version.
+     * @param version the version to wait to be passed.
+     * @param timeout the time to wait at most.
+     * @param unit the unit of the timeout.
+     * @return the current version.
+     * @throws InterruptedException if the thread is interrupted while waiting.
+     */
+    long awaitChange(long version, long timeout, TimeUnit unit) throws InterruptedException {
+        return this.changes.awaitChange(version, unit.toMillis(timeout));
+    }
+
+    /**
+     * Searches the titles and authors of the books for the words of a query.
+     * Only books with every word match; a word in the title counts for more
+     * than a word in the author. Matching ignores case and punctuation.
+     * @param query the words to search for.
+     * @param limit the maximal number of results.
+     * @return the best matching books, best match first.
+     * @throws IllegalArgumentException if the query resolves as NULL or the
+     * limit is not positive.
+     */
+    public List<Book> searchBooks(String query, int limit)
+            throws IllegalArgumentException {
+        int size = checkPageSize(limit);
+        List<Book> result = new ArrayList<>();
+        for (BookKey key : this.searchIndex.search(query, size))
+            this.collect(result, key);
+        return result;
+    }
+
+    /**
+     * Finds the books published in a range of years with one of the given
+     * ratings, ordered by year, ISBN and owner. The books are merged from
+     * the year-sorted index of every requested rating, so the cost of a page
+     * depends on its size and not on the size of the catalogue.
+     * @param yearFrom the first publishing year, inclusive.
+     * @param yearTo the last publishing year, inclusive.
+     * @param ratings the accepted ratings, or NULL or empty to accept all.
+     * @param cursor the cursor returned with the previous page, or NULL to
+     * start from the first match.
+     * @param pageSize the maximal number of books on the page.
+     * @return the page of matching books following the given cursor.
+     * @throws IllegalArgumentException if the cursor or page size is invalid.
+     */
+    public Page<Book> findBooks(int yearFrom, int yearTo, Set<Rating> ratings,
+            String cursor, int pageSize) throws IllegalArgumentException {
+        int size = checkPageSize(pageSize);
+        List<Book> page = new ArrayList<>(Math.min(size, 64));
+        if (yearFrom > yearTo) return new Page<>(page, null);
+        if (ratings == null || ratings.isEmpty()) ratings = EnumSet.allOf(Rating.class);
+
+        YearKey from = cursor == null ? new YearKey(yearFrom, null) : YearKey.parse(cursor);
+        if (from.getYear() < yearFrom) from = new YearKey(yearFrom, null);
+        boolean inclusive = cursor == null || from.getKey() == null;
+        PriorityQueue<RangeCursor> heads = new PriorityQueue<>(ratings.size());
+        for (Rating rating : ratings) {
+            NavigableSet<YearKey> range = this.booksByRating.get(rating).tailSet(from, inclusive);
+            if (yearTo < Integer.MAX_VALUE)
+                range = range.headSet(new YearKey(yearTo + 1, null), false);
+            RangeCursor head = new RangeCursor(range.iterator());
+            if (head.advance()) heads.add(head);
+        }
+
+        YearKey last = null;
+        while (! heads.isEmpty()) {
+            if (page.size() == size) return new Page<>(page, last.toString());
+            RangeCursor head = heads.poll();
+            if (this.collect(page, head.current.getKey())) last = head.current;
+            if (head.advance()) heads.add(head);
+        }
+        return new Page<>(page, null);
+    }
+
+    /**
+     * Checks that the indexes agree with the store : every book that an index
+     * refers to is in the store under the same ISBN, owner, year and rating,
+     * and every book in the store is in every index. The outcome is only
+     * reliable while no books are added or removed; it is meant for tests.
+     * @return a description of every disagreement, or an empty list.
+     */
+    public List<String> checkIndexes() {
+        List<String> problems = new ArrayList<>();
+        Map<BookKey, Book> stored = new HashMap<>();
+        for (Map.Entry<String, NavigableSet<String>> bucket : this.booksByISBN.entrySet()) {
+            if (bucket.getValue().isEmpty())
+                problems.add("The index by ISBN keeps an empty bucket for " + bucket.getKey() + ".");
+            for (String owner : bucket.getValue()) {
+                BookKey key = new BookKey(bucket.getKey(), owner);
+                Book book = this.books.get(key);
+                if (book == null)
+                    problems.add("The index by ISBN refers to " + key + ", which is not in the store.");
+                else
+                    stored.put(key, book);
+            }
+        }
+        if (stored.size() != this.books.size())
+            problems.add("The store holds " + this.books.size() + " books, of which "
+                    + stored.size() + " are in the index by ISBN.");
+
+        int owned = 0;
+        for (Map.Entry<String, NavigableSet<String>> bucket : this.booksByOwner.entrySet()) {
+            if (bucket.getValue().isEmpty())
+                problems.add("The index by owner keeps an empty bucket for " + bucket.getKey() + ".");
+            for (String isbn : bucket.getValue()) {
+                owned++;
+                BookKey key = new BookKey(isbn, bucket.getKey());
+                if (! stored.containsKey(key))
+                    problems.add("The index by owner refers to " + key + ", which is not in the store.");
+            }
+        }
+        if (owned != stored.size())
+            problems.add("The index by owner holds " + owned + " books instead of " + stored.size() + ".");
+
+        int dated = 0;
+        for (Map.Entry<Rating, NavigableSet<YearKey>> rating : this.booksByRating.entrySet()) {
+            for (YearKey entry : rating.getValue()) {
+                dated++;
+                Book book = stored.get(entry.getKey());
+                if (book == null || book.getYear() != entry.getYear() || ratingOf(book) != rating.getKey())
+                    problems.add("The index by year refers to " + entry + " rated " + rating.getKey()
+                            + ", which is not in the store as such.");
+            }
+        }
+        if (dated != stored.size())
+            problems.add("The index by year holds " + dated + " books instead of " + stored.size() + ".");
+
+        Map<BookKey, Map<String, Integer>> indexed = this.searchIndex.entries();
+        for (Map.Entry<BookKey, Book> book : stored.entrySet()) {
+            Map<String, Integer> tokens = indexed.remove(book.getKey());
+            if (! SearchIndex.weigh(book.getValue()).equals(tokens))
+                problems.add("The search index holds " + tokens + " for " + book.getKey() + ".");
+        }
+        for (BookKey key : indexed.keySet())
+            problems.add("The search index refers to " + key + ", which is not in the store.");
+        return problems;
     }
 
     /**
@@ -84,71 +519,384 @@ public class Library {
      * @throws NullPointerException
      * @throws DuplicateException
      */
-    public synchronized void addUser(User user)
+    public void addUser(User user)
             throws NullPointerException, DuplicateException {
         if (user == null) throw new NullPointerException("The user resolved as NULL.");
-        if (this.users.contains(user))
-            throw new DuplicateException("The user with name '" + user.getName()
-                    + "' is already in the library.");
-        this.users.add(user);
+        String name = BookKey.fold(user.getName());
+        long lsn = 0;
+        Lock lock = this.ownerLocks.get(name);
+        lock.lock();
+        try {
+            this.checkLog();
+            if (this.users.putIfAbsent(name, user) != null)
+                throw new DuplicateException("The user with name '" + user.getName()
+                        + "' is already in the library.");
+            WriteAheadLog log = this.log;
+            if (log != null) {
+                try {
+                    lsn = log.appendAddUser(user);
+                } catch (PersistenceException ex) {
+                    this.users.remove(name, user);
+                    throw ex;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        this.awaitDurable(lsn);
     }
 
     /**
-     * @return the users of the library.
+     * @return a snapshot of the users of the library.
      */
     public List<User> getUsers() {
-        return Collections.unmodifiableList(this.users);
+        return Collections.unmodifiableList(new ArrayList<>(this.users.values()));
     }
-    
+
+    /**
+     * @return a live view of the users, for snapshots.
+     */
+    Collection<User> users() {
+        return this.users.values();
+    }
+
+    /**
+     * @return a live view of the case-folded names of the owners of books,
+     * for snapshots.
+     */
+    Collection<String> owners() {
+        return this.booksByOwner.keySet();
+    }
+
     /**
      * @param name the name of the user to look for in the library.
      * @return the user with given name.
-     * @throws UserNotFoundException 
+     * @throws UserNotFoundException
      */
     public User lookupUser (String name) throws UserNotFoundException {
-        for (User u : this.users) {
-            if (u.getName().equals(name)) return u;
-        }
-        throw new UserNotFoundException(name);
+        User user = this.users.get(BookKey.fold(name));
+        if (user == null) throw new UserNotFoundException(name);
+        return user;
     }
-    
+
     /**
      * @param user the user to be removed.
      */
     public void removeUser (User user) {
-        this.users.remove(user);
+        this.removeUser(user.getName());
     }
-    
+
     /**
      * @param name the name of the user to be removed.
      */
     public void removeUser (String name) {
-        for (User u : this.users) {
-            if (u.getName().equals(name)) this.users.remove(u);
+        String folded = BookKey.fold(name);
+        long lsn = 0;
+        Lock lock = this.ownerLocks.get(folded);
+        lock.lock();
+        try {
+            this.checkLog();
+            WriteAheadLog log = this.log;
+            User removed = this.users.remove(folded);
+            if (removed != null && log != null) {
+                try {
+                    lsn = log.appendRemoveUser(name);
+                } catch (PersistenceException ex) {
+                    this.users.putIfAbsent(folded, removed);
+                    throw ex;
+                }
+            }
+        } finally {
+            lock.unlock();
         }
+        this.awaitDurable(lsn);
     }
-    
+
+    /**
+     * Replaces the credential of a user, such as with a stronger hash after
+     * a login, and logs the new credential.
+     * @param user the user whose credential is replaced.
+     * @param credential the new credential.
+     * @param expected the credential that is being replaced.
+     * @throws PersistenceException if the log rejected the new credential,
+     * which leaves the old one in place.
+     */
+    void replaceCredential(User user, Credential credential, Credential expected)
+            throws PersistenceException {
+        String name = BookKey.fold(user.getName());
+        long lsn = 0;
+        Lock lock = this.ownerLocks.get(name);
+        lock.lock();
+        try {
+            this.checkLog();
+            // a removed user is not logged; its credential no longer matters :
+            if (this.users.get(name) != user || ! user.setCredential(credential, expected)) return;
+            WriteAheadLog log = this.log;
+            if (log != null) {
+                try {
+                    lsn = log.appendSetCredential(user);
+                } catch (PersistenceException ex) {
+                    user.setCredential(expected, credential);
+                    throw ex;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+        this.awaitDurable(lsn);
+    }
+
+    /**
+     * Attaches a write-ahead log to the library. From then on, every mutation
+     * is logged and only returns once it is durable. Replay the log into the
+     * library before attaching it.
+     * @param log the log to attach, or NULL to stop logging.
+     */
+    public void setWriteAheadLog(WriteAheadLog log) {
+        this.log = log;
+    }
+
     /**
      * @param isbn the ISBN of the book.
      * @return the list of names of owners of the book with given ISBN.
      */
     public List<String> getOwnersForBook(String isbn) {
         List<String> owners = new ArrayList<>();
-        for (Book b : this.books) {
-            if (b.getISBN().equals(isbn)) owners.add(b.getOwner());
+        isbn = BookKey.normalize(isbn);
+        NavigableSet<String> copies = this.booksByISBN.get(isbn);
+        if (copies == null) return owners;
+        for (String owner : copies) {
+            Book book = this.books.get(new BookKey(isbn, owner));
+            if (book != null) owners.add(book.getOwner());
         }
         return owners;
     }
-    
+
+    /**
+     * Lists the owners of a book, ordered by case-folded name.
+     * @param isbn the ISBN of the book.
+     * @param cursor the cursor returned with the previous page, or NULL to
+     * start from the first owner.
+     * @param pageSize the maximal number of owners on the page.
+     * @return the page of owners following the given cursor.
+     * @throws IllegalArgumentException if the page size is invalid.
+     */
+    public Page<String> getOwnersForBook(String isbn, String cursor, int pageSize)
+            throws IllegalArgumentException {
+        int size = checkPageSize(pageSize);
+        List<String> page = new ArrayList<>(Math.min(size, 64));
+        isbn = BookKey.normalize(isbn);
+        NavigableSet<String> copies = this.booksByISBN.get(isbn);
+        if (copies == null) return new Page<>(page, null);
+        if (cursor != null) copies = copies.tailSet(cursor, false);
+        String last = null;
+        for (String owner : copies) {
+            if (page.size() == size) return new Page<>(page, last);
+            Book book = this.books.get(new BookKey(isbn, owner));
+            if (book == null) continue;
+            page.add(book.getOwner());
+            last = owner;
+        }
+        return new Page<>(page, null);
+    }
+
     /**
      * @param owner the owners to get the books from.
      * @return the list of books owned by a user given name.
      */
     public List<Book> getBooksForOwner(String owner) {
-        List<Book> booklist = new ArrayList<>();
-        for (Book b : this.books) {
-            if (b.getOwner().equals(owner)) booklist.add(b);
+        List<Book> books = new ArrayList<>();
+        NavigableSet<String> owned = this.booksByOwner.get(BookKey.fold(owner));
+        if (owned == null) return books;
+        for (String isbn : owned) this.collect(books, new BookKey(isbn, owner));
+        return books;
+    }
+
+    /**
+     * Lists the books of an owner, ordered by ISBN.
+     * @param owner the owner of the books.
+     * @param cursor the cursor returned with the previous page, or NULL to
+     * start from the first book.
+     * @param pageSize the maximal number of books on the page.
+     * @return the page of books following the given cursor.
+     * @throws IllegalArgumentException if the page size is invalid.
+     */
+    public Page<Book> getBooksForOwner(String owner, String cursor, int pageSize)
+            throws IllegalArgumentException {
+        int size = checkPageSize(pageSize);
+        List<Book> page = new ArrayList<>(Math.min(size, 64));
+        NavigableSet<String> owned = this.booksByOwner.get(BookKey.fold(owner));
+        if (owned == null) return new Page<>(page, null);
+        if (cursor != null) owned = owned.tailSet(cursor, false);
+        String last = null;
+        for (String isbn : owned) {
+            if (page.size() == size) return new Page<>(page, last);
+            if (this.collect(page, new BookKey(isbn, owner))) last = isbn;
+        }
+        return new Page<>(page, null);
+    }
+
+    /**
+     * Materializes a book from the store. A book that an index still refers
+     * to may have been removed from the store in the meantime.
+     * @param books the list to add the book to.
+     * @param key the key of the book.
+     * @return whether or not the book was still in the store.
+     */
+    private boolean collect(List<Book> books, BookKey key) {
+        Book book = this.books.get(key);
+        if (book == null) return false;
+        books.add(book);
+        return true;
+    }
+
+    /**
+     * Logs a book that was added and records the change. If the log rejects
+     * the record, the book is removed again. The caller must hold the lock
+     * of the owner.
+     * @param stored the key of the book as stored.
+     * @param book the book that was added.
+     * @return the LSN of the log record, or 0 if there is no log.
+     * @throws PersistenceException if the log failed or is closed.
+     */
+    private long logAddBook(BookKey stored, Book book) throws PersistenceException {
+        WriteAheadLog log = this.log;
+        long lsn = 0;
+        if (log != null) {
+            try {
+                lsn = log.appendAddBook(book);
+            } catch (PersistenceException ex) {
+                this.delete(stored);
+                throw ex;
+            }
+        }
+        // record the book as it is handed out, with its normalized ISBN :
+        this.changes.append(book.getISBN().equals(stored.getISBN()) ? book
+                : new Book(book.getTitle(), book.getAuthor(), book.getYear(),
+                        book.getRating(), stored.getISBN(), book.getOwner()), true);
+        return lsn;
+    }
+
+    /**
+     * Logs a book that was removed and records the change. If the log
+     * rejects the record, the book is added again. The caller must hold the
+     * lock of the owner.
+     * @param key the key of the book.
+     * @param book the book that was removed.
+     * @return the LSN of the log record, or 0 if there is no log.
+     * @throws PersistenceException if the log failed or is closed.
+     */
+    private long logRemoveBook(BookKey key, Book book) throws PersistenceException {
+        WriteAheadLog log = this.log;
+        long lsn = 0;
+        if (log != null) {
+            try {
+                lsn = log.appendRemoveBook(book);
+            } catch (PersistenceException ex) {
+                this.insert(key, book);
+                throw ex;
+            }
+        }
+        this.changes.append(book, false);
+        return lsn;
+    }
+
+    /**
+     * Fails a mutation before it changes anything if the log would reject
+     * its record anyway.
+     * @throws PersistenceException if the log failed or is closed.
+     */
+    private void checkLog() throws PersistenceException {
+        WriteAheadLog log = this.log;
+        if (log != null) log.checkWritable();
+    }
+
+    /**
+     * Waits until a log record is durable. Call this without holding locks,
+     * so that the records of concurrent writers are committed together.
+     * @param lsn the LSN of the log record, or 0 if nothing was logged.
+     */
+    private void awaitDurable(long lsn) {
+        WriteAheadLog log = this.log;
+        if (log != null && lsn > 0) log.await(lsn);
+    }
+
+    /**
+     * @param book a book.
+     * @return the rating of the book, with UNKNOWN for a book without rating.
+     */
+    private static Rating ratingOf(Book book) {
+        return book.getRating() == null ? Rating.UNKNOWN : book.getRating();
+    }
+
+    /**
+     * @param pageSize the requested page size.
+     * @return the page size, capped at the maximal page size.
+     * @throws IllegalArgumentException if the page size is not positive.
+     */
+    private static int checkPageSize(int pageSize) throws IllegalArgumentException {
+        if (pageSize < 1)
+            throw new IllegalArgumentException("The page size must be greater than zero.");
+        return Math.min(pageSize, Page.MAX_SIZE);
+    }
+
+    /**
+     * Adds a book to a two-level secondary index. The caller must hold the
+     * lock guarding the outer key.
+     * @param index the index to add the book to.
+     * @param outer the key of the bucket.
+     * @param inner the key of the book within its bucket.
+     */
+    private static void index(ConcurrentMap<String, NavigableSet<String>> index,
+            String outer, String inner) {
+        NavigableSet<String> bucket = index.get(outer);
+        if (bucket == null) {
+            bucket = new ConcurrentSkipListSet<>();
+            index.put(outer, bucket);
+        }
+        bucket.add(inner);
+    }
+
+    /**
+     * Removes a book from a two-level secondary index, dropping empty buckets.
+     * The caller must hold the lock guarding the outer key.
+     * @param index the index to remove the book from.
+     * @param outer the key of the bucket.
+     * @param inner the key of the book within its bucket.
+     */
+    private static void unindex(ConcurrentMap<String, NavigableSet<String>> index,
+            String outer, String inner) {
+        NavigableSet<String> bucket = index.get(outer);
+        if (bucket == null) return;
+        bucket.remove(inner);
+        if (bucket.isEmpty()) index.remove(outer);
+    }
+
+    /**
+     * The current position in the year-sorted index of one rating, used to
+     * merge the indexes of several ratings in year order.
+     */
+    private static final class RangeCursor implements Comparable<RangeCursor> {
+
+        private final Iterator<YearKey> iterator;
+        private YearKey current;
+
+        RangeCursor(Iterator<YearKey> iterator) {
+            this.iterator = iterator;
+        }
+
+        /**
+         * @return whether or not the cursor moved to a next book.
+         */
+        boolean advance() {
+            if (! this.iterator.hasNext()) return false;
+            this.current = this.iterator.next();
+            return true;
+        }
+
+        @Override
+        public int compareTo(RangeCursor c) {
+            return this.current.compareTo(c.current);
         }
-        return booklist;
     }
 }
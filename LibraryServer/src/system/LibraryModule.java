@@ -4,15 +4,29 @@ import exceptions.AuthorizationException;
 import exceptions.BookNotFoundException;
 import exceptions.DuplicateException;
 import java.rmi.RemoteException;
+import java.rmi.server.RMIClientSocketFactory;
+import java.rmi.server.RMIServerSocketFactory;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Set;
+import remote.IRemoteBookStream;
+import remote.IRemoteLibraryListener;
 import remote.IRemoteLibraryModule;
 import remote.IRemoteSessionModule;
 import args.Book;
+import args.BookList;
+import args.ChangeSet;
+import args.MutationResult;
+import args.Page;
+import args.Rating;
 import args.Session;
 
 /**
- * Implementation for the IRemoteLibraryModule. The LibraryModule is stateless.
- * The module allows to perform certain operations on the library.
+ * Implementation for the IRemoteLibraryModule. The LibraryModule is stateless,
+ * apart from the listeners of clients that it pushes changes to.
+ * The module allows to perform certain operations on the library. Books are
+ * returned in book lists, which have a compact serialized form.
  * 
  * @author Joris Schelfaut
  */
@@ -20,6 +34,10 @@ public class LibraryModule implements IRemoteLibraryModule {
     
     private final Library library;
     private final IRemoteSessionModule sessionModule;
+    private final int port;
+    private final RMIClientSocketFactory clientSocketFactory;
+    private final RMIServerSocketFactory serverSocketFactory;
+    private final ChangeNotifier notifier;
 
     /**
      * Instantiates a new LibraryModule object.
@@ -27,8 +45,27 @@ public class LibraryModule implements IRemoteLibraryModule {
      * @param irsm the session module used for authorization.
      */
     public LibraryModule(Library library, IRemoteSessionModule irsm) {
+        this(library, irsm, 0, null, null);
+    }
+
+    /**
+     * Instantiates a new LibraryModule object whose book streams are exported
+     * on the given port with the given socket factories, which should be the
+     * ones the module itself is exported with.
+     * @param library the library that is managed by the LibraryModule instance.
+     * @param irsm the session module used for authorization.
+     * @param port the port to export book streams on, or 0 for any port.
+     * @param csf the client socket factory, or NULL for plain sockets.
+     * @param ssf the server socket factory, or NULL for plain sockets.
+     */
+    public LibraryModule(Library library, IRemoteSessionModule irsm, int port,
+            RMIClientSocketFactory csf, RMIServerSocketFactory ssf) {
         this.library = library;
         this.sessionModule = irsm;
+        this.port = port;
+        this.clientSocketFactory = csf;
+        this.serverSocketFactory = ssf;
+        this.notifier = new ChangeNotifier(library);
     }
 
     @Override
@@ -41,6 +78,28 @@ public class LibraryModule implements IRemoteLibraryModule {
         this.library.addBook(book);
     }
     
+    @Override
+    public List<MutationResult> addBooks(List<Book> books, Session session)
+            throws RemoteException, AuthorizationException {
+        if (! this.sessionModule.isAuthenticated(session))
+            throw new AuthorizationException(session);
+        List<Book> owned = new ArrayList<>(books.size());
+        for (Book book : books) {
+            if (book != null && book.getOwner().equalsIgnoreCase(session.getUsername()))
+                owned.add(book);
+        }
+        List<MutationResult> added = this.library.addBooks(owned);
+        List<MutationResult> results = new ArrayList<>(books.size());
+        int i = 0;
+        for (Book book : books) {
+            if (book == null) results.add(MutationResult.INVALID);
+            else if (! book.getOwner().equalsIgnoreCase(session.getUsername()))
+                results.add(MutationResult.UNAUTHORIZED);
+            else results.add(added.get(i++));
+        }
+        return results;
+    }
+    
     @Override
     public void removeBook(Book book, Session session) throws RemoteException,
             AuthorizationException {
@@ -64,6 +123,14 @@ public class LibraryModule implements IRemoteLibraryModule {
         this.library.removeBook(isbn, session.getUsername());
     }
 
+    @Override
+    public List<MutationResult> removeBooks(List<String> isbns, Session session)
+            throws RemoteException, AuthorizationException {
+        if (! this.sessionModule.isAuthenticated(session))
+            throw new AuthorizationException(session);
+        return this.library.removeBooks(session.getUsername(), isbns);
+    }
+
     @Override
     public Book lookupBook(String isbn, String owner)
             throws RemoteException, BookNotFoundException {
@@ -72,7 +139,25 @@ public class LibraryModule implements IRemoteLibraryModule {
 
     @Override
     public List<Book> getBooks() throws RemoteException {
-        return this.library.getBooks();
+        return new BookList(this.library.getBooks());
+    }
+
+    @Override
+    public Page<Book> getBooks(String cursor, int pageSize)
+            throws RemoteException, IllegalArgumentException {
+        return compact(this.library.getBooks(cursor, pageSize));
+    }
+
+    @Override
+    public List<Book> searchBooks(String query, int limit)
+            throws RemoteException, IllegalArgumentException {
+        return new BookList(this.library.searchBooks(query, limit));
+    }
+
+    @Override
+    public Page<Book> findBooks(int yearFrom, int yearTo, Set<Rating> ratings,
+            String cursor, int pageSize) throws RemoteException, IllegalArgumentException {
+        return compact(this.library.findBooks(yearFrom, yearTo, ratings, cursor, pageSize));
     }
 
     @Override
@@ -80,8 +165,63 @@ public class LibraryModule implements IRemoteLibraryModule {
         return this.library.getOwnersForBook(isbn);
     }
 
+    @Override
+    public Page<String> getOwnersForBook(String isbn, String cursor, int pageSize)
+            throws RemoteException, IllegalArgumentException {
+        return this.library.getOwnersForBook(isbn, cursor, pageSize);
+    }
+
     @Override
     public List<Book> getBooksForOwner(String owner) throws RemoteException {
-        return this.library.getBooksForOwner(owner);
+        return new BookList(this.library.getBooksForOwner(owner));
+    }
+
+    @Override
+    public Page<Book> getBooksForOwner(String owner, String cursor, int pageSize)
+            throws RemoteException, IllegalArgumentException {
+        return compact(this.library.getBooksForOwner(owner, cursor, pageSize));
+    }
+
+    @Override
+    public ChangeSet getChangesSince(long version) throws RemoteException {
+        return compact(this.library.getChangesSince(version));
+    }
+
+    @Override
+    public void addLibraryListener(IRemoteLibraryListener listener, long version)
+            throws RemoteException, NullPointerException {
+        if (listener == null) throw new NullPointerException("The listener resolved as NULL.");
+        this.notifier.subscribe(listener, version);
+    }
+
+    @Override
+    public void removeLibraryListener(IRemoteLibraryListener listener) throws RemoteException {
+        if (listener != null) this.notifier.unsubscribe(listener);
+    }
+
+    @Override
+    public IRemoteBookStream openBookStream(int chunkSize)
+            throws RemoteException, IllegalArgumentException {
+        BookStream stream = new BookStream(this.library, chunkSize);
+        return (IRemoteBookStream) UnicastRemoteObject.exportObject(stream, this.port,
+                this.clientSocketFactory, this.serverSocketFactory);
+    }
+
+    /**
+     * @param changes a change set.
+     * @return the same change set, with its books in book lists.
+     */
+    static ChangeSet compact(ChangeSet changes) {
+        if (changes.isResyncRequired()) return changes;
+        return new ChangeSet(changes.getVersion(), new BookList(changes.getAdded()),
+                new BookList(changes.getRemoved()));
+    }
+
+    /**
+     * @param page a page of books.
+     * @return the same page, with its books in a book list.
+     */
+    private static Page<Book> compact(Page<Book> page) {
+        return new Page<>(new BookList(page.getItems()), page.getNextCursor());
     }
 }
\ No newline at end of file
@@ -0,0 +1,492 @@
+package system;
+
+import args.Book;
+import args.ISBN;
+import args.Rating;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * The OffHeapBookStore class keeps the books of a library outside the Java
+ * heap, so that a large catalogue does not lengthen garbage collections.
+ *
+ * Every book is a fixed-size record of 32 bytes in a direct buffer : the
+ * packed ISBN, a reference to the title, the numbers of the author and the
+ * owner in their dictionaries, the year and the rating. Titles are stored
+ * as UTF-8 in off-heap text segments; the space of removed titles is
+ * reclaimed once it makes up half of the text. Records are found through an
+ * open-addressing hash table, also off-heap, keyed by packed ISBN and owner.
+ * Only the author and owner dictionaries live on the heap, and they grow
+ * with the number of distinct names in use rather than with the number of
+ * books; a name is dropped when its last book is removed, and its number is
+ * given to the next new name.
+ *
+ * The store is split into stripes by packed ISBN, each with its own records,
+ * hash table, titles and dictionaries. Lookups share the read lock of their
+ * stripe and mutations take its write lock, so that mutations of books with
+ * different ISBNs seldom wait for each other, like on the heap. Direct
+ * memory is limited by -XX:MaxDirectMemorySize.
+ */
+final class OffHeapBookStore implements BookStore {
+
+    private static final int STRIPE_BITS = 4;
+    private static final int RECORD_SIZE = 32;
+    private static final int PACKED_ISBN = 0;
+    private static final int TITLE = 8;
+    private static final int AUTHOR = 16;
+    private static final int OWNER = 20;
+    private static final int YEAR = 24;
+    private static final int RATING = 28;
+    private static final int SEGMENT_SHIFT = 12;
+    private static final int SEGMENT_RECORDS = 1 << SEGMENT_SHIFT;
+    private static final int INITIAL_CAPACITY = 1 << 8;
+    private static final Rating[] RATINGS = Rating.values();
+
+    private final Stripe[] stripes;
+
+    OffHeapBookStore() {
+        super();
+        this.stripes = new Stripe[1 << STRIPE_BITS];
+        for (int i = 0; i < this.stripes.length; i++) this.stripes[i] = new Stripe();
+    }
+
+    @Override
+    public Book get(BookKey key) {
+        long isbn = ISBN.pack(key.getISBN());
+        return isbn < 0 ? null : this.stripeOf(isbn).get(isbn, key);
+    }
+
+    @Override
+    public BookKey add(BookKey key, Book book) {
+        long isbn = ISBN.pack(key.getISBN());
+        if (isbn < 0)
+            throw new IllegalArgumentException("The ISBN did not have the correct format.");
+        return this.stripeOf(isbn).add(isbn, key, book);
+    }
+
+    @Override
+    public Book remove(BookKey key) {
+        long isbn = ISBN.pack(key.getISBN());
+        return isbn < 0 ? null : this.stripeOf(isbn).remove(isbn, key);
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : this.stripes) size += stripe.size;
+        return size;
+    }
+
+    /**
+     * @param isbn a packed ISBN.
+     * @return the stripe holding the books with the ISBN.
+     */
+    private Stripe stripeOf(long isbn) {
+        return this.stripes[(int) ((isbn * 0x9E3779B97F4A7C15L) >>> (64 - STRIPE_BITS))];
+    }
+
+    /**
+     * @param record the number of a record.
+     * @return the offset of the record within its segment.
+     */
+    private static int offset(int record) {
+        return (record & (SEGMENT_RECORDS - 1)) * RECORD_SIZE;
+    }
+
+    /**
+     * @param isbn a packed ISBN.
+     * @param owner the number of a case-folded owner.
+     * @return the hash of the key.
+     */
+    private static int hash(long isbn, int owner) {
+        long h = (isbn ^ ((long) owner << 40)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @param capacity the number of slots, a power of two.
+     * @return an empty off-heap hash table.
+     */
+    private static IntBuffer allocateTable(int capacity) {
+        return ByteBuffer.allocateDirect(4 * capacity).asIntBuffer();
+    }
+
+    /**
+     * A part of the store with its own lock, records, hash table, titles and
+     * dictionaries.
+     */
+    private static final class Stripe {
+
+        private final Lock readLock;
+        private final Lock writeLock;
+        private final List<ByteBuffer> segments;
+        private final Dictionary authors;
+        private final Dictionary owners;
+        private final Dictionary foldedOwners;
+        private int[] foldedOf;
+        private TextArena titles;
+        private IntBuffer table;
+        private int mask;
+        private int[] free;
+        private int freeCount;
+        private int records;
+        private volatile int size;
+
+        Stripe() {
+            super();
+            ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+            this.readLock = lock.readLock();
+            this.writeLock = lock.writeLock();
+            this.segments = new ArrayList<>();
+            this.authors = new Dictionary();
+            this.owners = new Dictionary();
+            this.foldedOwners = new Dictionary();
+            this.foldedOf = new int[16];
+            this.titles = new TextArena();
+            this.table = allocateTable(INITIAL_CAPACITY);
+            this.mask = INITIAL_CAPACITY - 1;
+            this.free = new int[16];
+        }
+
+        /**
+         * @param isbn the packed ISBN of the book.
+         * @param key the key of the book.
+         * @return the book with the given key, or NULL if there is none.
+         */
+        Book get(long isbn, BookKey key) {
+            this.readLock.lock();
+            try {
+                int owner = this.foldedOwners.find(key.getOwner());
+                if (owner < 0) return null;
+                int slot = this.slotOf(isbn, owner);
+                return slot < 0 ? null : this.materialize(this.table.get(slot) - 1);
+            } finally {
+                this.readLock.unlock();
+            }
+        }
+
+        /**
+         * @param isbn the packed ISBN of the book.
+         * @param key the key of the book.
+         * @param book the book to be added.
+         * @return the key, or NULL if the key was taken.
+         */
+        BookKey add(long isbn, BookKey key, Book book) {
+            this.writeLock.lock();
+            try {
+                int known = this.foldedOwners.find(key.getOwner());
+                if (known >= 0 && this.slotOf(isbn, known) >= 0) return null;
+                int folded = this.foldedOwners.acquire(key.getOwner());
+                int owner = this.owners.acquire(book.getOwner());
+                if (owner >= this.foldedOf.length)
+                    this.foldedOf = Arrays.copyOf(this.foldedOf, 2 * owner);
+                this.foldedOf[owner] = folded;
+
+                int record = this.allocate();
+                ByteBuffer segment = this.segment(record);
+                int offset = offset(record);
+                Rating rating = book.getRating();
+                segment.putLong(offset + PACKED_ISBN, isbn);
+                segment.putLong(offset + TITLE, this.titles.put(book.getTitle()));
+                segment.putInt(offset + AUTHOR, this.authors.acquire(book.getAuthor()));
+                segment.putInt(offset + OWNER, owner);
+                segment.putInt(offset + YEAR, book.getYear());
+                segment.put(offset + RATING, (byte) (rating == null ? 0 : rating.ordinal() + 1));
+
+                if (2 * (this.size + 1) > this.mask + 1) this.resize();
+                this.place(record);
+                this.size++;
+                return key;
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+
+        /**
+         * @param isbn the packed ISBN of the book.
+         * @param key the key of the book.
+         * @return the removed book, or NULL if there was no such book.
+         */
+        Book remove(long isbn, BookKey key) {
+            this.writeLock.lock();
+            try {
+                int owner = this.foldedOwners.find(key.getOwner());
+                if (owner < 0) return null;
+                int slot = this.slotOf(isbn, owner);
+                if (slot < 0) return null;
+                int record = this.table.get(slot) - 1;
+                Book book = this.materialize(record);
+                ByteBuffer segment = this.segment(record);
+                int offset = offset(record);
+                this.titles.release(segment.getLong(offset + TITLE));
+                this.authors.release(segment.getInt(offset + AUTHOR));
+                this.owners.release(segment.getInt(offset + OWNER));
+                this.foldedOwners.release(owner);
+                this.unplace(slot);
+                if (this.freeCount == this.free.length)
+                    this.free = Arrays.copyOf(this.free, 2 * this.free.length);
+                this.free[this.freeCount++] = record;
+                this.size--;
+                if (this.titles.isSparse()) this.compactTitles();
+                return book;
+            } finally {
+                this.writeLock.unlock();
+            }
+        }
+
+        /**
+         * @param record the number of a record.
+         * @return the book stored in the record.
+         */
+        private Book materialize(int record) {
+            ByteBuffer segment = this.segment(record);
+            int offset = offset(record);
+            int rating = segment.get(offset + RATING);
+            return new Book(this.titles.get(segment.getLong(offset + TITLE)),
+                    this.authors.name(segment.getInt(offset + AUTHOR)),
+                    segment.getInt(offset + YEAR),
+                    rating == 0 ? null : RATINGS[rating - 1],
+                    ISBN.unpack(segment.getLong(offset + PACKED_ISBN)),
+                    this.owners.name(segment.getInt(offset + OWNER)));
+        }
+
+        /**
+         * @param isbn a packed ISBN.
+         * @param owner the number of a case-folded owner.
+         * @return the slot of the hash table holding the record, or -1.
+         */
+        private int slotOf(long isbn, int owner) {
+            for (int slot = hash(isbn, owner) & this.mask; ; slot = (slot + 1) & this.mask) {
+                int entry = this.table.get(slot);
+                if (entry == 0) return -1;
+                ByteBuffer segment = this.segment(entry - 1);
+                int offset = offset(entry - 1);
+                if (segment.getLong(offset + PACKED_ISBN) == isbn
+                        && this.foldedOf[segment.getInt(offset + OWNER)] == owner)
+                    return slot;
+            }
+        }
+
+        /**
+         * @param record the number of a record.
+         * @return the slot of the hash table the record hashes to.
+         */
+        private int home(int record) {
+            ByteBuffer segment = this.segment(record);
+            int offset = offset(record);
+            return hash(segment.getLong(offset + PACKED_ISBN),
+                    this.foldedOf[segment.getInt(offset + OWNER)]) & this.mask;
+        }
+
+        /**
+         * @param record the number of a record to enter in the hash table.
+         */
+        private void place(int record) {
+            int slot = this.home(record);
+            while (this.table.get(slot) != 0) slot = (slot + 1) & this.mask;
+            this.table.put(slot, record + 1);
+        }
+
+        /**
+         * Empties a slot of the hash table, and moves later entries of the same
+         * probe sequence back so that no lookup stops short of them.
+         * @param slot the slot to empty.
+         */
+        private void unplace(int slot) {
+            int hole = slot;
+            this.table.put(hole, 0);
+            for (int next = (hole + 1) & this.mask; ; next = (next + 1) & this.mask) {
+                int entry = this.table.get(next);
+                if (entry == 0) return;
+                int home = this.home(entry - 1);
+                boolean reachable = hole <= next
+                        ? home <= hole || home > next
+                        : home <= hole && home > next;
+                if (reachable) {
+                    this.table.put(hole, entry);
+                    this.table.put(next, 0);
+                    hole = next;
+                }
+            }
+        }
+
+        /**
+         * Doubles the capacity of the hash table.
+         */
+        private void resize() {
+            IntBuffer old = this.table;
+            int capacity = 2 * (this.mask + 1);
+            this.table = allocateTable(capacity);
+            this.mask = capacity - 1;
+            for (int slot = 0; slot < old.capacity(); slot++) {
+                int entry = old.get(slot);
+                if (entry != 0) this.place(entry - 1);
+            }
+        }
+
+        /**
+         * Copies the titles of all records to a new text arena, dropping the
+         * space of removed titles.
+         */
+        private void compactTitles() {
+            TextArena compacted = new TextArena();
+            for (int slot = 0; slot <= this.mask; slot++) {
+                int entry = this.table.get(slot);
+                if (entry == 0) continue;
+                ByteBuffer segment = this.segment(entry - 1);
+                int offset = offset(entry - 1) + TITLE;
+                segment.putLong(offset, compacted.put(this.titles.get(segment.getLong(offset))));
+            }
+            this.titles = compacted;
+        }
+
+        /**
+         * @return the number of a free record.
+         */
+        private int allocate() {
+            if (this.freeCount > 0) return this.free[--this.freeCount];
+            if ((this.records & (SEGMENT_RECORDS - 1)) == 0)
+                this.segments.add(ByteBuffer.allocateDirect(SEGMENT_RECORDS * RECORD_SIZE));
+            return this.records++;
+        }
+
+        /**
+         * @param record the number of a record.
+         * @return the segment holding the record.
+         */
+        private ByteBuffer segment(int record) {
+            return this.segments.get(record >>> SEGMENT_SHIFT);
+        }
+    }
+
+    /**
+     * Numbers distinct names, so that records can refer to them by number.
+     * Every name counts the records that use it; a name that is no longer
+     * used is dropped, and its number is reused.
+     */
+    private static final class Dictionary {
+
+        private final Map<String, Integer> ids = new HashMap<>();
+        private final List<String> names = new ArrayList<>();
+        private int[] uses = new int[16];
+        private int[] free = new int[16];
+        private int freeCount;
+
+        /**
+         * @param name a name, which a record will use until release is called.
+         * @return the number of the name, which is added if it is new.
+         */
+        int acquire(String name) {
+            Integer known = this.ids.get(name);
+            int id;
+            if (known != null) {
+                id = known;
+            } else if (this.freeCount > 0) {
+                id = this.free[--this.freeCount];
+                this.ids.put(name, id);
+                this.names.set(id, name);
+            } else {
+                id = this.names.size();
+                this.ids.put(name, id);
+                this.names.add(name);
+                if (id == this.uses.length) this.uses = Arrays.copyOf(this.uses, 2 * id);
+            }
+            this.uses[id]++;
+            return id;
+        }
+
+        /**
+         * @param id the number of a name that a record no longer uses.
+         */
+        void release(int id) {
+            if (--this.uses[id] > 0) return;
+            this.ids.remove(this.names.set(id, null));
+            if (this.freeCount == this.free.length)
+                this.free = Arrays.copyOf(this.free, 2 * this.free.length);
+            this.free[this.freeCount++] = id;
+        }
+
+        /**
+         * @param name a name.
+         * @return the number of the name, or -1 if it is not known.
+         */
+        int find(String name) {
+            Integer id = this.ids.get(name);
+            return id == null ? -1 : id;
+        }
+
+        /**
+         * @param id the number of a name.
+         * @return the name.
+         */
+        String name(int id) {
+            return this.names.get(id);
+        }
+    }
+
+    /**
+     * Stores strings as a length and UTF-8 bytes in off-heap segments. A
+     * string is referred to by its segment number (high half) and offset.
+     */
+    private static final class TextArena {
+
+        private static final int SEGMENT_SIZE = 1 << 18;
+
+        private final List<ByteBuffer> segments = new ArrayList<>();
+        private long used;
+        private long released;
+
+        /**
+         * @param text the string to store.
+         * @return the reference to the stored string.
+         */
+        long put(String text) {
+            byte[] bytes = text.getBytes(StandardCharsets.UTF_8);
+            int needed = 4 + bytes.length;
+            ByteBuffer segment = this.segments.isEmpty() ? null
+                    : this.segments.get(this.segments.size() - 1);
+            if (segment == null || segment.remaining() < needed) {
+                segment = ByteBuffer.allocateDirect(Math.max(SEGMENT_SIZE, needed));
+                this.segments.add(segment);
+            }
+            long reference = ((long) (this.segments.size() - 1) << 32) | segment.position();
+            segment.putInt(bytes.length).put(bytes);
+            this.used += needed;
+            return reference;
+        }
+
+        /**
+         * @param reference the reference to a stored string.
+         * @return the string.
+         */
+        String get(long reference) {
+            ByteBuffer segment = this.segments.get((int) (reference >>> 32)).duplicate();
+            segment.position((int) reference);
+            byte[] bytes = new byte[segment.getInt()];
+            segment.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        /**
+         * @param reference the reference to a string that is no longer used.
+         */
+        void release(long reference) {
+            this.released += 4 + this.segments.get((int) (reference >>> 32)).getInt((int) reference);
+        }
+
+        /**
+         * @return whether or not released strings take up half of the arena.
+         */
+        boolean isSparse() {
+            return this.used > SEGMENT_SIZE && 2 * this.released > this.used;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package system;
+
+/**
+ * A PasswordScheme hashes passwords for storage. Schemes are identified by
+ * name in the stored credentials, so a credential can be verified with the
+ * scheme it was created with and upgraded to a stronger one.
+ */
+public interface PasswordScheme {
+
+    /**
+     * @return the name of the scheme, as used in stored credentials.
+     */
+    public String getName();
+
+    /**
+     * @return the number of random salt bytes per credential, or 0 if the
+     * scheme does not use a salt.
+     */
+    public int getSaltLength();
+
+    /**
+     * @return the cost of new credentials, such as a number of iterations,
+     * or 0 if the scheme has no cost parameter.
+     */
+    public int getCost();
+
+    /**
+     * @param salt the salt of the credential.
+     * @param cost the cost of the credential.
+     * @param password the UTF-8 encoded password.
+     * @return the hash of the salted password.
+     */
+    public byte[] hash(byte[] salt, int cost, byte[] password);
+}
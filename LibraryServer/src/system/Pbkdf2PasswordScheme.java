@@ -0,0 +1,90 @@
+package system;
+
+import java.nio.charset.StandardCharsets;
+import java.security.NoSuchAlgorithmException;
+import java.security.spec.InvalidKeySpecException;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+/**
+ * A PasswordScheme that derives the hash from the password with PBKDF2 and
+ * HMAC-SHA256. The cost of a credential is its number of iterations, which
+ * is stored with it, so that credentials keep verifying after the number of
+ * iterations for new credentials was raised. Every thread reuses its own key
+ * factory.
+ */
+public final class Pbkdf2PasswordScheme implements PasswordScheme {
+
+    /**
+     * The number of iterations for new credentials, as recommended for
+     * PBKDF2-HMAC-SHA256 by OWASP.
+     */
+    public static final int DEFAULT_ITERATIONS = 600000;
+    /**
+     * PBKDF2 with HMAC-SHA256, a 16-byte random salt, a 32-byte hash and the
+     * default number of iterations.
+     */
+    public static final Pbkdf2PasswordScheme PBKDF2_SHA256
+            = new Pbkdf2PasswordScheme("PBKDF2-SHA256", DEFAULT_ITERATIONS);
+
+    private static final int SALT_LENGTH = 16;
+    private static final int HASH_BITS = 256;
+
+    private final String name;
+    private final int iterations;
+    private final ThreadLocal<SecretKeyFactory> factories;
+
+    /**
+     * @param name the name of the scheme.
+     * @param iterations the number of iterations for new credentials.
+     * @throws IllegalArgumentException if the number of iterations is not
+     * positive or PBKDF2WithHmacSHA256 is not available.
+     */
+    public Pbkdf2PasswordScheme(String name, int iterations) throws IllegalArgumentException {
+        super();
+        if (iterations < 1)
+            throw new IllegalArgumentException("The number of iterations must be positive.");
+        this.name = name;
+        this.iterations = iterations;
+        this.factories = new ThreadLocal<SecretKeyFactory>() {
+            @Override
+            protected SecretKeyFactory initialValue() {
+                try {
+                    return SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
+                } catch (NoSuchAlgorithmException ex) {
+                    throw new IllegalArgumentException(ex);
+                }
+            }
+        };
+        // fail early if the algorithm is not available :
+        this.factories.get();
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public int getSaltLength() {
+        return SALT_LENGTH;
+    }
+
+    @Override
+    public int getCost() {
+        return iterations;
+    }
+
+    @Override
+    public byte[] hash(byte[] salt, int cost, byte[] password) {
+        PBEKeySpec spec = new PBEKeySpec(new String(password, StandardCharsets.UTF_8).toCharArray(),
+                salt, cost, HASH_BITS);
+        try {
+            return this.factories.get().generateSecret(spec).getEncoded();
+        } catch (InvalidKeySpecException ex) {
+            throw new IllegalArgumentException(ex);
+        } finally {
+            spec.clearPassword();
+        }
+    }
+}
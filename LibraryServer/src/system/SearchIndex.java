@@ -0,0 +1,300 @@
+package system;
+
+import args.Book;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * The SearchIndex class is an inverted index over the titles and authors of
+ * the books in the library. Titles and authors are split into lower-case
+ * tokens of letters and digits, and every token maps onto the books it occurs
+ * in, together with a weight : a match in the title counts for more than a
+ * match in the author.
+ *
+ * The books of a token are kept in a hash map to their weight, which answers
+ * whether a book has the token, and in one sorted set per weight. A query
+ * intersects the tokens starting from the one with the fewest books, heaviest
+ * weight first, and stops as soon as no remaining book can make it into the
+ * results; a query for common words therefore costs about as much as the
+ * number of results, rather than the number of books with those words.
+ *
+ * The index is safe for concurrent use. Queries never lock; updates lock the
+ * stripes of the tokens they touch.
+ */
+final class SearchIndex {
+
+    private static final int TITLE_WEIGHT = 2;
+    private static final int AUTHOR_WEIGHT = 1;
+    private static final int MAX_WEIGHT = TITLE_WEIGHT + AUTHOR_WEIGHT;
+    private static final int LOCK_STRIPES = 64;
+
+    /**
+     * Orders candidates from worst to best match.
+     */
+    private static final Comparator<Map.Entry<BookKey, Integer>> RANKING
+            = new Comparator<Map.Entry<BookKey, Integer>>() {
+        @Override
+        public int compare(Map.Entry<BookKey, Integer> a, Map.Entry<BookKey, Integer> b) {
+            int c = a.getValue().compareTo(b.getValue());
+            if (c != 0) return c;
+            return b.getKey().compareTo(a.getKey());
+        }
+    };
+
+    /**
+     * Orders tokens by their number of books, fewest first.
+     */
+    private static final Comparator<Posting> RARITY = new Comparator<Posting>() {
+        @Override
+        public int compare(Posting a, Posting b) {
+            return Integer.compare(a.size(), b.size());
+        }
+    };
+
+    private final ConcurrentMap<String, Posting> postings;
+    private final StripedLock tokenLocks;
+
+    SearchIndex() {
+        super();
+        this.postings = new ConcurrentHashMap<>();
+        this.tokenLocks = new StripedLock(LOCK_STRIPES);
+    }
+
+    /**
+     * @param key the key of the book to be indexed.
+     * @param book the book to be indexed.
+     */
+    void add(BookKey key, Book book) {
+        for (Map.Entry<String, Integer> token : weigh(book).entrySet()) {
+            Lock lock = this.tokenLocks.get(token.getKey());
+            lock.lock();
+            try {
+                Posting books = this.postings.get(token.getKey());
+                if (books == null) {
+                    books = new Posting();
+                    this.postings.put(token.getKey(), books);
+                }
+                books.add(key, token.getValue());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * @param key the key of the book to be removed from the index.
+     * @param book the book to be removed from the index.
+     */
+    void remove(BookKey key, Book book) {
+        for (Map.Entry<String, Integer> token : weigh(book).entrySet()) {
+            Lock lock = this.tokenLocks.get(token.getKey());
+            lock.lock();
+            try {
+                Posting books = this.postings.get(token.getKey());
+                if (books == null) continue;
+                books.remove(key, token.getValue());
+                if (books.size() == 0) this.postings.remove(token.getKey());
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Lists the contents of the index, to check it against the library. The
+     * result is only consistent while the index is not updated.
+     * @return for every indexed book, its tokens with their weights.
+     */
+    Map<BookKey, Map<String, Integer>> entries() {
+        Map<BookKey, Map<String, Integer>> entries = new HashMap<>();
+        for (Map.Entry<String, Posting> token : this.postings.entrySet()) {
+            for (int weight = MAX_WEIGHT; weight > 0; weight--) {
+                for (BookKey book : token.getValue().tier(weight)) {
+                    Map<String, Integer> weights = entries.get(book);
+                    if (weights == null) {
+                        weights = new HashMap<>();
+                        entries.put(book, weights);
+                    }
+                    weights.put(token.getKey(), weight);
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Finds the books that contain every token of the query, with the highest
+     * sum of weights first. Books with the same score are ordered by ISBN and
+     * owner.
+     * @param query the words to search for.
+     * @param limit the maximal number of results.
+     * @return the keys of the best matching books, best match first.
+     * @throws IllegalArgumentException if the query resolves as NULL.
+     */
+    List<BookKey> search(String query, int limit) throws IllegalArgumentException {
+        if (query == null) throw new IllegalArgumentException("The query resolved as NULL.");
+        List<Posting> others = new ArrayList<>();
+        for (String token : tokenize(query)) {
+            Posting books = this.postings.get(token);
+            if (books == null) return new ArrayList<>();
+            others.add(books);
+        }
+        if (others.isEmpty()) return new ArrayList<>();
+        Posting rarest = Collections.min(others, RARITY);
+        others.remove(rarest);
+        int rest = 0;
+        for (Posting books : others) rest += books.maxWeight();
+
+        // the head of the queue is the worst of the best books seen so far :
+        PriorityQueue<Map.Entry<BookKey, Integer>> best = new PriorityQueue<>(limit + 1, RANKING);
+        for (int weight = MAX_WEIGHT; weight > 0; weight--) {
+            int bound = weight + rest;
+            for (BookKey key : rarest.tier(weight)) {
+                // the books of a tier come in order, so once a book cannot
+                // beat the worst result, neither can the ones after it :
+                if (best.size() == limit && (bound < best.peek().getValue()
+                        || (bound == best.peek().getValue() && key.compareTo(best.peek().getKey()) > 0)))
+                    break;
+                int score = weight;
+                for (Posting books : others) {
+                    int other = books.weightOf(key);
+                    if (other == 0) {
+                        score = 0;
+                        break;
+                    }
+                    score += other;
+                }
+                if (score == 0) continue;
+                Map.Entry<BookKey, Integer> candidate = new AbstractMap.SimpleImmutableEntry<>(key, score);
+                if (best.size() < limit) {
+                    best.add(candidate);
+                } else if (RANKING.compare(candidate, best.peek()) > 0) {
+                    best.poll();
+                    best.add(candidate);
+                }
+            }
+        }
+        List<BookKey> result = new ArrayList<>(best.size());
+        while (! best.isEmpty()) result.add(best.poll().getKey());
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * The books of one token, by key and in a sorted set per weight. The
+     * caller of an update must hold the lock of the token.
+     */
+    private static final class Posting {
+
+        private final ConcurrentMap<BookKey, Integer> weights;
+        private final List<NavigableSet<BookKey>> tiers;
+
+        Posting() {
+            this.weights = new ConcurrentHashMap<>();
+            this.tiers = new ArrayList<>(MAX_WEIGHT + 1);
+            for (int weight = 0; weight <= MAX_WEIGHT; weight++)
+                this.tiers.add(new ConcurrentSkipListSet<BookKey>());
+        }
+
+        /**
+         * @param key the key of a book.
+         * @param weight the weight of the token in the book.
+         */
+        void add(BookKey key, int weight) {
+            Integer previous = this.weights.put(key, weight);
+            if (previous != null) this.tiers.get(previous).remove(key);
+            this.tiers.get(weight).add(key);
+        }
+
+        /**
+         * @param key the key of a book.
+         * @param weight the weight of the token in the book.
+         */
+        void remove(BookKey key, int weight) {
+            this.weights.remove(key);
+            this.tiers.get(weight).remove(key);
+        }
+
+        /**
+         * @param weight a weight.
+         * @return the books in which the token has the given weight, in order.
+         */
+        NavigableSet<BookKey> tier(int weight) {
+            return this.tiers.get(weight);
+        }
+
+        /**
+         * @param key the key of a book.
+         * @return the weight of the token in the book, or 0 if the book does
+         * not contain the token.
+         */
+        int weightOf(BookKey key) {
+            Integer weight = this.weights.get(key);
+            return weight == null ? 0 : weight;
+        }
+
+        /**
+         * @return the highest weight of the token in any book.
+         */
+        int maxWeight() {
+            for (int weight = MAX_WEIGHT; weight > 0; weight--)
+                if (! this.tiers.get(weight).isEmpty()) return weight;
+            return 0;
+        }
+
+        /**
+         * @return the number of books with the token.
+         */
+        int size() {
+            return this.weights.size();
+        }
+    }
+
+    /**
+     * @param book the book to be indexed.
+     * @return the tokens of the title and author of the book with their weights.
+     */
+    static Map<String, Integer> weigh(Book book) {
+        Map<String, Integer> weights = new HashMap<>();
+        for (String token : tokenize(book.getTitle()))
+            weights.put(token, TITLE_WEIGHT);
+        for (String token : tokenize(book.getAuthor())) {
+            Integer weight = weights.get(token);
+            weights.put(token, weight == null ? AUTHOR_WEIGHT : weight + AUTHOR_WEIGHT);
+        }
+        return weights;
+    }
+
+    /**
+     * @param text the text to be split.
+     * @return the distinct lower-case tokens of letters and digits in the text.
+     */
+    static Set<String> tokenize(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean word = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (word && start < 0) {
+                start = i;
+            } else if (! word && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        return tokens;
+    }
+}
@@ -0,0 +1,39 @@
+package system;
+
+import java.security.SecureRandom;
+
+/**
+ * Generates random session keys. All threads share one SecureRandom, and a
+ * key of 16 characters carries 96 random bits.
+ */
+final class SessionKeyGenerator {
+
+    private static final char[] ALPHABET = ("abcdefghijklmnopqrstuvwxyz"
+            + "ABCDEFGHIJKLMNOPQRSTUVWXYZ" + "0123456789" + "-_").toCharArray();
+    private static final int LENGTH = 16;
+
+    private final SecureRandom random;
+
+    SessionKeyGenerator() {
+        super();
+        this.random = new SecureRandom();
+    }
+
+    /**
+     * @return a new session key.
+     */
+    String next() {
+        byte[] bytes = new byte[LENGTH * 6 / 8];
+        this.random.nextBytes(bytes);
+        char[] key = new char[LENGTH];
+        for (int i = 0, bits = 0, value = 0, b = 0; i < LENGTH; i++) {
+            if (bits < 6) {
+                value = (value << 8) | (bytes[b++] & 0xFF);
+                bits += 8;
+            }
+            bits -= 6;
+            key[i] = ALPHABET[(value >>> bits) & 0x3F];
+        }
+        return new String(key);
+    }
+}
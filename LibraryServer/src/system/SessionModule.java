@@ -7,31 +7,78 @@ import exceptions.UserNotFoundException;
 import remote.IRemoteSessionModule;
 import args.Session;
 import exceptions.DuplicateException;
-import java.io.UnsupportedEncodingException;
 import java.rmi.RemoteException;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
-import java.util.HashSet;
-import java.util.Random;
-import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 /**
- * Manages the user sessions.
+ * Manages the user sessions. Sessions expire after a period of inactivity
+ * and after a maximal lifetime, whichever comes first.
+ * 
+ * In token mode, sessions are handed out as short-lived signed tokens, which
+ * any server with the secret validates from their signature alone. The
+ * sessions are still kept in the store of the server that issued them, and
+ * a token is only refreshed while its session is in that store.
  * 
  * @author Joris Schelfaut
  */
 public class SessionModule implements IRemoteSessionModule {
     
+    /**
+     * The default time in minutes after which an unused session expires.
+     */
+    public static final long DEFAULT_IDLE_TIMEOUT = 30;
+    /**
+     * The default time in minutes after which any session expires.
+     */
+    public static final long DEFAULT_ABSOLUTE_TIMEOUT = 12 * 60;
+    /**
+     * The default time in minutes after which a session token must be
+     * refreshed.
+     */
+    public static final long DEFAULT_TOKEN_TTL = 5;
+    
     private final Library library;
-    private final Set<Session> sessions;
+    private final SessionStore sessions;
+    private final SessionTokens tokens;
+    private final CredentialVerifier verifier;
+    private final SessionKeyGenerator keys;
 
     /**
      * @param library the library whose users are managed through sessions.
      */
     public SessionModule(Library library) {
+        this(library, DEFAULT_IDLE_TIMEOUT, DEFAULT_ABSOLUTE_TIMEOUT, TimeUnit.MINUTES);
+    }
+
+    /**
+     * @param library the library whose users are managed through sessions.
+     * @param idleTimeout the time after which an unused session expires.
+     * @param absoluteTimeout the time after which any session expires.
+     * @param unit the unit of the given timeouts.
+     */
+    public SessionModule(Library library, long idleTimeout, long absoluteTimeout,
+            TimeUnit unit) {
         super();
         this.library = library;
-        this.sessions = new HashSet<>();
+        this.tokens = null;
+        this.verifier = CredentialVerifier.createDefault();
+        this.keys = new SessionKeyGenerator();
+        this.sessions = createStore(idleTimeout, absoluteTimeout, unit);
+    }
+
+    /**
+     * Instantiates a session module in token mode, whose sessions expire
+     * after the default timeouts.
+     * @param library the library whose users are managed through sessions.
+     * @param tokens the issuer and validator of the session tokens.
+     */
+    public SessionModule(Library library, SessionTokens tokens) {
+        super();
+        this.library = library;
+        this.tokens = tokens;
+        this.verifier = CredentialVerifier.createDefault();
+        this.keys = new SessionKeyGenerator();
+        this.sessions = createStore(DEFAULT_IDLE_TIMEOUT, DEFAULT_ABSOLUTE_TIMEOUT, TimeUnit.MINUTES);
     }
 
     @Override
@@ -43,75 +90,90 @@ public class SessionModule implements IRemoteSessionModule {
         } catch (UserNotFoundException unfe) {
             throw new AuthenticationException(username);
         }
-        if (! checkPassword(user, password))
+        if (! this.verifier.verify(user, password, this.library))
             throw new AuthenticationException(username);
         Session session = new Session(username, generateSessionkey());
         this.sessions.add(session);
+        if (this.tokens != null)
+            return this.tokens.issue(username, session.getSessionkey());
         return session;
     }
 
     @Override
     public boolean isAuthenticated(Session session) throws RemoteException {
-        return this.sessions.contains(session);
+        if (this.tokens != null) return this.tokens.verify(session);
+        return this.sessions.touch(session);
+    }
+
+    @Override
+    public Session refreshSession(Session session)
+            throws AuthenticationException, RemoteException {
+        // a token may have expired, as long as its session is still in the store :
+        if ((this.tokens != null && ! this.tokens.isSigned(session)) || ! this.sessions.touch(session))
+            throw new AuthenticationException(session == null ? null : session.getUsername());
+        if (this.tokens != null)
+            return this.tokens.issue(session.getUsername(), session.getSessionkey());
+        return session;
     }
 
     @Override
     public void destroySession(String username) throws RemoteException {
-        for (Session s : this.sessions) {
-            if (s.getUsername().equals(username)) this.sessions.remove(s);
-        }
+        if (this.tokens != null) this.tokens.revoke(username);
+        this.sessions.removeUser(username);
     }
 
     /**
-     * @return a new session key.
+     * @return the number of sessions that have not been evicted yet.
      */
-    private String generateSessionkey() {
-        char[] chars = ("abcdefghijklmnopqrstuvwxyz"
-                + "ABCDEFGHIJKLMNOPQRSTUVWXYZ"
-                + "0123456789" + "-_'()!?,.:/")
-                .toCharArray();
-        StringBuilder sb = new StringBuilder();
-        Random random = new Random();
-        for (int i = 0; i < 16; i++) {
-            char c = chars[random.nextInt(chars.length)];
-            sb.append(c);
-        }
-        return sb.toString();
+    public int getSessionCount() {
+        return this.sessions.size();
     }
-    
+
     /**
-     * @param user the user to be authenticated.
-     * @param password the password to be checked.
-     * @return whether or not the user's password equals the given password.
+     * @return the number of users with at least one session.
      */
-    private boolean checkPassword(User user, String password) {
-        try {
-            if (md5(password).equals(user.getPassword())) return true;
-        } catch (UnsupportedEncodingException | NoSuchAlgorithmException ex) {
-            return false;
-        }
-        return false;
+    public int getUserCount() {
+        return this.sessions.users();
     }
-    
+
     /**
-     * @param password the password to be hashed.
-     * @return the md5 hash of the given password.
-     * @throws UnsupportedEncodingException
-     * @throws NoSuchAlgorithmException 
+     * @return the number of sessions evicted after being idle for too long.
      */
-    private String md5 (String password) throws UnsupportedEncodingException, NoSuchAlgorithmException {
-        byte[] bytes = password.getBytes("UTF-8");
-        MessageDigest md = MessageDigest.getInstance("MD5");
-        byte[] hash = md.digest(bytes);
-        StringBuilder hexString = new StringBuilder();
-
-        for (int i = 0; i < hash.length; i++) {
-            if ((0xff & hash[i]) < 0x10) {
-                hexString.append("0").append(Integer.toHexString((0xFF & hash[i])));
-            } else {
-                hexString.append(Integer.toHexString(0xFF & hash[i]));
-            }
-        }
-        return hexString.toString();
+    public long getIdleEvictionCount() {
+        return this.sessions.getIdleEvictions();
+    }
+
+    /**
+     * @return the number of sessions evicted after reaching their maximal lifetime.
+     */
+    public long getAbsoluteEvictionCount() {
+        return this.sessions.getAbsoluteEvictions();
+    }
+
+    /**
+     * @return the number of users whose tokens are revoked, or 0 outside
+     * token mode.
+     */
+    public int getRevocationCount() {
+        return this.tokens == null ? 0 : this.tokens.getRevocationCount();
+    }
+
+    /**
+     * @param idleTimeout the time after which an unused session expires.
+     * @param absoluteTimeout the time after which any session expires.
+     * @param unit the unit of the given timeouts.
+     * @return a store for sessions with the given timeouts.
+     */
+    private static SessionStore createStore(long idleTimeout, long absoluteTimeout, TimeUnit unit) {
+        long tick = Math.max(1, unit.toMillis(Math.min(idleTimeout, absoluteTimeout)) / 60);
+        return new SessionStore(unit.toMillis(idleTimeout),
+                unit.toMillis(absoluteTimeout), Math.min(tick, 1000), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return a new session key.
+     */
+    private String generateSessionkey() {
+        return this.keys.next();
     }
 }
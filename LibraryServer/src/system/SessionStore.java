@@ -0,0 +1,266 @@
+package system;
+
+import args.Session;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+
+/**
+ * The SessionStore class holds the active sessions. Sessions are found by
+ * their key in constant time, and by user through a per-user index, so
+ * logging a user off only touches the sessions of that user.
+ *
+ * A session expires when it has been idle for longer than the idle timeout,
+ * or when it is older than the absolute timeout. Expired sessions are never
+ * accepted; their memory is reclaimed by a timing wheel. Every session sits
+ * in the slot of the wheel for the tick of its deadline, and a background
+ * thread visits one slot per tick. A session that was used in the meantime
+ * is moved to the slot of its new deadline, so requests themselves never
+ * sweep the store.
+ */
+final class SessionStore {
+
+    private static final int WHEEL_SLOTS = 512;
+    private static final int LOCK_STRIPES = 64;
+
+    private final ConcurrentMap<String, Entry> sessions;
+    private final ConcurrentMap<String, Set<String>> sessionsByUser;
+    private final StripedLock userLocks;
+    private final long idleTimeout;
+    private final long absoluteTimeout;
+    private final long tickDuration;
+    private final List<ArrayDeque<Entry>> wheel;
+    private final ScheduledExecutorService ticker;
+    private final long origin;
+    private long tick;
+    private final AtomicLong idleEvictions;
+    private final AtomicLong absoluteEvictions;
+
+    /**
+     * @param idleTimeout the time after which an unused session expires.
+     * @param absoluteTimeout the time after which any session expires.
+     * @param tickDuration the time between two visits of the timing wheel.
+     * @param unit the unit of the given times.
+     */
+    SessionStore(long idleTimeout, long absoluteTimeout, long tickDuration, TimeUnit unit) {
+        super();
+        if (idleTimeout <= 0 || absoluteTimeout <= 0 || tickDuration <= 0)
+            throw new IllegalArgumentException("The timeouts must be greater than zero.");
+        this.sessions = new ConcurrentHashMap<>();
+        this.sessionsByUser = new ConcurrentHashMap<>();
+        this.userLocks = new StripedLock(LOCK_STRIPES);
+        this.idleTimeout = unit.toNanos(idleTimeout);
+        this.absoluteTimeout = unit.toNanos(absoluteTimeout);
+        this.tickDuration = unit.toNanos(tickDuration);
+        this.wheel = new ArrayList<>(WHEEL_SLOTS);
+        for (int i = 0; i < WHEEL_SLOTS; i++) this.wheel.add(new ArrayDeque<Entry>());
+        this.idleEvictions = new AtomicLong();
+        this.absoluteEvictions = new AtomicLong();
+        this.origin = System.nanoTime();
+        this.tick = 0;
+        this.ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "session-expiry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.ticker.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                advance();
+            }
+        }, tickDuration, tickDuration, unit);
+    }
+
+    /**
+     * @param session the session to be added.
+     */
+    void add(Session session) {
+        Entry entry = new Entry(session, System.nanoTime());
+        String user = BookKey.fold(session.getUsername());
+        Lock lock = this.userLocks.get(user);
+        lock.lock();
+        try {
+            this.sessions.put(session.getSessionkey(), entry);
+            Set<String> keys = this.sessionsByUser.get(user);
+            if (keys == null) {
+                keys = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                this.sessionsByUser.put(user, keys);
+            }
+            keys.add(session.getSessionkey());
+        } finally {
+            lock.unlock();
+        }
+        this.schedule(entry);
+    }
+
+    /**
+     * Checks a session and marks it as used.
+     * @param session the session to be checked.
+     * @return whether or not the session is known and has not expired.
+     */
+    boolean touch(Session session) {
+        if (session == null || session.getSessionkey() == null) return false;
+        Entry entry = this.sessions.get(session.getSessionkey());
+        if (entry == null || ! entry.session.equals(session)) return false;
+        long now = System.nanoTime();
+        if (now - entry.deadline(this.idleTimeout, this.absoluteTimeout) >= 0) {
+            this.evict(entry, now);
+            return false;
+        }
+        entry.lastAccess = now;
+        return true;
+    }
+
+    /**
+     * Removes all the sessions of a user.
+     * @param username the name of the user.
+     */
+    void removeUser(String username) {
+        String user = BookKey.fold(username);
+        Lock lock = this.userLocks.get(user);
+        lock.lock();
+        try {
+            Set<String> keys = this.sessionsByUser.remove(user);
+            if (keys == null) return;
+            for (String key : keys) this.sessions.remove(key);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of sessions in the store.
+     */
+    int size() {
+        return this.sessions.size();
+    }
+
+    /**
+     * @return the number of users with at least one session.
+     */
+    int users() {
+        return this.sessionsByUser.size();
+    }
+
+    /**
+     * @return the number of sessions evicted because they were idle.
+     */
+    long getIdleEvictions() {
+        return this.idleEvictions.get();
+    }
+
+    /**
+     * @return the number of sessions evicted because they were too old.
+     */
+    long getAbsoluteEvictions() {
+        return this.absoluteEvictions.get();
+    }
+
+    /**
+     * Stops the expiry thread.
+     */
+    void close() {
+        this.ticker.shutdownNow();
+    }
+
+    /**
+     * Removes an expired session and counts the eviction.
+     * @param entry the expired session.
+     * @param now the current time.
+     */
+    private void evict(Entry entry, long now) {
+        String user = BookKey.fold(entry.session.getUsername());
+        Lock lock = this.userLocks.get(user);
+        lock.lock();
+        try {
+            if (! this.sessions.remove(entry.session.getSessionkey(), entry)) return;
+            Set<String> keys = this.sessionsByUser.get(user);
+            if (keys != null) {
+                keys.remove(entry.session.getSessionkey());
+                if (keys.isEmpty()) this.sessionsByUser.remove(user);
+            }
+        } finally {
+            lock.unlock();
+        }
+        if (now - (entry.created + this.absoluteTimeout) >= 0)
+            this.absoluteEvictions.incrementAndGet();
+        else
+            this.idleEvictions.incrementAndGet();
+    }
+
+    /**
+     * Puts a session in the slot of the wheel for its current deadline.
+     * @param entry the session to be scheduled.
+     */
+    private void schedule(Entry entry) {
+        long deadline = entry.deadline(this.idleTimeout, this.absoluteTimeout);
+        ArrayDeque<Entry> slot = this.wheel.get(
+                (int) (((deadline - this.origin) / this.tickDuration) % WHEEL_SLOTS));
+        synchronized (slot) {
+            slot.add(entry);
+        }
+    }
+
+    /**
+     * Visits the slots of all the ticks that passed since the last visit.
+     */
+    private void advance() {
+        long now = System.nanoTime();
+        long current = (now - this.origin) / this.tickDuration;
+        for (; this.tick <= current; this.tick++) {
+            ArrayDeque<Entry> slot = this.wheel.get((int) (this.tick % WHEEL_SLOTS));
+            List<Entry> entries;
+            synchronized (slot) {
+                entries = new ArrayList<>(slot);
+                slot.clear();
+            }
+            for (Entry entry : entries) {
+                if (this.sessions.get(entry.session.getSessionkey()) != entry) continue;
+                if (now - entry.deadline(this.idleTimeout, this.absoluteTimeout) >= 0)
+                    this.evict(entry, now);
+                else
+                    this.schedule(entry);
+            }
+        }
+    }
+
+    /**
+     * A session together with the times it was created and last used.
+     */
+    private static final class Entry {
+
+        private final Session session;
+        private final long created;
+        private volatile long lastAccess;
+
+        Entry(Session session, long created) {
+            this.session = session;
+            this.created = created;
+            this.lastAccess = created;
+        }
+
+        /**
+         * @param idleTimeout the time after which an unused session expires.
+         * @param absoluteTimeout the time after which any session expires.
+         * @return the time at which this session expires.
+         */
+        long deadline(long idleTimeout, long absoluteTimeout) {
+            long idle = this.lastAccess + idleTimeout;
+            long absolute = this.created + absoluteTimeout;
+            return idle - absolute < 0 ? idle : absolute;
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package system;
+
+import args.Session;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * The SessionTokens class issues and validates sessions as signed tokens. A
+ * token carries the name of its user, a random key, its expiry time and an
+ * HMAC-SHA256 signature over those three values. Every server that knows the
+ * secret can validate a token on its own, without shared session state.
+ *
+ * Tokens are short-lived : the session module refreshes them against the
+ * session store of the server that issued them, which forgets the sessions
+ * of a user that logged off. Logging a user off also revokes all the tokens
+ * issued to that user until then. A revocation is kept until the tokens it
+ * covers have expired anyway, so the revocation list stays small.
+ * Revocations are local to this server : another server accepts a token
+ * of a user that logged off until it expires, at most the time to live
+ * later, but cannot refresh it.
+ */
+public final class SessionTokens {
+
+    private static final String ALGORITHM = "HmacSHA256";
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final SecretKeySpec secret;
+    private final long timeToLive;
+    private final ConcurrentMap<String, Long> revocations;
+    private final ThreadLocal<Mac> macs;
+
+    /**
+     * @param secret the secret shared by all servers that validate the tokens.
+     * @param timeToLive the time after which a token expires.
+     * @param unit the unit of the time to live.
+     * @throws IllegalArgumentException if the secret is empty or the time to
+     * live is not positive.
+     */
+    public SessionTokens(byte[] secret, long timeToLive, TimeUnit unit)
+            throws IllegalArgumentException {
+        super();
+        if (secret.length == 0)
+            throw new IllegalArgumentException("The token secret must not be empty.");
+        if (timeToLive <= 0)
+            throw new IllegalArgumentException("The time to live must be greater than zero.");
+        this.secret = new SecretKeySpec(secret.clone(), ALGORITHM);
+        this.timeToLive = unit.toMillis(timeToLive);
+        this.revocations = new ConcurrentHashMap<>();
+        this.macs = new ThreadLocal<Mac>() {
+            @Override
+            protected Mac initialValue() {
+                try {
+                    Mac mac = Mac.getInstance(ALGORITHM);
+                    mac.init(SessionTokens.this.secret);
+                    return mac;
+                } catch (GeneralSecurityException ex) {
+                    throw new IllegalStateException(ex);
+                }
+            }
+        };
+        // fail early if the algorithm is not available :
+        this.macs.get();
+    }
+
+    /**
+     * @param username the name of the authenticated user.
+     * @param sessionkey a random key for the session.
+     * @return a signed token for the user.
+     */
+    Session issue(String username, String sessionkey) {
+        long expiry = System.currentTimeMillis() + this.timeToLive;
+        return new Session(username, sessionkey, expiry, sign(username, sessionkey, expiry));
+    }
+
+    /**
+     * @param session the token to be validated.
+     * @return whether or not the token was signed with this secret, has not
+     * expired and has not been revoked.
+     */
+    boolean verify(Session session) {
+        if (! this.isSigned(session) || session.getExpiry() <= System.currentTimeMillis())
+            return false;
+        Long revoked = this.revocations.get(BookKey.fold(session.getUsername()));
+        return revoked == null || session.getExpiry() - this.timeToLive > revoked;
+    }
+
+    /**
+     * @param session a token.
+     * @return whether or not the token was signed with this secret, whether
+     * or not it has expired.
+     */
+    boolean isSigned(Session session) {
+        if (session == null || session.getSignature() == null
+                || session.getUsername() == null || session.getSessionkey() == null)
+            return false;
+        String expected = sign(session.getUsername(), session.getSessionkey(), session.getExpiry());
+        return MessageDigest.isEqual(expected.getBytes(StandardCharsets.US_ASCII),
+                session.getSignature().getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * Revokes all the tokens issued to a user until now.
+     * @param username the name of the user.
+     */
+    void revoke(String username) {
+        long now = System.currentTimeMillis();
+        this.revocations.put(BookKey.fold(username), now);
+        Iterator<Map.Entry<String, Long>> it = this.revocations.entrySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().getValue() + this.timeToLive < now) it.remove();
+        }
+    }
+
+    /**
+     * @return the number of users with revoked tokens that have not expired.
+     */
+    int getRevocationCount() {
+        return this.revocations.size();
+    }
+
+    /**
+     * @param username the name of the user.
+     * @param sessionkey the key of the session.
+     * @param expiry the expiry time of the token.
+     * @return the hexadecimal signature over the given values.
+     */
+    private String sign(String username, String sessionkey, long expiry) {
+        Mac mac = this.macs.get();
+        mac.update(username.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        mac.update(sessionkey.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 0);
+        for (int shift = 56; shift >= 0; shift -= 8) mac.update((byte) (expiry >>> shift));
+        byte[] hash = mac.doFinal();
+        char[] hex = new char[hash.length * 2];
+        for (int i = 0; i < hash.length; i++) {
+            hex[2 * i] = HEX[(hash[i] >> 4) & 0xF];
+            hex[2 * i + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(hex);
+    }
+}
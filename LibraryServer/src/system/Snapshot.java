@@ -0,0 +1,310 @@
+package system;
+
+import args.Book;
+import args.Rating;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * The Snapshot class stores the full state of a library (users and books) in
+ * a compact binary file, so that a server can restart without importing CSV
+ * files or replaying its whole write-ahead log.
+ *
+ * A snapshot is written while the library stays in use, so it is fuzzy : it
+ * reflects every mutation up to the LSN it records, and possibly some later
+ * ones. Replaying the write-ahead log after that LSN brings a library loaded
+ * from the snapshot up to date, since replaying a mutation is idempotent.
+ *
+ * The file starts with a magic number, the format version, the LSN and the
+ * creation time, followed by the user and book records and an end record
+ * with the counts. Owner and author names are written once and referred to
+ * by number afterwards. A CRC32 checksum over everything before it ends the
+ * file.
+ */
+public final class Snapshot {
+
+    /**
+     * The version of the format written by this class.
+     */
+    public static final int VERSION = 1;
+
+    private static final int MAGIC = 0x4C534E50;
+    private static final byte USER = 'U';
+    private static final byte BOOK = 'B';
+    private static final byte END = 'E';
+    private static final int BUFFER_SIZE = 1 << 16;
+    private static final int BATCH_SIZE = 4096;
+
+    private final Library library;
+    private final long lsn;
+    private final long created;
+
+    /**
+     * @param library the library read from the snapshot.
+     * @param lsn the LSN the snapshot is up to date with.
+     * @param created the time the snapshot was created, in milliseconds.
+     */
+    private Snapshot(Library library, long lsn, long created) {
+        this.library = library;
+        this.lsn = lsn;
+        this.created = created;
+    }
+
+    /**
+     * @return the library read from the snapshot.
+     */
+    public Library getLibrary() {
+        return library;
+    }
+
+    /**
+     * @return the LSN of the write-ahead log the snapshot is up to date with.
+     */
+    public long getLsn() {
+        return lsn;
+    }
+
+    /**
+     * @return the time the snapshot was created, in milliseconds since the epoch.
+     */
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Writes a snapshot of a library. The snapshot is written to a temporary
+     * file first and moved in place once it is on disk, so the file is never
+     * seen half written.
+     * @param library the library to write a snapshot of.
+     * @param lsn the LSN of the last log record reflected in the library,
+     * read before the snapshot is started; 0 if there is no log.
+     * @param file the file to write the snapshot to.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    public static void write(Library library, long lsn, Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            OutputStream raw = new BufferedOutputStream(Channels.newOutputStream(channel), BUFFER_SIZE);
+            CheckedOutputStream checked = new CheckedOutputStream(raw, new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(lsn);
+            out.writeLong(System.currentTimeMillis());
+
+            int users = 0;
+            for (User user : library.users()) {
+                out.writeByte(USER);
+                out.writeUTF(user.getName());
+                out.writeUTF(user.getPassword());
+                users++;
+            }
+
+            long books = 0;
+            Map<String, Integer> owners = new HashMap<>();
+            Map<String, Integer> authors = new HashMap<>();
+            for (String owner : library.owners()) {
+                for (Book book : library.getBooksForOwner(owner)) {
+                    Rating rating = book.getRating();
+                    out.writeByte(BOOK);
+                    out.writeUTF(book.getTitle());
+                    writeName(out, authors, book.getAuthor());
+                    out.writeInt(book.getYear());
+                    out.writeByte(rating == null ? -1 : rating.ordinal());
+                    out.writeUTF(book.getISBN());
+                    writeName(out, owners, book.getOwner());
+                    books++;
+                }
+            }
+
+            out.writeByte(END);
+            out.writeInt(users);
+            out.writeLong(books);
+            out.flush();
+            // the checksum itself is written past the checked stream :
+            new DataOutputStream(raw).writeInt((int) checked.getChecksum().getValue());
+            raw.flush();
+            channel.force(true);
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads a snapshot into a new library that keeps its books on the heap.
+     * @param file the file to read the snapshot from.
+     * @return the snapshot.
+     * @throws IOException if the snapshot cannot be read, is of an unknown
+     * version or is corrupt.
+     */
+    public static Snapshot read(Path file) throws IOException {
+        return read(file, Library.Storage.HEAP);
+    }
+
+    /**
+     * Reads a snapshot into a new library. The checksum of the whole file is
+     * verified before the library is built, so a corrupt snapshot is rejected
+     * quickly.
+     * @param file the file to read the snapshot from.
+     * @param storage the way in which the new library stores its books.
+     * @return the snapshot.
+     * @throws IOException if the snapshot cannot be read, is of an unknown
+     * version or is corrupt.
+     */
+    public static Snapshot read(Path file, Library.Storage storage) throws IOException {
+        verify(file);
+        try (InputStream raw = new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE)) {
+            DataInputStream in = new DataInputStream(raw);
+            if (in.readInt() != MAGIC)
+                throw new IOException(file + " is not a library snapshot.");
+            int version = in.readInt();
+            if (version != VERSION)
+                throw new IOException(file + " has unsupported snapshot version " + version + ".");
+            long lsn = in.readLong();
+            long created = in.readLong();
+
+            Library library = new Library(storage);
+            List<String> owners = new ArrayList<>();
+            List<String> authors = new ArrayList<>();
+            List<Book> batch = new ArrayList<>(BATCH_SIZE);
+            Rating[] ratings = Rating.values();
+            int users = 0;
+            long books = 0;
+            while (true) {
+                byte type = in.readByte();
+                if (type == USER) {
+                    library.addUser(new User(in.readUTF(), in.readUTF()));
+                    users++;
+                } else if (type == BOOK) {
+                    String title = in.readUTF();
+                    String author = readName(in, authors);
+                    int year = in.readInt();
+                    int rating = in.readByte();
+                    String isbn = in.readUTF();
+                    String owner = readName(in, owners);
+                    batch.add(new Book(title, author, year,
+                            rating < 0 ? null : ratings[rating], isbn, owner));
+                    if (batch.size() == BATCH_SIZE) {
+                        library.addBooks(batch);
+                        batch.clear();
+                    }
+                    books++;
+                } else if (type == END) {
+                    break;
+                } else {
+                    throw new IOException(file + " holds an unknown record type " + type + ".");
+                }
+            }
+            library.addBooks(batch);
+
+            if (in.readInt() != users || in.readLong() != books)
+                throw new IOException(file + " is incomplete.");
+            return new Snapshot(library, lsn, created);
+        } catch (EOFException | RuntimeException ex) {
+            throw new IOException(file + " is truncated or corrupt.", ex);
+        }
+    }
+
+    /**
+     * Checks the checksum at the end of a snapshot file against its contents.
+     * @param file the snapshot file.
+     * @throws IOException if the file cannot be read or is corrupt.
+     */
+    private static void verify(Path file) throws IOException {
+        try (InputStream in = Files.newInputStream(file)) {
+            long remaining = Files.size(file) - 4;
+            if (remaining < 0) throw new IOException(file + " is truncated.");
+            CRC32 crc = new CRC32();
+            byte[] buffer = new byte[BUFFER_SIZE];
+            while (remaining > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (n < 0) throw new IOException(file + " is truncated.");
+                crc.update(buffer, 0, n);
+                remaining -= n;
+            }
+            int checksum = new DataInputStream(in).readInt();
+            if (checksum != (int) crc.getValue())
+                throw new IOException(file + " is corrupt.");
+        }
+    }
+
+    /**
+     * Writes a name as its number if it was written before, or as 0 followed
+     * by the name the first time.
+     * @param out the stream to write to.
+     * @param names the numbers of the names written so far.
+     * @param name the name to write.
+     * @throws IOException if the name cannot be written.
+     */
+    private static void writeName(DataOutputStream out, Map<String, Integer> names, String name)
+            throws IOException {
+        Integer number = names.get(name);
+        if (number != null) {
+            writeVarint(out, number);
+        } else {
+            names.put(name, names.size() + 1);
+            writeVarint(out, 0);
+            out.writeUTF(name);
+        }
+    }
+
+    /**
+     * @param in the stream to read from.
+     * @param names the names read so far, in order.
+     * @return the name read.
+     * @throws IOException if the name cannot be read.
+     */
+    private static String readName(DataInputStream in, List<String> names) throws IOException {
+        int number = readVarint(in);
+        if (number > 0) return names.get(number - 1);
+        String name = in.readUTF();
+        names.add(name);
+        return name;
+    }
+
+    /**
+     * @param out the stream to write to.
+     * @param value a non-negative number, written in 7-bit groups.
+     * @throws IOException if the number cannot be written.
+     */
+    private static void writeVarint(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * @param in the stream to read from.
+     * @return the number read.
+     * @throws IOException if the number cannot be read or is too long.
+     */
+    private static int readVarint(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return value;
+        }
+        throw new IOException("Malformed number in snapshot.");
+    }
+}
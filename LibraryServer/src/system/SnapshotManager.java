@@ -0,0 +1,179 @@
+package system;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The SnapshotManager class keeps snapshots of a library in a directory. It
+ * writes a new snapshot periodically in the background, keeps the few most
+ * recent ones and finds the newest valid one on startup. Snapshot files are
+ * named after their creation time and the LSN they reflect, so the newest
+ * one sorts last.
+ *
+ * A snapshot is taken while writers keep running, so it only is a consistent
+ * image together with the records of the write-ahead log after its LSN;
+ * snapshots are therefore only taken of a library with a log. After every
+ * snapshot, the log is rotated, and the segments that the oldest snapshot
+ * kept covers are deleted.
+ */
+public final class SnapshotManager implements AutoCloseable {
+
+    private static final String PREFIX = "library-";
+    private static final String SUFFIX = ".snapshot";
+    private static final int RETAINED = 2;
+    private static final Logger LOGGER = Logger.getLogger(SnapshotManager.class.getName());
+
+    private final Path directory;
+    private final Library library;
+    private final WriteAheadLog log;
+    private final ScheduledExecutorService scheduler;
+    private long lastLsn = -1;
+
+    /**
+     * @param directory the directory to keep the snapshots in.
+     * @param library the library to take snapshots of.
+     * @param log the write-ahead log attached to the library.
+     * @throws NullPointerException if the log resolves as NULL.
+     * @throws IOException if the directory cannot be created.
+     */
+    public SnapshotManager(Path directory, Library library, WriteAheadLog log)
+            throws NullPointerException, IOException {
+        super();
+        if (log == null)
+            throw new NullPointerException("The write-ahead log resolved as NULL.");
+        this.directory = Files.createDirectories(directory);
+        this.library = library;
+        this.log = log;
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "snapshot-writer");
+                thread.setDaemon(true);
+                thread.setPriority(Thread.MIN_PRIORITY);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Reads the newest valid snapshot in a directory. Snapshots that cannot
+     * be read are skipped in favour of older ones.
+     * @param directory the directory with the snapshots.
+     * @param storage the way in which the library read stores its books.
+     * @return the newest valid snapshot, or NULL if there is none.
+     * @throws IOException if the directory cannot be listed.
+     */
+    public static Snapshot loadNewest(Path directory, Library.Storage storage) throws IOException {
+        if (! Files.isDirectory(directory)) return null;
+        List<Path> files = list(directory);
+        for (int i = files.size() - 1; i >= 0; i--) {
+            try {
+                return Snapshot.read(files.get(i), storage);
+            } catch (IOException ex) {
+                LOGGER.log(Level.WARNING, "Skipping snapshot " + files.get(i), ex);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Starts taking snapshots periodically.
+     * @param period the time between the end of one snapshot and the start
+     * of the next.
+     * @param unit the unit of the period.
+     */
+    public void start(long period, TimeUnit unit) {
+        this.scheduler.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    takeSnapshot();
+                } catch (IOException | RuntimeException ex) {
+                    LOGGER.log(Level.SEVERE, "Could not write a snapshot", ex);
+                }
+            }
+        }, period, period, unit);
+    }
+
+    /**
+     * Writes a snapshot of the library, unless the write-ahead log shows that
+     * nothing changed since the previous one, removes old snapshots and
+     * truncates the log up to the oldest snapshot kept.
+     * @return the file of the snapshot, or NULL if none was written.
+     * @throws IOException if the snapshot cannot be written.
+     */
+    public synchronized Path takeSnapshot() throws IOException {
+        // read the LSN before the library, so the snapshot reflects it :
+        long lsn = this.log.getLastLsn();
+        if (lsn == this.lastLsn) return null;
+        Path file = this.directory.resolve(String.format("%s%019d-%019d%s",
+                PREFIX, System.currentTimeMillis(), lsn, SUFFIX));
+        Snapshot.write(this.library, lsn, file);
+        this.lastLsn = lsn;
+        this.log.rotate();
+
+        List<Path> files = list(this.directory);
+        int first = Math.max(0, files.size() - RETAINED);
+        for (int i = 0; i < first; i++)
+            Files.deleteIfExists(files.get(i));
+        // an older snapshot is read if a newer one turns out to be corrupt :
+        long covered = Long.MAX_VALUE;
+        for (Path kept : files.subList(first, files.size()))
+            covered = Math.min(covered, lsnOf(kept));
+        this.log.truncate(covered);
+        return file;
+    }
+
+    /**
+     * Stops taking snapshots. A snapshot that is being written is finished.
+     */
+    @Override
+    public void close() {
+        this.scheduler.shutdown();
+        try {
+            this.scheduler.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * @param file a snapshot file.
+     * @return the LSN the snapshot reflects, or 0 for a snapshot named
+     * after its creation time only.
+     */
+    private static long lsnOf(Path file) {
+        String name = file.getFileName().toString();
+        String[] parts = name.substring(PREFIX.length(), name.length() - SUFFIX.length()).split("-");
+        try {
+            return parts.length == 2 ? Long.parseLong(parts[1]) : 0;
+        } catch (NumberFormatException ex) {
+            return 0;
+        }
+    }
+
+    /**
+     * @param directory a directory.
+     * @return the snapshot files in the directory, oldest first.
+     * @throws IOException if the directory cannot be listed.
+     */
+    private static List<Path> list(Path directory) throws IOException {
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path file : stream) files.add(file);
+        }
+        Collections.sort(files);
+        return files;
+    }
+}
@@ -0,0 +1,34 @@
+package system;
+
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * The StripedLock class maps keys onto a fixed number of locks, so that
+ * writers working on different keys rarely contend while writers working on
+ * the same key are serialized.
+ */
+final class StripedLock {
+
+    private final Lock[] stripes;
+
+    /**
+     * @param stripes the minimal number of stripes, rounded up to a power of two.
+     */
+    StripedLock(int stripes) {
+        int n = 1;
+        while (n < stripes) n <<= 1;
+        this.stripes = new Lock[n];
+        for (int i = 0; i < n; i++) this.stripes[i] = new ReentrantLock();
+    }
+
+    /**
+     * @param key the key to get the lock for.
+     * @return the lock guarding the given key.
+     */
+    Lock get(Object key) {
+        int h = key.hashCode();
+        h ^= (h >>> 16);
+        return this.stripes[h & (this.stripes.length - 1)];
+    }
+}
@@ -9,7 +9,7 @@ import java.util.Objects;
 public class User implements Comparable<User> {
     
     private String name;
-    private String password;
+    private volatile Credential credential;
 
     /**
      * @param name the name of the user.
@@ -32,21 +32,43 @@ public class User implements Comparable<User> {
     }
 
     /**
-     * @param password password of the user.
+     * @param password the stored form of the password of the user.
      */
     private void setPassword(String password) {
         if (password.isEmpty())
             throw new IllegalArgumentException("The length of the author"
                     + " name must be greater than zero.");
-        this.password = password;
+        this.credential = Credential.parse(password);
+    }
+
+    /**
+     * @return the decoded password hash of the user.
+     */
+    Credential getCredential() {
+        return credential;
+    }
+
+    /**
+     * Replaces the credential of the user, unless it was replaced already.
+     * @param credential the new credential.
+     * @param expected the credential that is being replaced.
+     * @return whether or not the credential was replaced.
+     */
+    synchronized boolean setCredential(Credential credential, Credential expected) {
+        if (this.credential != expected) return false;
+        this.credential = credential;
+        return true;
     }
 
     public String getName() {
         return name;
     }
 
+    /**
+     * @return the stored form of the password of the user.
+     */
     public String getPassword() {
-        return password;
+        return credential.getEncoded();
     }
 
     @Override
@@ -0,0 +1,559 @@
+package system;
+
+import args.Book;
+import args.Rating;
+import exceptions.DuplicateException;
+import exceptions.PersistenceException;
+import exceptions.UserNotFoundException;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32;
+
+/**
+ * The WriteAheadLog class makes the mutations of a library durable. Every
+ * mutation is appended as a record with a log sequence number (LSN); a single
+ * writer thread writes the pending records in batches and forces each batch
+ * to disk with one fsync. Callers wait until the batch holding their record
+ * is durable, so concurrent writers share the cost of an fsync (group commit).
+ *
+ * Every record is stored as its length, a CRC32 checksum and the payload. On
+ * replay, the log is read up to the first incomplete or corrupt record, which
+ * is where a crash interrupted the last write; the rest is cut off.
+ *
+ * The records are appended to the file of the log. Rotating the log moves
+ * that file aside as a segment, named after the file and the last LSN in it,
+ * and continues in a new file. Replay reads the segments, oldest first,
+ * before the file, and skips the segments that a snapshot already covers.
+ * Once a snapshot is on disk, the segments it covers can be deleted, so that
+ * the log does not grow with the whole history of the library.
+ */
+public final class WriteAheadLog implements AutoCloseable {
+
+    private static final byte ADD_BOOK = 1;
+    private static final byte REMOVE_BOOK = 2;
+    private static final byte ADD_USER = 3;
+    private static final byte REMOVE_USER = 4;
+    private static final byte SET_CREDENTIAL = 5;
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    private final Path file;
+    private FileChannel channel;
+    private final long batchWindow;
+    private final BlockingQueue<Pending> queue;
+    private final Object appendLock;
+    private final Object fileLock;
+    private final ReentrantLock durableLock;
+    private final Condition durableChanged;
+    private final Thread writer;
+    private long lastLsn;
+    private long writtenLsn;
+    private volatile long durableLsn;
+    private volatile Throwable failure;
+    private volatile boolean closed;
+    private long commits;
+    private long batches;
+
+    /**
+     * Opens a log, creating it if it does not exist. Call replay before
+     * appending to it.
+     * @param file the file of the log.
+     * @param batchWindow how long the writer waits for more records before
+     * it writes a batch; 0 writes whatever is pending right away.
+     * @param unit the unit of the batch window.
+     * @throws IOException if the file cannot be opened.
+     */
+    public WriteAheadLog(Path file, long batchWindow, TimeUnit unit) throws IOException {
+        super();
+        this.file = file;
+        this.channel = open(file);
+        this.batchWindow = unit.toNanos(batchWindow);
+        this.queue = new LinkedBlockingQueue<>();
+        this.appendLock = new Object();
+        this.fileLock = new Object();
+        this.durableLock = new ReentrantLock();
+        this.durableChanged = this.durableLock.newCondition();
+        this.writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                write();
+            }
+        }, "write-ahead-log");
+        this.writer.setDaemon(true);
+    }
+
+    /**
+     * Applies all the records of the log to a library, and prepares the log
+     * for appending. Applying a record that is already reflected in the
+     * library has no effect.
+     * @param library the library to apply the records to.
+     * @return the number of records applied.
+     * @throws IOException if the log cannot be read.
+     */
+    public int replay(Library library) throws IOException {
+        return this.replay(library, 0);
+    }
+
+    /**
+     * Applies the records after a given LSN to a library, and prepares the
+     * log for appending. New records get an LSN after the given one, even if
+     * the log holds no records.
+     * @param library the library to apply the records to.
+     * @param afterLsn the LSN up to which the library is already up to date,
+     * such as the LSN of the snapshot it was loaded from.
+     * @return the number of records applied.
+     * @throws IOException if the log cannot be read.
+     */
+    public int replay(Library library, long afterLsn) throws IOException {
+        int records = 0;
+        for (Path segment : this.segments()) {
+            long last = lastLsnOf(segment);
+            if (last <= afterLsn) {
+                this.lastLsn = Math.max(this.lastLsn, last);
+                continue;
+            }
+            try (FileChannel in = FileChannel.open(segment, StandardOpenOption.READ)) {
+                records += this.replay(in, library, afterLsn);
+                // a segment was complete on disk before it was moved aside :
+                if (in.position() < in.size())
+                    throw new IOException("The log segment " + segment + " is corrupt at "
+                            + in.position() + ".");
+            }
+        }
+        records += this.replay(this.channel, library, afterLsn);
+        this.channel.truncate(this.channel.position());
+        this.lastLsn = Math.max(this.lastLsn, afterLsn);
+        this.writtenLsn = this.lastLsn;
+        this.durableLsn = this.lastLsn;
+        this.writer.start();
+        return records;
+    }
+
+    /**
+     * Moves the file of the log aside as a segment, and continues in a new
+     * file. Nothing happens if the file holds no records.
+     * @throws IOException if the file cannot be moved or the new file cannot
+     * be opened.
+     */
+    public void rotate() throws IOException {
+        synchronized (this.fileLock) {
+            if (this.channel.size() == 0) return;
+            // every record in the file was forced to disk by the writer :
+            this.channel.close();
+            Files.move(this.file, this.file.resolveSibling(String.format("%s.%019d",
+                    this.file.getFileName(), this.writtenLsn)), StandardCopyOption.ATOMIC_MOVE);
+            this.channel = open(this.file);
+        }
+    }
+
+    /**
+     * Deletes the segments that only hold records up to a given LSN, which
+     * recovery no longer needs.
+     * @param upToLsn the LSN up to which the library can be recovered from
+     * elsewhere, such as from the oldest snapshot kept.
+     * @return the number of segments deleted.
+     * @throws IOException if a segment cannot be deleted.
+     */
+    public int truncate(long upToLsn) throws IOException {
+        int deleted = 0;
+        for (Path segment : this.segments()) {
+            if (lastLsnOf(segment) <= upToLsn && Files.deleteIfExists(segment)) deleted++;
+        }
+        return deleted;
+    }
+
+    /**
+     * @param book the book that was added.
+     * @return the LSN of the record.
+     */
+    long appendAddBook(Book book) {
+        return this.append(ADD_BOOK, book.getTitle(), book.getAuthor(),
+                Integer.toString(book.getYear()),
+                book.getRating() == null ? "" : book.getRating().name(),
+                book.getISBN(), book.getOwner());
+    }
+
+    /**
+     * @param book the book that was removed.
+     * @return the LSN of the record.
+     */
+    long appendRemoveBook(Book book) {
+        return this.append(REMOVE_BOOK, book.getISBN(), book.getOwner());
+    }
+
+    /**
+     * @param user the user that was added.
+     * @return the LSN of the record.
+     */
+    long appendAddUser(User user) {
+        return this.append(ADD_USER, user.getName(), user.getPassword());
+    }
+
+    /**
+     * @param name the name of the user that was removed.
+     * @return the LSN of the record.
+     */
+    long appendRemoveUser(String name) {
+        return this.append(REMOVE_USER, name);
+    }
+
+    /**
+     * @param user the user whose credential was replaced.
+     * @return the LSN of the record.
+     */
+    long appendSetCredential(User user) {
+        return this.append(SET_CREDENTIAL, user.getName(), user.getPassword());
+    }
+
+    /**
+     * @throws PersistenceException if the log failed or is closed, so that a
+     * record appended now would be rejected.
+     */
+    void checkWritable() throws PersistenceException {
+        if (this.failure != null)
+            throw new PersistenceException("The write-ahead log failed.", this.failure);
+        if (this.closed)
+            throw new PersistenceException("The write-ahead log is closed.", null);
+    }
+
+    /**
+     * Waits until the record with the given LSN, and all records before it,
+     * are durable.
+     * @param lsn the LSN of the record.
+     * @throws PersistenceException if the log failed or is closed.
+     */
+    void await(long lsn) throws PersistenceException {
+        if (this.durableLsn >= lsn) return;
+        this.durableLock.lock();
+        try {
+            while (this.durableLsn < lsn) {
+                if (this.failure != null)
+                    throw new PersistenceException("The write-ahead log failed.", this.failure);
+                this.durableChanged.await();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new PersistenceException("Interrupted while waiting for the write-ahead log.", ex);
+        } finally {
+            this.durableLock.unlock();
+        }
+    }
+
+    /**
+     * Every record with an LSN up to the returned one is reflected in the
+     * library, because records are appended after their mutation.
+     * @return the LSN of the last record appended.
+     */
+    public long getLastLsn() {
+        synchronized (this.appendLock) {
+            return this.lastLsn;
+        }
+    }
+
+    /**
+     * @return the number of records made durable since the log was opened.
+     */
+    public synchronized long getCommitCount() {
+        return commits;
+    }
+
+    /**
+     * @return the number of batches (and fsyncs) since the log was opened.
+     */
+    public synchronized long getBatchCount() {
+        return batches;
+    }
+
+    /**
+     * Writes the pending records and closes the log. Records appended from
+     * now on are rejected. Callers still waiting for a record that the
+     * writer did not get to, because it failed or never started, get a
+     * PersistenceException.
+     * @throws IOException if the log cannot be closed.
+     */
+    @Override
+    public void close() throws IOException {
+        long last;
+        synchronized (this.appendLock) {
+            // after this, no record is queued that the writer could miss :
+            this.closed = true;
+            last = this.lastLsn;
+        }
+        try {
+            this.writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (this.failure == null && this.durableLsn < last)
+            this.signal(this.durableLsn, new IOException("The log was closed before the record was written."));
+        synchronized (this.fileLock) {
+            this.channel.close();
+        }
+    }
+
+    /**
+     * @param type the type of the record.
+     * @param fields the fields of the record.
+     * @return the LSN of the record.
+     * @throws PersistenceException if the log failed or is closed.
+     */
+    private long append(byte type, String... fields) throws PersistenceException {
+        this.checkWritable();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(bytes);
+        synchronized (this.appendLock) {
+            // checked under the lock that close takes, so that the writer does
+            // not stop before it wrote the record :
+            if (this.closed)
+                throw new PersistenceException("The write-ahead log is closed.", null);
+            // the LSN is assigned in the order in which records are queued :
+            long lsn = ++this.lastLsn;
+            try {
+                out.writeLong(lsn);
+                out.writeByte(type);
+                for (String field : fields) out.writeUTF(field);
+            } catch (IOException ex) {
+                throw new PersistenceException("Could not encode a log record.", ex);
+            }
+            this.queue.add(new Pending(lsn, bytes.toByteArray()));
+            return lsn;
+        }
+    }
+
+    /**
+     * The loop of the writer thread.
+     */
+    private void write() {
+        List<Pending> batch = new ArrayList<>();
+        CRC32 crc = new CRC32();
+        try {
+            while (! this.closed || ! this.queue.isEmpty()) {
+                Pending first = this.queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) continue;
+                batch.add(first);
+                long deadline = System.nanoTime() + this.batchWindow;
+                for (long wait = this.batchWindow; wait > 0; wait = deadline - System.nanoTime()) {
+                    Pending next = this.queue.poll(wait, TimeUnit.NANOSECONDS);
+                    if (next == null) break;
+                    batch.add(next);
+                }
+                this.queue.drainTo(batch);
+
+                int size = 0;
+                for (Pending p : batch) size += HEADER_SIZE + p.payload.length;
+                ByteBuffer buffer = ByteBuffer.allocate(size);
+                for (Pending p : batch) {
+                    crc.reset();
+                    crc.update(p.payload, 0, p.payload.length);
+                    buffer.putInt(p.payload.length).putInt((int) crc.getValue()).put(p.payload);
+                }
+                buffer.flip();
+                synchronized (this.fileLock) {
+                    while (buffer.hasRemaining()) this.channel.write(buffer);
+                    this.channel.force(false);
+                    this.writtenLsn = batch.get(batch.size() - 1).lsn;
+                }
+
+                synchronized (this) {
+                    this.commits += batch.size();
+                    this.batches++;
+                }
+                this.signal(batch.get(batch.size() - 1).lsn, null);
+                batch.clear();
+            }
+        } catch (IOException | InterruptedException | RuntimeException ex) {
+            this.signal(this.durableLsn, ex);
+        }
+    }
+
+    /**
+     * @param lsn the LSN up to which the log is durable.
+     * @param failure the failure of the writer, or NULL.
+     */
+    private void signal(long lsn, Throwable failure) {
+        this.durableLock.lock();
+        try {
+            if (failure != null) this.failure = failure;
+            this.durableLsn = lsn;
+            this.durableChanged.signalAll();
+        } finally {
+            this.durableLock.unlock();
+        }
+    }
+
+    /**
+     * Applies the records of a file after a given LSN to a library, up to the
+     * first incomplete or corrupt record, and leaves the position of the file
+     * after the last complete record.
+     * @param in the file to read the records from.
+     * @param library the library to apply the records to.
+     * @param afterLsn the LSN up to which the library is already up to date.
+     * @return the number of records applied.
+     * @throws IOException if the file cannot be read.
+     */
+    private int replay(FileChannel in, Library library, long afterLsn) throws IOException {
+        long position = 0;
+        int records = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        CRC32 crc = new CRC32();
+        while (true) {
+            header.clear();
+            if (read(in, header, position) < HEADER_SIZE) break;
+            int length = header.getInt(0);
+            int checksum = header.getInt(4);
+            if (length <= 0 || length > MAX_RECORD_SIZE) break;
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            if (read(in, payload, position + HEADER_SIZE) < length) break;
+            crc.reset();
+            crc.update(payload.array(), 0, length);
+            if ((int) crc.getValue() != checksum) break;
+            long lsn = payload.getLong(0);
+            if (lsn > afterLsn) {
+                apply(library, payload.array());
+                records++;
+            }
+            this.lastLsn = lsn;
+            position += HEADER_SIZE + length;
+        }
+        in.position(position);
+        return records;
+    }
+
+    /**
+     * @return the segments of the log, oldest first.
+     * @throws IOException if the directory of the log cannot be listed.
+     */
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        Path directory = this.file.toAbsolutePath().getParent();
+        String prefix = this.file.getFileName() + ".";
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                if (name.startsWith(prefix) && name.length() == prefix.length() + 19
+                        && name.substring(prefix.length()).matches("[0-9]+"))
+                    segments.add(path);
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+
+    /**
+     * @param segment a segment of the log.
+     * @return the LSN of the last record in the segment.
+     */
+    private static long lastLsnOf(Path segment) {
+        String name = segment.getFileName().toString();
+        return Long.parseLong(name.substring(name.length() - 19));
+    }
+
+    /**
+     * @param file the file of a log.
+     * @return the file, opened for reading and appending.
+     * @throws IOException if the file cannot be opened.
+     */
+    private static FileChannel open(Path file) throws IOException {
+        FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.position(channel.size());
+        return channel;
+    }
+
+    /**
+     * @param in the file to read from.
+     * @param buffer the buffer to fill.
+     * @param position the position in the file to read from.
+     * @return the number of bytes read.
+     * @throws IOException if the file cannot be read.
+     */
+    private static int read(FileChannel in, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            int n = in.read(buffer, position + buffer.position());
+            if (n < 0) break;
+        }
+        return buffer.position();
+    }
+
+    /**
+     * @param library the library to apply the record to.
+     * @param payload the payload of the record.
+     * @throws IOException if the record cannot be decoded.
+     */
+    private static void apply(Library library, byte[] payload) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+        in.readLong();
+        byte type = in.readByte();
+        switch (type) {
+            case ADD_BOOK:
+                String title = in.readUTF();
+                String author = in.readUTF();
+                int year = Integer.parseInt(in.readUTF());
+                String rating = in.readUTF();
+                Book book = new Book(title, author, year,
+                        rating.isEmpty() ? null : Rating.valueOf(rating),
+                        in.readUTF(), in.readUTF());
+                try {
+                    library.addBook(book);
+                } catch (DuplicateException ex) {
+                    // already applied
+                }
+                break;
+            case REMOVE_BOOK:
+                library.removeBook(in.readUTF(), in.readUTF());
+                break;
+            case ADD_USER:
+                try {
+                    library.addUser(new User(in.readUTF(), in.readUTF()));
+                } catch (DuplicateException ex) {
+                    // already applied
+                }
+                break;
+            case REMOVE_USER:
+                library.removeUser(in.readUTF());
+                break;
+            case SET_CREDENTIAL:
+                try {
+                    User user = library.lookupUser(in.readUTF());
+                    user.setCredential(Credential.parse(in.readUTF()), user.getCredential());
+                } catch (UserNotFoundException ex) {
+                    // removed again later in the log
+                }
+                break;
+            default:
+                throw new IOException("Unknown log record type " + type + ".");
+        }
+    }
+
+    /**
+     * An encoded record waiting to be written.
+     */
+    private static final class Pending {
+
+        private final long lsn;
+        private final byte[] payload;
+
+        Pending(long lsn, byte[] payload) {
+            this.lsn = lsn;
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package system;
+
+/**
+ * The YearKey class orders the copies of books by publishing year first and
+ * by their BookKey second. A YearKey without a BookKey sorts before all other
+ * keys of the same year, which makes it usable as a range bound.
+ */
+final class YearKey implements Comparable<YearKey> {
+
+    private final int year;
+    private final BookKey key;
+
+    /**
+     * @param year the publishing year of the book.
+     * @param key the key of the book, or NULL for the lower bound of the year.
+     */
+    YearKey(int year, BookKey key) {
+        this.year = year;
+        this.key = key;
+    }
+
+    /**
+     * @param cursor a cursor in the form 'year/ISBN/owner'.
+     * @return the key described by the cursor.
+     * @throws IllegalArgumentException if the cursor is malformed.
+     */
+    static YearKey parse(String cursor) throws IllegalArgumentException {
+        int first = cursor.indexOf('/');
+        int second = first < 0 ? -1 : cursor.indexOf('/', first + 1);
+        if (second < 0)
+            throw new IllegalArgumentException("Invalid cursor '" + cursor + "'.");
+        try {
+            return new YearKey(Integer.parseInt(cursor.substring(0, first)),
+                    new BookKey(cursor.substring(first + 1, second), cursor.substring(second + 1)));
+        } catch (NumberFormatException ex) {
+            throw new IllegalArgumentException("Invalid cursor '" + cursor + "'.");
+        }
+    }
+
+    int getYear() {
+        return year;
+    }
+
+    BookKey getKey() {
+        return key;
+    }
+
+    @Override
+    public int compareTo(YearKey k) {
+        if (this.year != k.year) return this.year < k.year ? -1 : 1;
+        if (this.key == null) return k.key == null ? 0 : -1;
+        if (k.key == null) return 1;
+        return this.key.compareTo(k.key);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this) return true;
+        if (! (obj instanceof YearKey)) return false;
+        return this.compareTo((YearKey) obj) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.year + (this.key == null ? 0 : this.key.hashCode());
+    }
+
+    /**
+     * @return the key in the form 'year/ISBN/owner', as used by query cursors.
+     */
+    @Override
+    public String toString() {
+        return this.year + "/" + this.key;
+    }
+}